@@ -0,0 +1,112 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package buscript;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Measures loading scheduled scripts from the YAML format of earlier versions and from the binary script data format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScriptDataFormatBenchmark {
+
+    private static final Logger LOGGER = Logger.getLogger("ScriptDataFormatBenchmark");
+
+    @Param({"1000", "100000"})
+    public int scripts;
+
+    @Param({"yaml", "binary", "compressed"})
+    public String format;
+
+    private File file;
+
+    @Setup
+    public void setUp() throws Exception {
+        List<ScheduledScript> scheduled = createScripts(scripts);
+        file = Files.createTempFile("benchmark", ".bin").toFile();
+        if (format.equals("yaml")) {
+            YamlConfiguration config = new YamlConfiguration();
+            config.set("scripts", toYamlData(scheduled));
+            config.save(file);
+        } else {
+            ScriptDataFormat.write(file, scheduled, format.equals("compressed"));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public List<ScheduledScript> read() throws Exception {
+        return ScriptDataFormat.read(file, LOGGER);
+    }
+
+    private static List<ScheduledScript> createScripts(int count) {
+        List<ScheduledScript> scripts = new ArrayList<ScheduledScript>(count);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            String target = "Player" + (i % 500);
+            List<Map<String, Object>> replacements = new ArrayList<Map<String, Object>>(1);
+            Map<String, Object> replacement = new HashMap<String, Object>(4);
+            replacement.put("regex", "%target%");
+            replacement.put("replace", target);
+            replacement.put("var", "target");
+            replacements.add(replacement);
+            Map<String, Object> metaData = new HashMap<String, Object>(4);
+            metaData.put("amount", i % 10);
+            metaData.put("reason", "vote");
+            scripts.add(new ScheduledScript(i, target, "plugins/Buscript/scripts/vote-reward.js",
+                    now + i * 1000L, replacements, metaData));
+        }
+        return scripts;
+    }
+
+    private static Map<String, List<Map<String, Object>>> toYamlData(List<ScheduledScript> scripts) {
+        Map<String, List<Map<String, Object>>> data = new LinkedHashMap<String, List<Map<String, Object>>>();
+        for (ScheduledScript script : scripts) {
+            List<Map<String, Object>> targetScripts = data.get(script.target);
+            if (targetScripts == null) {
+                targetScripts = new ArrayList<Map<String, Object>>();
+                data.put(script.target, targetScripts);
+            }
+            Map<String, Object> map = new HashMap<String, Object>();
+            map.put("id", script.id);
+            map.put("time", script.time);
+            map.put("file", script.file);
+            map.put("replacements", script.replacements);
+            map.put("metaData", script.metaData);
+            targetScripts.add(map);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,118 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package buscript;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.script.ScriptException;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Measures the script manager paths every script goes through: string replacement, running scripts from a string
+ * and from a file, and calling functions in and out of the scripting environment.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScriptManagerBenchmark {
+
+    private static final String SCRIPT = "var greeting = 'Hello ' + target; greeting.length";
+    private static final String MESSAGE = "&aHello %t, welcome to &b%world%&a!";
+
+    /**
+     * Methods bound into the scripting environment.  Must be public for the script engine to see them.
+     */
+    public static class BenchmarkMethods {
+
+        public int add(int a, int b) {
+            return a + b;
+        }
+    }
+
+    private File folder;
+    private File scriptFile;
+    private ScriptManager scriptManager;
+    private Object globalScope;
+
+    @Setup
+    public void setUp() throws Exception {
+        folder = Files.createTempDirectory("benchmark").toFile();
+        scriptFile = new File(folder, "script.js");
+        Files.write(scriptFile.toPath(), SCRIPT.getBytes("UTF-8"));
+        scriptManager = new ScriptManager(folder, Logger.getLogger("ScriptManagerBenchmark"));
+        scriptManager.registerStringReplacer(new StringReplacer() {
+            @Override
+            public String getRegexString() {
+                return "%world%";
+            }
+
+            @Override
+            public String getReplacement() {
+                return "world";
+            }
+
+            @Override
+            public String getGlobalVarName() {
+                return "world";
+            }
+        });
+        scriptManager.addScriptMethods(new BenchmarkMethods());
+        scriptManager.runScript("function jsAdd(a, b) { return a + b; }"
+                + "function boundAdd(a, b) { return add(a, b); }", null);
+        globalScope = scriptManager.getGlobalScope();
+    }
+
+    @TearDown
+    public void tearDown() {
+        scriptManager.shutdownAsyncExecutor();
+        scriptFile.delete();
+        folder.delete();
+    }
+
+    @Benchmark
+    public String stringReplace() {
+        return scriptManager.stringReplace(MESSAGE);
+    }
+
+    @Benchmark
+    public Object runScriptString() {
+        return scriptManager.executeScript(SCRIPT, null, "Player");
+    }
+
+    @Benchmark
+    public Object executeScriptFile() {
+        return scriptManager.executeScript(scriptFile, "Player");
+    }
+
+    @Benchmark
+    public Object executeCachedScript() {
+        return scriptManager.executeCachedScript(scriptFile.toString(), "Player", null, null);
+    }
+
+    @Benchmark
+    public Object runScriptFunction() throws FunctionNotFoundException, ScriptException {
+        return scriptManager.runScriptFunction(globalScope, "jsAdd", 2, 3);
+    }
+
+    @Benchmark
+    public Object runBoundScriptMethod() throws FunctionNotFoundException, ScriptException {
+        return scriptManager.runScriptFunction(globalScope, "boundAdd", 2, 3);
+    }
+}
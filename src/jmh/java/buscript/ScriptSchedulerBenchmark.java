@@ -0,0 +1,70 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package buscript;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the work a {@link ScriptTask} tick does to find due scripts while a number of scripts are scheduled.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScriptSchedulerBenchmark {
+
+    /** The time the scheduled scripts are due after, far enough away that none of them become due. */
+    private static final long LATER = Long.MAX_VALUE / 2;
+
+    @Param({"100", "10000", "100000"})
+    public int scheduled;
+
+    private ScriptScheduler scheduler;
+    private List<Map<String, Object>> replacements;
+    private Map<String, Object> metaData;
+    private long now = 0;
+
+    @Setup
+    public void setUp() {
+        scheduler = new ScriptScheduler();
+        replacements = Collections.emptyList();
+        metaData = Collections.emptyMap();
+        for (int i = 0; i < scheduled; i++) {
+            scheduler.schedule("player" + (i % 100), "script" + (i % 10) + ".js", LATER + i, replacements, metaData);
+        }
+    }
+
+    @Benchmark
+    public List<ScheduledScript> tickNothingDue() {
+        return scheduler.pollDue(++now);
+    }
+
+    @Benchmark
+    public List<ScheduledScript> tickOneDue() {
+        now++;
+        scheduler.schedule("player", "script.js", now, replacements, metaData);
+        List<ScheduledScript> due = scheduler.pollDue(now);
+        for (ScheduledScript script : due) {
+            scheduler.finish(script);
+        }
+        return due;
+    }
+}
@@ -0,0 +1,96 @@
+package buscript.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Measures reading script files and parsing the short time form used when scheduling scripts.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ToolsBenchmark {
+
+    private static final Logger LOGGER = Logger.getLogger("ToolsBenchmark");
+
+    @State(Scope.Benchmark)
+    public static class ScriptFile {
+
+        @Param({"1024", "65536", "4194304"})
+        public int fileSize;
+
+        private File file;
+
+        @Setup
+        public void setUp() throws Exception {
+            StringBuilder source = new StringBuilder(fileSize);
+            while (source.length() < fileSize) {
+                source.append("broadcast('&aHello %t, welcome to the server!');\n");
+            }
+            source.setLength(fileSize);
+            file = File.createTempFile("benchmark", ".js");
+            Files.write(file.toPath(), source.toString().getBytes("UTF-8"));
+        }
+
+        @TearDown
+        public void tearDown() {
+            file.delete();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ShortForm {
+
+        @Param({"30s", "1d2h3m4s"})
+        public String time;
+    }
+
+    @Benchmark
+    public String readFileAsString(ScriptFile scriptFile) {
+        return FileTools.readFileAsString(scriptFile.file, LOGGER);
+    }
+
+    /**
+     * Reads the file the way {@link FileTools#readFileAsString} did before it used NIO, for comparison.
+     */
+    @Benchmark
+    public String readFileWithReader(ScriptFile scriptFile) throws IOException {
+        StringBuilder fileData = new StringBuilder(1000);
+        try (BufferedReader reader = new BufferedReader(new FileReader(scriptFile.file))) {
+            char[] buf = new char[1024];
+            int numRead;
+            while ((numRead = reader.read(buf)) != -1) {
+                String readData = String.valueOf(buf, 0, numRead);
+                fileData.append(readData);
+                buf = new char[1024];
+            }
+        }
+        return fileData.toString();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public long fromShortForm(ShortForm shortForm) {
+        return TimeTools.fromShortForm(shortForm.time);
+    }
+}
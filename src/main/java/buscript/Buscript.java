@@ -6,15 +6,10 @@ package buscript;
 import net.milkbowl.vault.chat.Chat;
 import net.milkbowl.vault.economy.Economy;
 import net.milkbowl.vault.permission.Permission;
-import org.bukkit.configuration.ConfigurationSection;
-import org.bukkit.configuration.file.FileConfiguration;
-import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Player;
 import org.bukkit.event.Event;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.HandlerList;
-import org.bukkit.event.Listener;
-import org.bukkit.plugin.EventExecutor;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.RegisteredListener;
 import org.bukkit.plugin.RegisteredServiceProvider;
@@ -23,10 +18,16 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 public class Buscript extends ScriptManager {
 
@@ -36,15 +37,34 @@ public class Buscript extends ScriptManager {
     private Economy economy;
     private Chat chat;
 
-    private File scriptFile;
-    private FileConfiguration scriptConfig;
+    /** The number of journal records after which the script data file may be rewritten. */
+    private static final int JOURNAL_COMPACT_THRESHOLD = 1024;
+
+    /** The default time in milliseconds changes to scheduled scripts are collected for before being written. */
+    private static final long DEFAULT_SAVE_DELAY = 1000L;
+
+    private ScriptDataWriter dataWriter;
 
     boolean runTasks = true;
-    Map<String, List<Map<String, Object>>> delayedScripts = new HashMap<String, List<Map<String, Object>>>();
+    final ScriptScheduler scheduler = new ScriptScheduler();
+    private final ScriptTask scriptTask;
+    /** The online players, for script functions that take a player name. */
+    final PlayerIndex players = new PlayerIndex();
+    /** The commands run by script functions. */
+    final CommandQueue commandQueue;
+
+    /** The handler lists of event classes scripts were bound to.  Only used on the main thread. */
+    private final Map<Class<? extends Event>, HandlerList> handlerLists =
+            new HashMap<Class<? extends Event>, HandlerList>();
+    /** The executor of each event class and priority scripts are bound to.  Only used on the main thread. */
+    private final Map<Class<? extends Event>, Map<EventPriority, DefaultEventExecutor>> eventExecutors =
+            new HashMap<Class<? extends Event>, Map<EventPriority, DefaultEventExecutor>>();
 
     /**
      * Creates a new Buscript object, which is used to execute Javascript script files.
-     * <p>This object is not thread-safe so a new one should be created for each thread.</p>
+     * <p>Scripts may be executed from any thread and up to {@link #getEnginePoolSize()} of them run at the same time.
+     * Scheduled scripts and event scripts are always changed on the main thread.  This object must be created on the
+     * main thread, which keeps a script engine of its own so it never waits for scripts running on other threads.</p>
      * <p>This constructor will automatically assign the variable name "plugin" to your plugin for script purposes.</p>
      *
      * @param plugin The plugin implementing this library.
@@ -56,7 +76,9 @@ public class Buscript extends ScriptManager {
     /**
      * Creates a new Buscript object, which is used to execute Javascript script files.
      *
-     * <p>This object is not thread-safe so a new one should be created for each thread.</p>
+     * <p>Scripts may be executed from any thread and up to {@link #getEnginePoolSize()} of them run at the same time.
+     * Scheduled scripts and event scripts are always changed on the main thread.  This object must be created on the
+     * main thread, which keeps a script engine of its own so it never waits for scripts running on other threads.</p>
      *
      * @param plugin The plugin implementing this library.
      * @param pluginScriptName The name of the variable the plugin will be referenced as in scripts.
@@ -64,11 +86,16 @@ public class Buscript extends ScriptManager {
     public Buscript(Plugin plugin, String pluginScriptName) {
         super(new File(plugin.getDataFolder(), "scripts"), plugin.getLogger());
         this.plugin = plugin;
+        commandQueue = new CommandQueue(plugin);
+        scriptTask = new ScriptTask(this);
 
         // Adds the current server instance as a script variable "server".
         setScriptVariable("server", plugin.getServer());
         setScriptVariable(pluginScriptName, plugin);
 
+        // Keeps track of the online players for the default functions.
+        players.addAll(plugin.getServer().getOnlinePlayers());
+        plugin.getServer().getPluginManager().registerEvents(players, plugin);
         // Adds all the default Buscript global methods.
         addScriptMethods(new DefaultFunctions(this));
         // Sets up permissions with vault.
@@ -76,44 +103,44 @@ public class Buscript extends ScriptManager {
         plugin.getServer().getPluginManager().registerEvents(new VaultListener(this), plugin);
         // Initializes the delayed script data.
         initData();
-        // Starts up a task to check for scripts that need to run at a specific time.
-        ScriptTask scriptTask = new ScriptTask(this);
+        // Starts up a task to run scheduled scripts when they are due.
         scriptTask.start();
+        // Reloads scripts in the background when they are changed.
+        startWatchingScripts();
         // Registers events with bukkit.
         plugin.getServer().getPluginManager().registerEvents(new BuscriptListener(this), plugin);
     }
 
     private void initData() {
-        scriptFile = new File(getScriptFolder(), "scripts.bin");
-        scriptConfig = YamlConfiguration.loadConfiguration(scriptFile);
-        ConfigurationSection scripts = scriptConfig.getConfigurationSection("scripts");
-        if (scripts != null) {
-            for (String player : scripts.getKeys(false)) {
-                List<Map<String, Object>> playerScripts = new ArrayList<Map<String, Object>>();
-                delayedScripts.put(player, playerScripts);
-                for (Object scriptObj : scripts.getList(player)) {
-                    if (scriptObj instanceof Map) {
-                        Map scriptMap = (Map) scriptObj;
-                        Map<String, Object> script = new HashMap<String, Object>(2);
-                        for (Object keyObj : scriptMap.keySet()) {
-                            if (keyObj.toString().equals("time")) {
-                                try {
-                                    script.put(keyObj.toString(), Long.valueOf(scriptMap.get(keyObj).toString()));
-                                } catch (NumberFormatException e) {
-                                    getPlugin().getLogger().warning("Script data error, time reset");
-                                    script.put(keyObj.toString(), 0);
-                                }
-                            }/* else if (keyObj.toString().equals("replacements")) {
-                                Object obj = scriptMap.get(keyObj);
-                                System.out.println(obj);
-                            }*/ else {
-                                script.put(keyObj.toString(), scriptMap.get(keyObj));
-                            }
-                        }
-                        playerScripts.add(script);
-                    }
+        File scriptFile = new File(getScriptFolder(), "scripts.bin");
+        boolean migrate = false;
+        try {
+            migrate = scriptFile.exists() && !ScriptDataFormat.isBinary(scriptFile);
+            if (migrate) {
+                // Keeps the YAML data written by earlier versions in case it is needed again.
+                Files.copy(scriptFile.toPath(), new File(getScriptFolder(), "scripts.bin.yml").toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+                getPlugin().getLogger().info("Converting scheduled script data to binary format");
+            }
+            for (ScheduledScript script : ScriptDataFormat.read(scriptFile, getPlugin().getLogger())) {
+                if (script.id < 0 || !scheduler.restore(script)) {
+                    scheduler.schedule(script.target, script.file, script.time, script.replacements, script.metaData);
                 }
             }
+        } catch (IOException e) {
+            getPlugin().getLogger().warning("Could not load script data: " + e.getMessage());
+        }
+        // Applies any changes made since the script data file was last written.
+        File journalFile = new File(getScriptFolder(), "scripts.journal");
+        ScheduleJournal journal = new ScheduleJournal(journalFile);
+        try {
+            journal.replay(scheduler);
+        } catch (IOException e) {
+            getPlugin().getLogger().warning("Could not read script journal: " + e.getMessage());
+        }
+        dataWriter = new ScriptDataWriter(scriptFile, journal, getPlugin().getLogger(), DEFAULT_SAVE_DELAY);
+        if (migrate || journalFile.length() > 0) {
+            saveData();
         }
     }
 
@@ -150,15 +177,262 @@ public class Buscript extends ScriptManager {
         setScriptVariable("economy", economy);
     }
 
+    /**
+     * Queues all scheduled scripts to be written to the script data file, after which the journal is emptied.
+     */
     void saveData() {
-        scriptConfig.set("scripts", delayedScripts);
-        try {
-            scriptConfig.save(scriptFile);
-        } catch (IOException e) {
-            plugin.getLogger().warning("Could not save script data: " + e.getMessage());
+        // Due scripts still waiting to run are scheduled until they run, so they are saved too.
+        dataWriter.snapshot(scheduler.snapshot());
+    }
+
+    /**
+     * Saves all scheduled scripts and waits until they have been written.  Called when the plugin is disabled.
+     */
+    void closeData() {
+        saveData();
+        dataWriter.close();
+    }
+
+    void logScheduled(ScheduledScript script) {
+        final ScheduledScript copy = script.copy();
+        dataWriter.append(new ScriptDataWriter.JournalRecord() {
+            @Override
+            public void write(ScheduleJournal journal) throws IOException {
+                journal.add(copy);
+            }
+        });
+        compactJournal();
+    }
+
+    void logFired(final ScheduledScript script) {
+        dataWriter.append(new ScriptDataWriter.JournalRecord() {
+            @Override
+            public void write(ScheduleJournal journal) throws IOException {
+                journal.fire(script.id);
+            }
+        });
+        compactJournal();
+    }
+
+    void logCursor(final ScheduledScript script) {
+        final long time = script.time;
+        dataWriter.append(new ScriptDataWriter.JournalRecord() {
+            @Override
+            public void write(ScheduleJournal journal) throws IOException {
+                journal.cursor(script.id, time);
+            }
+        });
+        compactJournal();
+    }
+
+    void logRemoved(final ScheduledScript script) {
+        dataWriter.append(new ScriptDataWriter.JournalRecord() {
+            @Override
+            public void write(ScheduleJournal journal) throws IOException {
+                journal.remove(script.id);
+            }
+        });
+        compactJournal();
+    }
+
+    void logFileCleared(final String file) {
+        dataWriter.append(new ScriptDataWriter.JournalRecord() {
+            @Override
+            public void write(ScheduleJournal journal) throws IOException {
+                journal.clearFile(file);
+            }
+        });
+        compactJournal();
+    }
+
+    void logCleared(final String target) {
+        dataWriter.append(new ScriptDataWriter.JournalRecord() {
+            @Override
+            public void write(ScheduleJournal journal) throws IOException {
+                journal.clear(target);
+            }
+        });
+        compactJournal();
+    }
+
+    private void compactJournal() {
+        // Only rewrite once the journal outgrows the scripts it describes, keeping each change O(1) on average.
+        int records = dataWriter.getJournalRecords();
+        if (dataWriter.isSnapshotRequired() || (records >= JOURNAL_COMPACT_THRESHOLD && records > scheduler.size())) {
+            saveData();
         }
     }
 
+    /**
+     * Sets how long changes to scheduled scripts are collected for before they are written to disk on a background
+     * thread.  All pending changes are always written when the plugin is disabled.
+     *
+     * @param millis the delay in milliseconds.
+     */
+    public void setSaveDelay(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("millis must not be negative");
+        }
+        dataWriter.setSaveDelay(millis);
+    }
+
+    /**
+     * Gets how long changes to scheduled scripts are collected for before they are written to disk.
+     *
+     * @return the delay in milliseconds.
+     */
+    public long getSaveDelay() {
+        return dataWriter.getSaveDelay();
+    }
+
+    /**
+     * Sets whether the file holding scheduled scripts should be gzip compressed when it is next written.  Both forms
+     * are always readable.
+     *
+     * @param compress true to compress the scheduled script data.
+     */
+    public void setCompressScriptData(boolean compress) {
+        dataWriter.setCompress(compress);
+    }
+
+    /**
+     * Gets whether the file holding scheduled scripts is gzip compressed when written.
+     *
+     * @return true if scheduled script data is compressed.
+     */
+    public boolean isCompressScriptData() {
+        return dataWriter.isCompress();
+    }
+
+    /**
+     * Sets the highest number of commands scripts may dispatch per server tick.  Commands past that wait in order for
+     * the following ticks.
+     *
+     * @param commands the number of commands per tick, at least 1.
+     */
+    public void setCommandsPerTick(int commands) {
+        commandQueue.setTickBudget(commands);
+    }
+
+    /**
+     * Gets the highest number of commands scripts may dispatch per server tick.
+     *
+     * @return the number of commands per tick.
+     */
+    public int getCommandsPerTick() {
+        return commandQueue.getTickBudget();
+    }
+
+    /**
+     * Sets whether a command is dropped when an identical command for the same sender is still waiting to be
+     * dispatched.  Off by default, so every command a script runs is dispatched.
+     *
+     * @param coalesce true to drop identical waiting commands.
+     */
+    public void setCoalesceCommands(boolean coalesce) {
+        commandQueue.setCoalescing(coalesce);
+    }
+
+    /**
+     * Gets whether a command is dropped when an identical command for the same sender is still waiting.
+     *
+     * @return true if identical waiting commands are dropped.
+     */
+    public boolean isCoalesceCommands() {
+        return commandQueue.isCoalescing();
+    }
+
+    /**
+     * Gets the statistics of the commands scripts dispatched since the statistics were last reset.
+     *
+     * @return a snapshot of the command queue statistics.
+     */
+    public CommandQueueStats getCommandStats() {
+        return commandQueue.getStats();
+    }
+
+    /**
+     * Discards the statistics of the commands scripts dispatched.
+     */
+    public void resetCommandStats() {
+        commandQueue.resetStats();
+    }
+
+    /**
+     * Sets how many scheduled scripts may run per server tick and for how long.  Due scripts past either limit wait
+     * for the following ticks.  At least one due script runs per tick.
+     *
+     * @param scripts the number of scripts per tick, at least 1.
+     * @param millis the time in milliseconds per tick, at least 1.
+     */
+    public void setScheduledScriptBudget(int scripts, long millis) {
+        scriptTask.setTickBudget(scripts, millis);
+    }
+
+    /**
+     * Gets how many scheduled scripts may run per server tick.
+     *
+     * @return the number of scripts per tick.
+     */
+    public int getScheduledScriptsPerTick() {
+        return scriptTask.getTickScripts();
+    }
+
+    /**
+     * Gets how long scheduled scripts may run for per server tick.
+     *
+     * @return the time in milliseconds per tick.
+     */
+    public long getScheduledScriptTimePerTick() {
+        return scriptTask.getTickTime();
+    }
+
+    /**
+     * Sets what happens to scheduled scripts that are overdue by more than the given age when they come due, such as
+     * after the server was down.  Every overdue script runs by default.
+     *
+     * @param policy the catch-up policy.
+     * @param age the time in milliseconds a script has to be overdue by for the policy to apply.
+     */
+    public void setCatchUpPolicy(CatchUpPolicy policy, long age) {
+        scriptTask.setCatchUpPolicy(policy, age);
+    }
+
+    /**
+     * Gets what happens to scheduled scripts that are overdue by more than {@link #getCatchUpAge()}.
+     *
+     * @return the catch-up policy.
+     */
+    public CatchUpPolicy getCatchUpPolicy() {
+        return scriptTask.getCatchUpPolicy();
+    }
+
+    /**
+     * Gets the time a scheduled script has to be overdue by for the catch-up policy to apply.
+     *
+     * @return the time in milliseconds.
+     */
+    public long getCatchUpAge() {
+        return scriptTask.getCatchUpAge();
+    }
+
+    /**
+     * Gets the statistics of the scheduled scripts that ran since the statistics were last reset, including how late
+     * they ran.
+     *
+     * @return a snapshot of the scheduled script statistics.
+     */
+    public ScheduleStats getScheduleStats() {
+        return scriptTask.getStats();
+    }
+
+    /**
+     * Discards the statistics of the scheduled scripts that ran.
+     */
+    public void resetScheduleStats() {
+        scriptTask.resetStats();
+    }
+
     /**
      * Retrieves the plugin that is implementing this library.
      *
@@ -216,9 +490,11 @@ public class Buscript extends ScriptManager {
      *
      * @param scriptFile the file to execute.
      * @param delay the delay for the script in milliseconds.
+     * @deprecated use {@link #scheduleDelayedScript(File, long)}, which returns the id of the scheduled script.
      */
+    @Deprecated
     public void scheduleScript(File scriptFile, long delay) {
-        scheduleScript(scriptFile, null, delay);
+        scheduleDelayedScript(scriptFile, delay);
     }
 
     /**
@@ -228,20 +504,63 @@ public class Buscript extends ScriptManager {
      * @param target the target of the script which is used to replace the string '%t' and is added in the global scope
      *               as variable 'target'
      * @param delay the delay for the script in milliseconds.
+     * @deprecated use {@link #scheduleDelayedScript(File, String, long)}, which returns the id of the scheduled script.
      */
+    @Deprecated
     public void scheduleScript(File scriptFile, String target, long delay) {
+        scheduleDelayedScript(scriptFile, target, delay);
+    }
+
+    /**
+     * Schedules a script to be run at a later time as specified by delay with no specified target.  The script runs on
+     * the server tick closest to the end of the delay.
+     *
+     * @param scriptFile the file to execute.
+     * @param delay the delay for the script in milliseconds.
+     * @return the id of the scheduled script, for {@link #cancelScheduledScript(long)}.
+     */
+    public long scheduleDelayedScript(File scriptFile, long delay) {
+        return scheduleDelayedScript(scriptFile, null, delay);
+    }
+
+    /**
+     * Schedules a script to be run at a later time as specified by delay with the specified target.
+     *
+     * @param scriptFile the file to execute.
+     * @param target the target of the script which is used to replace the string '%t' and is added in the global scope
+     *               as variable 'target'
+     * @param delay the delay for the script in milliseconds.
+     * @return the id of the scheduled script, for {@link #cancelScheduledScript(long)}.
+     */
+    public long scheduleDelayedScript(File scriptFile, String target, long delay) {
+        return schedule(scriptFile, target, System.currentTimeMillis() + delay, null);
+    }
+
+    /**
+     * Schedules a script to be run repeatedly with the specified target, until the scripts of the target are cleared.
+     * The script is stored once with the replacements and meta data of the current script, and each run only stores
+     * its next due time.
+     *
+     * @param scriptFile the file to execute.
+     * @param target the target of the script which is used to replace the string '%t' and is added in the global scope
+     *               as variable 'target'
+     * @param recurrence when the script runs.
+     * @return the id of the scheduled script, for {@link #cancelScheduledScript(long)}, or -1 if the recurrence never
+     *         runs.
+     */
+    public long scheduleScript(File scriptFile, String target, Recurrence recurrence) {
+        long time = recurrence.first(System.currentTimeMillis());
+        if (time == Long.MAX_VALUE) {
+            return -1L;
+        }
+        return schedule(scriptFile, target, time, recurrence);
+    }
+
+    private long schedule(File scriptFile, String target, long time, Recurrence recurrence) {
         if (target == null) {
             target = NULL;
         }
-        List<Map<String, Object>> playerScripts = delayedScripts.get(target);
-        if (playerScripts == null) {
-            playerScripts = new ArrayList<Map<String, Object>>();
-            delayedScripts.put(target, playerScripts);
-        }
-        Map<String, Object> script = new HashMap<String, Object>(2);
-        script.put("time", System.currentTimeMillis() + delay);
-        script.put("file", scriptFile.toString());
-        List<Map<String, Object>> replacements = new ArrayList<Map<String, Object>>(stringReplacers.size());
+        final List<Map<String, Object>> replacements = new ArrayList<Map<String, Object>>(stringReplacers.size());
         for (StringReplacer r : stringReplacers) {
             Map<String, Object> replacement = new HashMap<String, Object>(2);
             String regex = r.getRegexString();
@@ -258,10 +577,71 @@ public class Buscript extends ScriptManager {
             }
             replacements.add(replacement);
         }
-        script.put("replacements", replacements);
-        script.put("metaData", new HashMap<String, Object>(metaData));
-        playerScripts.add(script);
-        saveData();
+        // The id is taken now so it can be returned before the script is scheduled on the main thread.
+        final ScheduledScript script = new ScheduledScript(scheduler.newId(), target, scriptFile.toString(), time,
+                replacements, new HashMap<String, Object>(getMetaData()), recurrence);
+        runSync(new Runnable() {
+            @Override
+            public void run() {
+                if (scheduler.restore(script)) {
+                    logScheduled(script);
+                    scriptTask.reschedule();
+                }
+            }
+        });
+        return script.id;
+    }
+
+    /**
+     * Schedules a script to be run the given number of server ticks from now with the specified target.
+     *
+     * @param scriptFile the file to execute.
+     * @param target the target of the script which is used to replace the string '%t' and is added in the global scope
+     *               as variable 'target'
+     * @param ticks the delay for the script in server ticks.
+     * @return the id of the scheduled script, for {@link #cancelScheduledScript(long)}.
+     */
+    public long scheduleScriptTicks(File scriptFile, String target, long ticks) {
+        return scheduleDelayedScript(scriptFile, target, ticks * ScriptTask.TICK_MILLIS);
+    }
+
+    /**
+     * Removes a single scheduled script.  This includes a due script that is still waiting for its turn to run.
+     *
+     * @param id the id the script was scheduled with.
+     * @return true if the script was removed, false if it was not scheduled or already ran.
+     */
+    public boolean cancelScheduledScript(final long id) {
+        return callSync(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                ScheduledScript script = scheduler.cancel(id);
+                if (script == null) {
+                    return false;
+                }
+                logRemoved(script);
+                scriptTask.reschedule();
+                return true;
+            }
+        });
+    }
+
+    /**
+     * This method will remove any scripts scheduled to run the given script file, for any target.
+     *
+     * @param scriptFile The script file to remove scheduled scripts for.
+     */
+    public void clearScheduledScriptFile(File scriptFile) {
+        final String file = scriptFile.toString();
+        runSync(new Runnable() {
+            @Override
+            public void run() {
+                if (!scheduler.clearFile(file).isEmpty()) {
+                    logFileCleared(file);
+                    scriptTask.reschedule();
+                }
+            }
+        });
     }
 
     /**
@@ -270,65 +650,256 @@ public class Buscript extends ScriptManager {
      * @param target The target to remove scheduled scripts for.
      */
     public void clearScheduledScripts(String target) {
-        delayedScripts.remove(target);
-        saveData();
+        final String clearedTarget = target != null ? target : NULL;
+        runSync(new Runnable() {
+            @Override
+            public void run() {
+                if (!scheduler.clear(clearedTarget).isEmpty()) {
+                    logCleared(clearedTarget);
+                    scriptTask.reschedule();
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs the given task on the main thread.  When called from the main thread it is run right away, otherwise it is
+     * run on the next server tick.
+     *
+     * @param task the task to run.
+     */
+    void runSync(Runnable task) {
+        if (plugin.getServer().isPrimaryThread()) {
+            task.run();
+        } else {
+            plugin.getServer().getScheduler().runTask(plugin, task);
+        }
+    }
+
+    /**
+     * Calls the given task on the main thread and waits for its result.  When called from the main thread it is called
+     * right away.
+     *
+     * @param task the task to call.
+     * @param <T> the type of the result.
+     * @return the result of the task.
+     */
+    <T> T callSync(Callable<T> task) {
+        try {
+            if (plugin.getServer().isPrimaryThread()) {
+                return task.call();
+            }
+            return plugin.getServer().getScheduler().callSyncMethod(plugin, task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the main thread", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
     }
 
     /**
      * Binds a script to a Bukkit event.  The script will be run when the event fires with a "event" variable available
-     * in the script.  The script file will be loaded into a cache for optimal performance.
+     * in the script.  The script file will be loaded into a cache and compiled once for optimal performance.
      *
      * @param eventClassName The fully realized class name of the Bukkit event.
      * @param priorityString The priority for the event: LOWEST, LOW, NORMAL, HIGH, HIGHEST, MONITOR.
      * @param scriptFile The file containing the script.
      */
     public void registerEventScript(String eventClassName, String priorityString, File scriptFile) {
-        EventPriority priority = EventPriority.valueOf(priorityString.toUpperCase());
-        if (priority == null) {
-            getPlugin().getLogger().warning(priorityString + " is not a valid EventPriority!");
+        registerEventScript(eventClassName, priorityString, scriptFile, EventScriptFilter.NONE);
+    }
+
+    /**
+     * Binds a script to a Bukkit event, only running it for events that pass the given filter.  The filter is checked
+     * before the script engine is entered, so events the script is not interested in cost next to nothing.
+     * <p>All scripts bound to the same event class and priority share a single handler.  Binding a script that is
+     * already bound to the event at that priority only replaces its filter, so running a script that binds events
+     * again does not bind them twice.</p>
+     *
+     * @param eventClassName The fully realized class name of the Bukkit event.
+     * @param priorityString The priority for the event: LOWEST, LOW, NORMAL, HIGH, HIGHEST, MONITOR.
+     * @param scriptFile The file containing the script.
+     * @param filter The conditions an event has to meet for the script to run.
+     * @see #registerEventScript(String, String, File)
+     */
+    public void registerEventScript(final String eventClassName, final String priorityString, final File scriptFile,
+                                    final EventScriptFilter filter) {
+        if (!plugin.getServer().isPrimaryThread()) {
+            runSync(new Runnable() {
+                @Override
+                public void run() {
+                    registerEventScript(eventClassName, priorityString, scriptFile, filter);
+                }
+            });
+            return;
+        }
+        EventPriority priority = getEventPriority(priorityString);
+        Class<? extends Event> eventClass = getEventClass(eventClassName);
+        if (priority == null || eventClass == null) {
+            return;
+        }
+        HandlerList handlerList = getHandlerList(eventClass);
+        if (handlerList == null) {
             return;
         }
-        Class eventClass;
+        Map<EventPriority, DefaultEventExecutor> executors = eventExecutors.get(eventClass);
+        if (executors == null) {
+            executors = new EnumMap<EventPriority, DefaultEventExecutor>(EventPriority.class);
+            eventExecutors.put(eventClass, executors);
+        }
+        DefaultEventExecutor eventExecutor = executors.get(priority);
+        if (eventExecutor == null) {
+            eventExecutor = new DefaultEventExecutor(this);
+            // Filters are checked for each script, so cancelled events have to reach the executor.
+            eventExecutor.registeredListener = new RegisteredListener(new DefaultListener(), eventExecutor, priority,
+                    getPlugin(), false);
+            handlerList.register(eventExecutor.registeredListener);
+            executors.put(priority, eventExecutor);
+        }
+        eventExecutor.add(scriptFile.toString(), filter);
+    }
+
+    /**
+     * Unbinds a script from a Bukkit event it was bound to with
+     * {@link #registerEventScript(String, String, File, EventScriptFilter)}.
+     *
+     * @param eventClassName The fully realized class name of the Bukkit event.
+     * @param priorityString The priority the script was bound with.
+     * @param scriptFile The file containing the script.
+     * @return true if the script was bound to the event.
+     */
+    public boolean unregisterEventScript(final String eventClassName, final String priorityString,
+                                         final File scriptFile) {
+        if (!plugin.getServer().isPrimaryThread()) {
+            return callSync(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return unregisterEventScript(eventClassName, priorityString, scriptFile);
+                }
+            });
+        }
+        EventPriority priority = getEventPriority(priorityString);
+        Class<? extends Event> eventClass = getEventClass(eventClassName);
+        if (priority == null || eventClass == null) {
+            return false;
+        }
+        Map<EventPriority, DefaultEventExecutor> executors = eventExecutors.get(eventClass);
+        if (executors == null) {
+            return false;
+        }
+        DefaultEventExecutor eventExecutor = executors.get(priority);
+        if (eventExecutor == null || !eventExecutor.remove(scriptFile.toString())) {
+            return false;
+        }
+        if (eventExecutor.isEmpty()) {
+            handlerLists.get(eventClass).unregister(eventExecutor.registeredListener);
+            executors.remove(priority);
+            if (executors.isEmpty()) {
+                eventExecutors.remove(eventClass);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Unbinds a script from every Bukkit event it was bound to.
+     *
+     * @param scriptFile The file containing the script.
+     * @return the number of event and priority combinations the script was unbound from.
+     */
+    public int unregisterEventScript(final File scriptFile) {
+        if (!plugin.getServer().isPrimaryThread()) {
+            return callSync(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return unregisterEventScript(scriptFile);
+                }
+            });
+        }
+        int count = 0;
+        Iterator<Map.Entry<Class<? extends Event>, Map<EventPriority, DefaultEventExecutor>>> classes =
+                eventExecutors.entrySet().iterator();
+        while (classes.hasNext()) {
+            Map.Entry<Class<? extends Event>, Map<EventPriority, DefaultEventExecutor>> entry = classes.next();
+            Iterator<DefaultEventExecutor> executors = entry.getValue().values().iterator();
+            while (executors.hasNext()) {
+                DefaultEventExecutor eventExecutor = executors.next();
+                if (!eventExecutor.remove(scriptFile.toString())) {
+                    continue;
+                }
+                count++;
+                if (eventExecutor.isEmpty()) {
+                    handlerLists.get(entry.getKey()).unregister(eventExecutor.registeredListener);
+                    executors.remove();
+                }
+            }
+            if (entry.getValue().isEmpty()) {
+                classes.remove();
+            }
+        }
+        return count;
+    }
+
+    private EventPriority getEventPriority(String priorityString) {
+        try {
+            return EventPriority.valueOf(priorityString.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            getPlugin().getLogger().warning(priorityString + " is not a valid EventPriority!");
+            return null;
+        }
+    }
+
+    private Class<? extends Event> getEventClass(String eventClassName) {
+        Class<?> eventClass;
         try {
             eventClass = Class.forName(eventClassName);
         } catch (ClassNotFoundException e) {
             getPlugin().getLogger().warning(e.getMessage());
-            return;
+            return null;
         }
         if (!Event.class.isAssignableFrom(eventClass)) {
             getPlugin().getLogger().warning("Class must extend " + Event.class);
-            return;
+            return null;
+        }
+        return eventClass.asSubclass(Event.class);
+    }
+
+    /**
+     * Looks up the handler list of an event class, which is only done by reflection the first time.
+     */
+    private HandlerList getHandlerList(Class<? extends Event> eventClass) {
+        HandlerList handlerList = handlerLists.get(eventClass);
+        if (handlerList != null) {
+            return handlerList;
         }
         Method method;
         try {
             method = eventClass.getDeclaredMethod("getHandlerList");
         } catch (NoSuchMethodException ignore) {
             getPlugin().getLogger().warning(eventClass.getName() + " cannot be listened for!");
-            return;
-        }
-        if (method == null) {
-            getPlugin().getLogger().warning(eventClass.getName() + " cannot be listened for!");
-            return;
+            return null;
         }
-        HandlerList handlerList = null;
         try {
             method.setAccessible(true);
             Object handlerListObj = method.invoke(null);
-            if (handlerListObj == null || !(handlerListObj instanceof HandlerList)) {
+            if (!(handlerListObj instanceof HandlerList)) {
                 getPlugin().getLogger().warning(eventClass.getName() + " cannot be listened for!");
-                return;
+                return null;
             }
             handlerList = (HandlerList) handlerListObj;
-        } catch (IllegalAccessException ignore) {
-            getPlugin().getLogger().warning(eventClass.getName() + " cannot be listened for!");
-            return;
-        } catch (InvocationTargetException ignore) {
+        } catch (IllegalAccessException | InvocationTargetException ignore) {
             getPlugin().getLogger().warning(eventClass.getName() + " cannot be listened for!");
-            return;
+            return null;
         }
-        Listener listener = new DefaultListener();
-        EventExecutor eventExecutor = new DefaultEventExecutor(this, scriptFile.toString());
-        RegisteredListener registeredListener = new RegisteredListener(listener, eventExecutor, priority, getPlugin(), false);
-        handlerList.register(registeredListener);
+        handlerLists.put(eventClass, handlerList);
+        return handlerList;
     }
 }
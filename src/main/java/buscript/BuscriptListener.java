@@ -23,8 +23,12 @@ public class BuscriptListener implements Listener {
     @EventHandler
     public void pluginDisable(PluginDisableEvent event) {
         if (event.getPlugin().equals(buscript.getPlugin())) {
+            buscript.commandQueue.flush();
             buscript.runTasks = false;
-            buscript.saveData();
+            buscript.stopWatchingScripts();
+            buscript.shutdownAsyncExecutor();
+            buscript.stopWatchdog();
+            buscript.closeData();
         }
     }
 }
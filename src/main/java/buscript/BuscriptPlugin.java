@@ -10,12 +10,17 @@ import org.bukkit.plugin.java.JavaPlugin;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 /**
- * The main Plugin class which allows this script library to be run as a plugin and gives access to the command "run".
+ * The main Plugin class which allows this script library to be run as a plugin and gives access to the commands "run",
+ * "breload" and "bstats".
  */
 public class BuscriptPlugin extends JavaPlugin {
 
+    /** The number of most time consuming scripts the "bstats" command lists. */
+    private static final int STATS_SHOWN = 10;
+
     private Buscript buscript;
 
     @Override
@@ -63,10 +68,46 @@ public class BuscriptPlugin extends JavaPlugin {
         } else if (label.equalsIgnoreCase("breload")) {
             buscript.clearScriptCache();
             sender.sendMessage("Script cache cleared!");
+        } else if (label.equalsIgnoreCase("bstats")) {
+            return showStats(sender, args);
         }
         return false;
     }
 
+    private boolean showStats(CommandSender sender, String[] args) {
+        String kind = args.length > 0 ? args[0].toLowerCase() : "scripts";
+        List<ScriptStats> stats;
+        if (kind.equals("scripts")) {
+            stats = getAPI().getScriptStats();
+        } else if (kind.equals("events")) {
+            stats = getAPI().getEventStats();
+        } else if (kind.equals("commands")) {
+            sender.sendMessage(getAPI().getCommandStats().toString());
+            return true;
+        } else if (kind.equals("scheduled")) {
+            sender.sendMessage(getAPI().getScheduleStats().toString());
+            return true;
+        } else if (kind.equals("reset")) {
+            getAPI().resetScriptStats();
+            getAPI().resetCommandStats();
+            getAPI().resetScheduleStats();
+            sender.sendMessage("Script statistics reset!");
+            return true;
+        } else {
+            return false;
+        }
+        if (stats.isEmpty()) {
+            sender.sendMessage("No scripts have run yet.");
+            return true;
+        }
+        int shown = Math.min(stats.size(), STATS_SHOWN);
+        sender.sendMessage("Top " + shown + " of " + stats.size() + " " + kind + " by time spent:");
+        for (int i = 0; i < shown; i++) {
+            sender.sendMessage(stats.get(i).toString());
+        }
+        return true;
+    }
+
     private File getStartupScript() {
         File scriptFile = new File(getDataFolder(), "startup-script.txt");
         if (!scriptFile.exists()) {
@@ -0,0 +1,20 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package buscript;
+
+/**
+ * What happens to scheduled scripts that are overdue by more than the catch-up age when they are picked up, such as
+ * after the server was down or stalled.
+ *
+ * @see Buscript#setCatchUpPolicy(CatchUpPolicy, long)
+ */
+public enum CatchUpPolicy {
+
+    /** Every overdue script is run. */
+    RUN_ALL,
+    /** Of the overdue scripts with the same script file and target, only the latest is run. */
+    RUN_LATEST,
+    /** Overdue scripts are dropped without being run.  Recurring scripts skip to their next run. */
+    DROP
+}
@@ -0,0 +1,203 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package buscript;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Dispatches the commands scripts run, at most {@link #getTickBudget()} of them per server tick.
+ * <p>A command submitted on the main thread while nothing is waiting and the budget of the current tick is not used
+ * up is dispatched right away, as scripts have always done.  Any other command waits in the queue, which is drained in
+ * order on the following ticks, so scripts on any thread may submit commands and a script that runs hundreds of
+ * commands spreads them over several ticks.  If coalescing is turned on, a command is dropped while an identical
+ * command for the same sender still waits in the queue.  Either way a command that fails is logged rather than thrown
+ * to the script.</p>
+ */
+class CommandQueue implements Runnable {
+
+    /** The default number of commands dispatched per tick. */
+    static final int DEFAULT_TICK_BUDGET = 50;
+
+    private static final class QueuedCommand {
+
+        final CommandSender sender;
+        final String command;
+        final long submitTime;
+
+        QueuedCommand(CommandSender sender, String command, long submitTime) {
+            this.sender = sender;
+            this.command = command;
+            this.submitTime = submitTime;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof QueuedCommand)) {
+                return false;
+            }
+            QueuedCommand other = (QueuedCommand) o;
+            return sender.equals(other.sender) && command.equals(other.command);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * sender.hashCode() + command.hashCode();
+        }
+    }
+
+    private final Plugin plugin;
+    private final Queue<QueuedCommand> queue = new ConcurrentLinkedQueue<QueuedCommand>();
+    /** The commands in the queue, for coalescing. */
+    private final Set<QueuedCommand> waiting = ConcurrentHashMap.<QueuedCommand>newKeySet();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+
+    private volatile int tickBudget = DEFAULT_TICK_BUDGET;
+    private volatile boolean coalescing = false;
+    /** The number of commands dispatched in the current tick.  Only used on the main thread. */
+    private int dispatched = 0;
+
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicInteger maxDepth = new AtomicInteger();
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private volatile ScriptMetrics.LatencyRecorder waitLatency = new ScriptMetrics.LatencyRecorder();
+    private volatile ScriptMetrics.LatencyRecorder dispatchLatency = new ScriptMetrics.LatencyRecorder();
+
+    CommandQueue(Plugin plugin) {
+        this.plugin = plugin;
+    }
+
+    int getTickBudget() {
+        return tickBudget;
+    }
+
+    void setTickBudget(int tickBudget) {
+        if (tickBudget < 1) {
+            throw new IllegalArgumentException("tickBudget must be at least 1");
+        }
+        this.tickBudget = tickBudget;
+    }
+
+    boolean isCoalescing() {
+        return coalescing;
+    }
+
+    void setCoalescing(boolean coalescing) {
+        this.coalescing = coalescing;
+    }
+
+    /**
+     * Dispatches a command now if it is within the budget of this tick, or queues it for the following ticks.  May be
+     * called from any thread.
+     *
+     * @param sender the sender to dispatch the command as.
+     * @param command the command, without a leading slash.
+     */
+    void submit(CommandSender sender, String command) {
+        submitted.increment();
+        QueuedCommand queued = new QueuedCommand(sender, command, System.nanoTime());
+        if (plugin.getServer().isPrimaryThread() && queue.isEmpty() && dispatched < tickBudget) {
+            dispatched++;
+            // The drain on the next tick starts that tick's budget afresh.
+            scheduleDrain();
+            dispatch(queued);
+            return;
+        }
+        if (coalescing && !waiting.add(queued)) {
+            coalesced.increment();
+            return;
+        }
+        queue.add(queued);
+        int size = depth.incrementAndGet();
+        int max = maxDepth.get();
+        while (size > max && !maxDepth.compareAndSet(max, size)) {
+            max = maxDepth.get();
+        }
+        scheduleDrain();
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            plugin.getServer().getScheduler().runTask(plugin, this);
+        }
+    }
+
+    /**
+     * Dispatches the queued commands of this tick.  Runs once per tick on the main thread for as long as commands are
+     * being dispatched.
+     */
+    @Override
+    public void run() {
+        drainScheduled.set(false);
+        dispatched = 0;
+        while (dispatched < tickBudget && dispatchNext()) {
+            dispatched++;
+        }
+        if (dispatched > 0) {
+            scheduleDrain();
+        }
+    }
+
+    /**
+     * Dispatches every queued command right away, for when the plugin is disabled and no more ticks will drain them.
+     * Must be called on the main thread.
+     */
+    void flush() {
+        while (dispatchNext()) {
+            dispatched++;
+        }
+    }
+
+    private boolean dispatchNext() {
+        QueuedCommand queued = queue.poll();
+        if (queued == null) {
+            return false;
+        }
+        waiting.remove(queued);
+        depth.decrementAndGet();
+        dispatch(queued);
+        return true;
+    }
+
+    private void dispatch(QueuedCommand queued) {
+        long start = System.nanoTime();
+        waitLatency.record(start - queued.submitTime);
+        try {
+            // Players may have left while their commands waited.
+            if (!(queued.sender instanceof Player) || ((Player) queued.sender).isOnline()) {
+                plugin.getServer().dispatchCommand(queued.sender, queued.command);
+            }
+        } catch (RuntimeException e) {
+            failed.increment();
+            plugin.getLogger().warning("Error dispatching command '" + queued.command + "' as "
+                    + queued.sender.getName() + ": " + e.getMessage());
+        }
+        dispatchLatency.record(System.nanoTime() - start);
+    }
+
+    CommandQueueStats getStats() {
+        return new CommandQueueStats(depth.get(), maxDepth.get(), submitted.sum(), coalesced.sum(), failed.sum(),
+                waitLatency.snapshot(), dispatchLatency.snapshot());
+    }
+
+    void resetStats() {
+        maxDepth.set(depth.get());
+        submitted.reset();
+        coalesced.reset();
+        failed.reset();
+        waitLatency = new ScriptMetrics.LatencyRecorder();
+        dispatchLatency = new ScriptMetrics.LatencyRecorder();
+    }
+}
@@ -0,0 +1,98 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package buscript;
+
+/**
+ * A snapshot of the statistics of the queue that commands dispatched by scripts go through.
+ */
+public final class CommandQueueStats {
+
+    private final int depth;
+    private final int maxDepth;
+    private final long submitted;
+    private final long coalesced;
+    private final long failed;
+    private final LatencyHistogram waitLatency;
+    private final LatencyHistogram dispatchLatency;
+
+    CommandQueueStats(int depth, int maxDepth, long submitted, long coalesced, long failed,
+                      LatencyHistogram waitLatency, LatencyHistogram dispatchLatency) {
+        this.depth = depth;
+        this.maxDepth = maxDepth;
+        this.submitted = submitted;
+        this.coalesced = coalesced;
+        this.failed = failed;
+        this.waitLatency = waitLatency;
+        this.dispatchLatency = dispatchLatency;
+    }
+
+    /**
+     * Gets the number of commands waiting to be dispatched.
+     *
+     * @return the current queue depth.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Gets the highest number of commands that were waiting to be dispatched at once.
+     *
+     * @return the highest queue depth.
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Gets the number of commands scripts submitted, including those that were coalesced.
+     *
+     * @return the number of submitted commands.
+     */
+    public long getSubmitted() {
+        return submitted;
+    }
+
+    /**
+     * Gets the number of commands that were dropped because an identical command was still waiting.
+     *
+     * @return the number of coalesced commands.
+     */
+    public long getCoalesced() {
+        return coalesced;
+    }
+
+    /**
+     * Gets the number of queued commands that failed with an error.
+     *
+     * @return the number of failed commands.
+     */
+    public long getFailed() {
+        return failed;
+    }
+
+    /**
+     * Gets the time commands waited before being dispatched, recorded for every dispatched command.
+     *
+     * @return the wait latency histogram.
+     */
+    public LatencyHistogram getWaitLatency() {
+        return waitLatency;
+    }
+
+    /**
+     * Gets the time spent dispatching commands, recorded for every dispatched command.
+     *
+     * @return the dispatch latency histogram.
+     */
+    public LatencyHistogram getDispatchLatency() {
+        return dispatchLatency;
+    }
+
+    @Override
+    public String toString() {
+        return "commands: " + submitted + " submitted, " + coalesced + " coalesced, " + failed + " failed, depth "
+                + depth + " (max " + maxDepth + "), wait " + waitLatency + ", dispatch " + dispatchLatency;
+    }
+}
@@ -0,0 +1,115 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package buscript;
+
+import buscript.util.FileTools;
+
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptException;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Caches compiled script files so that a file is only parsed and compiled again when it changes on disk.
+ * Entries are keyed by canonical path and are considered stale once the file's modification time or size differs
+ * from when it was compiled.  Each entry is weighed by the size of its file and the least recently used entries are
+ * evicted once the total weight goes over the maximum.  Scripts that run with a time budget are compiled with
+ * watchdog checks in their loops, and compiled again once they run without one or the other way around.
+ */
+class CompiledScriptCache {
+
+    /** The weight of an entry apart from its file size, roughly the memory taken up by the entry itself. */
+    private static final long ENTRY_WEIGHT = 96L;
+
+    private static class Entry {
+
+        private final long lastModified;
+        private final long length;
+        private final boolean guarded;
+        private final CompiledScript script;
+
+        private Entry(long lastModified, long length, boolean guarded, CompiledScript script) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.guarded = guarded;
+            this.script = script;
+        }
+    }
+
+    private final Compilable compiler;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75F, true);
+    private final long maxWeight;
+    private long weight = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    CompiledScriptCache(Compilable compiler, long maxWeight) {
+        this.compiler = compiler;
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Retrieves the compiled form of the given script file, compiling it if it is not cached or has changed.
+     *
+     * @param file the script file.
+     * @param guarded whether the script must have watchdog checks in its loops.
+     * @return the compiled script.
+     * @throws IOException if the file could not be read.
+     * @throws ScriptException if the file could not be compiled.
+     */
+    CompiledScript getCompiledScript(File file, boolean guarded) throws IOException, ScriptException {
+        String key = file.getCanonicalPath();
+        long lastModified = file.lastModified();
+        long length = file.length();
+        Entry entry = entries.get(key);
+        if (entry != null && entry.lastModified == lastModified && entry.length == length
+                && entry.guarded == guarded) {
+            hits++;
+            return entry.script;
+        }
+        misses++;
+        String source = FileTools.readFile(file);
+        CompiledScript script = compiler.compile(guarded ? LoopInstrumenter.instrument(source) : source);
+        remove(key);
+        entries.put(key, new Entry(lastModified, length, guarded, script));
+        weight += ENTRY_WEIGHT + length;
+        Iterator<Entry> it = entries.values().iterator();
+        while (weight > maxWeight && entries.size() > 1 && it.hasNext()) {
+            Entry eldest = it.next();
+            it.remove();
+            weight -= ENTRY_WEIGHT + eldest.length;
+        }
+        return script;
+    }
+
+    /**
+     * Discards the compiled form of a script file.
+     *
+     * @param canonicalPath the canonical path of the script file.
+     */
+    void remove(String canonicalPath) {
+        Entry entry = entries.remove(canonicalPath);
+        if (entry != null) {
+            weight -= ENTRY_WEIGHT + entry.length;
+        }
+    }
+
+    void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    long getHits() {
+        return hits;
+    }
+
+    long getMisses() {
+        return misses;
+    }
+}
@@ -1,24 +1,117 @@
 package buscript;
 
-import org.bukkit.entity.Player;
 import org.bukkit.event.Event;
 import org.bukkit.event.EventException;
 import org.bukkit.event.Listener;
 import org.bukkit.plugin.EventExecutor;
+import org.bukkit.plugin.RegisteredListener;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Runs every script bound to one event class at one priority, so that an event class has at most one handler per
+ * priority no matter how many scripts are bound to it.
+ * <p>Scripts are held in an array that is replaced whenever a script is bound or unbound, so events are dispatched
+ * without locking from whatever thread fires them.  Scripts are bound and unbound on the main thread only.</p>
+ */
 class DefaultEventExecutor implements EventExecutor {
 
-    Buscript buscript;
-    String scriptFile;
+    /**
+     * A script bound to an event along with the filter events have to pass for it to run.
+     */
+    static final class EventScript {
+
+        final String scriptFile;
+        final EventScriptFilter filter;
+
+        EventScript(String scriptFile, EventScriptFilter filter) {
+            this.scriptFile = scriptFile;
+            this.filter = filter;
+        }
+    }
+
+    private static final EventScript[] NO_SCRIPTS = new EventScript[0];
+
+    final Buscript buscript;
+    /** The handler registered for this executor. */
+    RegisteredListener registeredListener = null;
 
-    DefaultEventExecutor(Buscript buscript, String scriptFile) {
+    private volatile EventScript[] scripts = NO_SCRIPTS;
+
+    DefaultEventExecutor(Buscript buscript) {
         this.buscript = buscript;
-        this.scriptFile = scriptFile;
+    }
+
+    /**
+     * Binds a script to the events of this executor.  A script that is already bound keeps its place and is given
+     * the new filter.
+     *
+     * @param scriptFile the script file name.
+     * @param filter the filter events have to pass for the script to run.
+     * @return false if the script was already bound.
+     */
+    boolean add(String scriptFile, EventScriptFilter filter) {
+        EventScript[] current = scripts;
+        EventScript script = new EventScript(scriptFile, filter);
+        int index = indexOf(current, scriptFile);
+        if (index >= 0) {
+            EventScript[] updated = current.clone();
+            updated[index] = script;
+            scripts = updated;
+            return false;
+        }
+        EventScript[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = script;
+        scripts = updated;
+        return true;
+    }
+
+    /**
+     * Unbinds a script from the events of this executor.
+     *
+     * @param scriptFile the script file name.
+     * @return true if the script was bound.
+     */
+    boolean remove(String scriptFile) {
+        EventScript[] current = scripts;
+        int index = indexOf(current, scriptFile);
+        if (index < 0) {
+            return false;
+        }
+        EventScript[] updated = new EventScript[current.length - 1];
+        System.arraycopy(current, 0, updated, 0, index);
+        System.arraycopy(current, index + 1, updated, index, updated.length - index);
+        scripts = updated.length > 0 ? updated : NO_SCRIPTS;
+        return true;
+    }
+
+    boolean isEmpty() {
+        return scripts.length == 0;
+    }
+
+    private static int indexOf(EventScript[] scripts, String scriptFile) {
+        for (int i = 0; i < scripts.length; i++) {
+            if (scripts[i].scriptFile.equals(scriptFile)) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     @Override
     public void execute(Listener listener, Event event) throws EventException {
-        buscript.setScriptVariable("event", event);
-        buscript.executeScript(buscript.getCachedScript(scriptFile), event.getEventName(), null, (Player) null);
+        Map<String, Object> variables = null;
+        for (EventScript script : scripts) {
+            if (!script.filter.matches(event)) {
+                continue;
+            }
+            if (variables == null) {
+                variables = Collections.<String, Object>singletonMap("event", event);
+            }
+            // Each script engine compiles the script once and only again after the script cache has been cleared.
+            buscript.executeCachedScript(script.scriptFile, event.getClass(), null, variables, null);
+        }
     }
 }
@@ -7,6 +7,12 @@ import buscript.util.TimeTools;
 import org.bukkit.entity.Player;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 class DefaultFunctions {
 
@@ -16,87 +22,239 @@ class DefaultFunctions {
         this.buscript = buscript;
     }
 
+    // Bukkit and Vault are only safe to use from the main thread, so calls from scripts running elsewhere are passed
+    // to it.  Replacements depend on the running script so they are always done before that.  Commands go through
+    // the command queue, which limits how many are dispatched per tick.
+
     public void broadcast(String message) {
-        buscript.getPlugin().getServer().broadcastMessage(buscript.stringReplace(message));
+        final String replaced = buscript.stringReplace(message);
+        buscript.runSync(new Runnable() {
+            @Override
+            public void run() {
+                buscript.getPlugin().getServer().broadcastMessage(replaced);
+            }
+        });
     }
 
-    public void broadcastPerm(String message, String permission) {
-        buscript.getPlugin().getServer().broadcast(buscript.stringReplace(message), permission);
+    public void broadcastPerm(String message, final String permission) {
+        final String replaced = buscript.stringReplace(message);
+        buscript.runSync(new Runnable() {
+            @Override
+            public void run() {
+                buscript.getPlugin().getServer().broadcast(replaced, permission);
+            }
+        });
     }
 
     public void command(String command) {
-        buscript.getPlugin().getServer().dispatchCommand(buscript.getPlugin().getServer().getConsoleSender(), buscript.stringReplace(command));
+        buscript.commandQueue.submit(buscript.getPlugin().getServer().getConsoleSender(),
+                buscript.stringReplace(command));
     }
 
     public void commandSpoof(String name, String command) {
-        Player player = buscript.getPlugin().getServer().getPlayerExact(buscript.stringReplace(name));
-        if (player != null) {
-            buscript.getPlugin().getServer().dispatchCommand(player, buscript.stringReplace(command));
+        Player player = buscript.players.get(buscript.stringReplace(name));
+        if (player == null) {
+            return;
+        }
+        buscript.commandQueue.submit(player, buscript.stringReplace(command));
+    }
+
+    public void commandSpoofAll(Object names, String command) {
+        List<Player> players = getPlayers(names);
+        if (players.isEmpty()) {
+            return;
+        }
+        String replaced = buscript.stringReplace(command);
+        for (Player player : players) {
+            buscript.commandQueue.submit(player, replaced);
         }
     }
 
     public void message(String name, String message) {
-        Player player = buscript.getPlugin().getServer().getPlayerExact(buscript.stringReplace(name));
-        if (player != null) {
-            player.sendMessage(buscript.stringReplace(message));
+        final Player player = buscript.players.get(buscript.stringReplace(name));
+        if (player == null) {
+            return;
+        }
+        final String replaced = buscript.stringReplace(message);
+        buscript.runSync(new Runnable() {
+            @Override
+            public void run() {
+                if (player.isOnline()) {
+                    player.sendMessage(replaced);
+                }
+            }
+        });
+    }
+
+    public void messageAll(Object names, String message) {
+        final List<Player> players = getPlayers(names);
+        if (players.isEmpty()) {
+            return;
+        }
+        final String replaced = buscript.stringReplace(message);
+        buscript.runSync(new Runnable() {
+            @Override
+            public void run() {
+                for (Player player : players) {
+                    if (player.isOnline()) {
+                        player.sendMessage(replaced);
+                    }
+                }
+            }
+        });
+    }
+
+    public boolean hasPerm(String name, final String permission) {
+        final Player player = buscript.players.get(buscript.stringReplace(name));
+        if (player == null) {
+            return false;
         }
+        return buscript.callSync(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return player.hasPermission(permission);
+            }
+        });
     }
 
-    public boolean hasPerm(String name, String permission) {
-        Player player = buscript.getPlugin().getServer().getPlayerExact(buscript.stringReplace(name));
-        return player != null && player.hasPermission(permission);
+    public List<String> filterPerm(Object names, final String permission) {
+        final List<Player> players = getPlayers(names);
+        if (players.isEmpty()) {
+            return new ArrayList<String>(0);
+        }
+        return buscript.callSync(new Callable<List<String>>() {
+            @Override
+            public List<String> call() {
+                List<String> result = new ArrayList<String>(players.size());
+                for (Player player : players) {
+                    if (player.hasPermission(permission)) {
+                        result.add(player.getName());
+                    }
+                }
+                return result;
+            }
+        });
     }
 
-    public boolean hasPermOffline(String world, String player, String permission) {
+    public boolean hasPermOffline(final String world, String player, final String permission) {
         if (buscript.getPermissions() != null) {
-            return buscript.getPermissions().has(world, buscript.stringReplace(player), permission);
+            final String replaced = buscript.stringReplace(player);
+            return buscript.callSync(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return buscript.getPermissions().has(world, replaced, permission);
+                }
+            });
         } else {
             throw new IllegalStateException("Vault must be installed to use hasPermOffline(world, player, perm)!");
         }
     }
 
-    public void addPerm(String world, String player, String permission) {
+    public void addPerm(final String world, String player, final String permission) {
         if (buscript.getPermissions() != null) {
-            buscript.getPermissions().playerAdd(world, buscript.stringReplace(player), permission);
+            final String replaced = buscript.stringReplace(player);
+            buscript.runSync(new Runnable() {
+                @Override
+                public void run() {
+                    buscript.getPermissions().playerAdd(world, replaced, permission);
+                }
+            });
         } else {
             throw new IllegalStateException("Vault must be installed to use addPerm(world, player, perm)!");
         }
     }
 
-    public void removePerm(String world, String player, String permission) {
+    public void removePerm(final String world, String player, final String permission) {
         if (buscript.getPermissions() != null) {
-            buscript.getPermissions().playerRemove(world, buscript.stringReplace(player), permission);
+            final String replaced = buscript.stringReplace(player);
+            buscript.runSync(new Runnable() {
+                @Override
+                public void run() {
+                    buscript.getPermissions().playerRemove(world, replaced, permission);
+                }
+            });
         } else {
             throw new IllegalStateException("Vault must be installed to use removePerm(world, player, perm)!");
         }
     }
 
-    public boolean hasMoney(String player, Double money) {
+    public boolean hasMoney(String player, final Double money) {
         if (buscript.getEconomy() != null) {
-            return buscript.getEconomy().has(buscript.stringReplace(player), money);
+            final String replaced = buscript.stringReplace(player);
+            return buscript.callSync(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return buscript.getEconomy().has(replaced, money);
+                }
+            });
         } else {
             throw new IllegalStateException("Vault must be installed to use hasMoney(player, money)!");
         }
     }
 
-    public boolean addMoney(String player, Double money) {
+    public boolean addMoney(String player, final Double money) {
         if (buscript.getEconomy() != null) {
-            return buscript.getEconomy().depositPlayer(buscript.stringReplace(player), money).transactionSuccess();
+            final String replaced = buscript.stringReplace(player);
+            return buscript.callSync(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return buscript.getEconomy().depositPlayer(replaced, money).transactionSuccess();
+                }
+            });
         } else {
             throw new IllegalStateException("Vault must be installed to use addMoney(player, money)!");
         }
     }
 
-    public boolean removeMoney(String player, Double money) {
+    public boolean removeMoney(String player, final Double money) {
         if (buscript.getEconomy() != null) {
-            return buscript.getEconomy().withdrawPlayer(buscript.stringReplace(player), money).transactionSuccess();
+            final String replaced = buscript.stringReplace(player);
+            return buscript.callSync(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return buscript.getEconomy().withdrawPlayer(replaced, money).transactionSuccess();
+                }
+            });
         } else {
             throw new IllegalStateException("Vault must be installed to use removeMoney(player, money)!");
         }
     }
 
     public boolean isOnline(String name) {
-        return buscript.getPlugin().getServer().getPlayerExact(buscript.stringReplace(name)) != null;
+        return buscript.players.get(buscript.stringReplace(name)) != null;
+    }
+
+    public List<String> filterOnline(Object names) {
+        List<Player> players = getPlayers(names);
+        List<String> result = new ArrayList<String>(players.size());
+        for (Player player : players) {
+            result.add(player.getName());
+        }
+        return result;
+    }
+
+    // Looks up the online players among names given as a script array, a collection or a single name.  Each name is
+    // replaced once and players that are not online are left out.
+    private List<Player> getPlayers(Object names) {
+        if (names instanceof Map) {
+            // Script arrays are passed as maps of their indexes to their elements.
+            names = ((Map<?, ?>) names).values();
+        }
+        if (!(names instanceof Collection)) {
+            names = Collections.singleton(names);
+        }
+        Collection<?> collection = (Collection<?>) names;
+        List<Player> players = new ArrayList<Player>(collection.size());
+        for (Object name : collection) {
+            if (name == null) {
+                continue;
+            }
+            Player player = buscript.players.get(buscript.stringReplace(name.toString()));
+            if (player != null) {
+                players.add(player);
+            }
+        }
+        return players;
     }
 
     public void run(String script) {
@@ -108,21 +266,69 @@ class DefaultFunctions {
                 buscript.stringReplace(target));
     }
 
-    public void runLater(String script, String delay) {
+    public long runLater(String script, String delay) {
         long d = TimeTools.fromShortForm(delay);
-        buscript.scheduleScript(new File(buscript.getScriptFolder(), buscript.stringReplace(script)), d * 1000);
+        return buscript.scheduleDelayedScript(new File(buscript.getScriptFolder(), buscript.stringReplace(script)),
+                d * 1000);
     }
 
-    public void runLaterTarget(String script, String delay, String target) {
+    public long runLaterTarget(String script, String delay, String target) {
         long d = TimeTools.fromShortForm(delay);
-        buscript.scheduleScript(new File(buscript.getScriptFolder(), buscript.stringReplace(script)),
+        return buscript.scheduleDelayedScript(new File(buscript.getScriptFolder(), buscript.stringReplace(script)),
                 buscript.stringReplace(target), d * 1000);
     }
 
+    public long runLaterTicks(String script, long ticks) {
+        return buscript.scheduleScriptTicks(new File(buscript.getScriptFolder(), buscript.stringReplace(script)),
+                null, ticks);
+    }
+
+    public long runLaterTicksTarget(String script, long ticks, String target) {
+        return buscript.scheduleScriptTicks(new File(buscript.getScriptFolder(), buscript.stringReplace(script)),
+                buscript.stringReplace(target), ticks);
+    }
+
+    public long runEvery(String script, String period) {
+        return runRecurring(script, null, Recurrence.fixedRate(period));
+    }
+
+    public long runEveryTarget(String script, String period, String target) {
+        return runRecurring(script, target, Recurrence.fixedRate(period));
+    }
+
+    public long runWithDelay(String script, String delay) {
+        return runRecurring(script, null, Recurrence.fixedDelay(delay));
+    }
+
+    public long runWithDelayTarget(String script, String delay, String target) {
+        return runRecurring(script, target, Recurrence.fixedDelay(delay));
+    }
+
+    public long runCron(String script, String expression) {
+        return runRecurring(script, null, Recurrence.cron(expression));
+    }
+
+    public long runCronTarget(String script, String expression, String target) {
+        return runRecurring(script, target, Recurrence.cron(expression));
+    }
+
+    private long runRecurring(String script, String target, Recurrence recurrence) {
+        return buscript.scheduleScript(new File(buscript.getScriptFolder(), buscript.stringReplace(script)),
+                target != null ? buscript.stringReplace(target) : null, recurrence);
+    }
+
     public void clearScripts(String target) {
         buscript.clearScheduledScripts(target);
     }
 
+    public boolean cancelScript(long id) {
+        return buscript.cancelScheduledScript(id);
+    }
+
+    public void clearScriptFile(String script) {
+        buscript.clearScheduledScriptFile(new File(buscript.getScriptFolder(), buscript.stringReplace(script)));
+    }
+
     public String stringReplace(String string) {
         return buscript.stringReplace(string);
     }
@@ -130,4 +336,17 @@ class DefaultFunctions {
     public void registerEvent(String event, String priority, String script) {
         buscript.registerEventScript(event, priority, new File(buscript.getScriptFolder(), script));
     }
+
+    public void registerEvent(String event, String priority, String script, Map<String, Object> filter) {
+        buscript.registerEventScript(event, priority, new File(buscript.getScriptFolder(), script),
+                EventScriptFilter.fromOptions(filter));
+    }
+
+    public boolean unregisterEvent(String event, String priority, String script) {
+        return buscript.unregisterEventScript(event, priority, new File(buscript.getScriptFolder(), script));
+    }
+
+    public int unregisterEvents(String script) {
+        return buscript.unregisterEventScript(new File(buscript.getScriptFolder(), script));
+    }
 }
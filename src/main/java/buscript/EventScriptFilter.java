@@ -0,0 +1,261 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package buscript;
+
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.event.Cancellable;
+import org.bukkit.event.Event;
+import org.bukkit.event.block.BlockEvent;
+import org.bukkit.event.entity.EntityEvent;
+import org.bukkit.event.player.PlayerEvent;
+import org.bukkit.event.world.WorldEvent;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Conditions an event has to meet for an event script to run.  The conditions are checked in Java before the script
+ * engine is entered, so events the script would ignore anyway cost next to nothing.
+ * <p>Filters are immutable.  Each condition method returns a new filter with that condition added, starting from
+ * {@link #NONE}:</p>
+ * <pre>
+ * EventScriptFilter.NONE.ignoreCancelled(true).worlds("world", "world_nether").permission("scripts.move")
+ * </pre>
+ */
+public final class EventScriptFilter {
+
+    /** A filter that lets every event through. */
+    public static final EventScriptFilter NONE = new EventScriptFilter(false, null, null, null);
+
+    private final boolean ignoreCancelled;
+    /** The names of the worlds the event has to happen in or null for any world. */
+    private final Set<String> worlds;
+    private final String permission;
+    private final Class<? extends Event> eventType;
+
+    private EventScriptFilter(boolean ignoreCancelled, Set<String> worlds, String permission,
+                              Class<? extends Event> eventType) {
+        this.ignoreCancelled = ignoreCancelled;
+        this.worlds = worlds;
+        this.permission = permission;
+        this.eventType = eventType;
+    }
+
+    /**
+     * Sets whether cancelled events are skipped.  Events that can't be cancelled are never skipped for this.
+     *
+     * @param ignoreCancelled true to skip cancelled events.
+     * @return a filter with this condition.
+     */
+    public EventScriptFilter ignoreCancelled(boolean ignoreCancelled) {
+        return new EventScriptFilter(ignoreCancelled, worlds, permission, eventType);
+    }
+
+    /**
+     * Restricts the script to events that happen in one of the given worlds.  The world of an event is the world of
+     * its player, entity or block, or the world of a world event.  Events without a world are skipped.
+     *
+     * @param worlds the names of the worlds, in any case.
+     * @return a filter with this condition.
+     */
+    public EventScriptFilter worlds(String... worlds) {
+        return worlds(Arrays.asList(worlds));
+    }
+
+    /**
+     * Restricts the script to events that happen in one of the given worlds.
+     *
+     * @param worlds the names of the worlds, in any case, or null to allow any world.
+     * @return a filter with this condition.
+     * @see #worlds(String...)
+     */
+    public EventScriptFilter worlds(Collection<String> worlds) {
+        Set<String> names = null;
+        if (worlds != null) {
+            names = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+            names.addAll(worlds);
+            names = Collections.unmodifiableSet(names);
+        }
+        return new EventScriptFilter(ignoreCancelled, names, permission, eventType);
+    }
+
+    /**
+     * Restricts the script to events of a player, or of an entity that is a player, with the given permission.
+     * Events without a player are skipped.
+     *
+     * @param permission the permission the player needs or null to allow any player.
+     * @return a filter with this condition.
+     */
+    public EventScriptFilter permission(String permission) {
+        return new EventScriptFilter(ignoreCancelled, worlds, permission, eventType);
+    }
+
+    /**
+     * Restricts the script to events of the given class or one of its subclasses.  Useful when the script is bound to
+     * an event class whose handlers are shared with subclasses that should not run the script.
+     *
+     * @param eventType the class events have to be an instance of or null to allow any event.
+     * @return a filter with this condition.
+     */
+    public EventScriptFilter eventType(Class<? extends Event> eventType) {
+        return new EventScriptFilter(ignoreCancelled, worlds, permission, eventType);
+    }
+
+    /**
+     * Gets whether cancelled events are skipped.
+     *
+     * @return true if cancelled events are skipped.
+     */
+    public boolean isIgnoringCancelled() {
+        return ignoreCancelled;
+    }
+
+    /**
+     * Gets the names of the worlds events have to happen in.
+     *
+     * @return the world names or null if events may happen in any world.
+     */
+    public Set<String> getWorlds() {
+        return worlds;
+    }
+
+    /**
+     * Gets the permission the player of an event needs.
+     *
+     * @return the permission or null if no permission is needed.
+     */
+    public String getPermission() {
+        return permission;
+    }
+
+    /**
+     * Gets the class events have to be an instance of.
+     *
+     * @return the event class or null if any event is allowed.
+     */
+    public Class<? extends Event> getEventType() {
+        return eventType;
+    }
+
+    /**
+     * Checks whether the given event meets every condition of this filter.  The cheapest conditions are checked first.
+     *
+     * @param event the event.
+     * @return true if the script should run for the event.
+     */
+    public boolean matches(Event event) {
+        if (ignoreCancelled && event instanceof Cancellable && ((Cancellable) event).isCancelled()) {
+            return false;
+        }
+        if (eventType != null && !eventType.isInstance(event)) {
+            return false;
+        }
+        if (worlds != null) {
+            World world = getWorld(event);
+            if (world == null || !worlds.contains(world.getName())) {
+                return false;
+            }
+        }
+        if (permission != null) {
+            Player player = getPlayer(event);
+            if (player == null || !player.hasPermission(permission)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static World getWorld(Event event) {
+        if (event instanceof PlayerEvent) {
+            Player player = ((PlayerEvent) event).getPlayer();
+            return player != null ? player.getWorld() : null;
+        }
+        if (event instanceof EntityEvent) {
+            Entity entity = ((EntityEvent) event).getEntity();
+            return entity != null ? entity.getWorld() : null;
+        }
+        if (event instanceof BlockEvent) {
+            Block block = ((BlockEvent) event).getBlock();
+            return block != null ? block.getWorld() : null;
+        }
+        if (event instanceof WorldEvent) {
+            return ((WorldEvent) event).getWorld();
+        }
+        return null;
+    }
+
+    private static Player getPlayer(Event event) {
+        if (event instanceof PlayerEvent) {
+            return ((PlayerEvent) event).getPlayer();
+        }
+        if (event instanceof EntityEvent && ((EntityEvent) event).getEntity() instanceof Player) {
+            return (Player) ((EntityEvent) event).getEntity();
+        }
+        return null;
+    }
+
+    /**
+     * Creates a filter from the options a script passes, such as
+     * {@code {ignoreCancelled: true, worlds: ['world'], permission: 'perm', eventType: 'org.bukkit.event.Event'}}.
+     *
+     * @param options the filter options or null for no filter.
+     * @return the filter.
+     * @throws IllegalArgumentException if an option has an invalid value.
+     */
+    static EventScriptFilter fromOptions(Map<String, Object> options) {
+        EventScriptFilter filter = NONE;
+        if (options == null) {
+            return filter;
+        }
+        Object ignoreCancelled = options.get("ignoreCancelled");
+        if (ignoreCancelled != null) {
+            filter = filter.ignoreCancelled(Boolean.parseBoolean(ignoreCancelled.toString()));
+        }
+        Object worlds = options.get("worlds");
+        if (worlds instanceof Map) {
+            // Script arrays are passed as maps of their indexes to their elements.
+            worlds = ((Map<?, ?>) worlds).values();
+        }
+        if (worlds instanceof Collection) {
+            Set<String> names = new TreeSet<String>();
+            for (Object world : (Collection<?>) worlds) {
+                names.add(String.valueOf(world));
+            }
+            filter = filter.worlds(names);
+        } else if (worlds != null) {
+            filter = filter.worlds(worlds.toString());
+        }
+        Object permission = options.get("permission");
+        if (permission != null) {
+            filter = filter.permission(permission.toString());
+        }
+        Object eventType = options.get("eventType");
+        if (eventType != null) {
+            Class<?> type;
+            try {
+                type = Class.forName(eventType.toString());
+            } catch (ClassNotFoundException e) {
+                throw new IllegalArgumentException("Unknown event type: " + eventType);
+            }
+            if (!Event.class.isAssignableFrom(type)) {
+                throw new IllegalArgumentException("Event type must extend " + Event.class.getName());
+            }
+            filter = filter.eventType(type.asSubclass(Event.class));
+        }
+        return filter;
+    }
+
+    @Override
+    public String toString() {
+        return "EventScriptFilter{ignoreCancelled=" + ignoreCancelled + ", worlds=" + worlds + ", permission="
+                + permission + ", eventType=" + (eventType != null ? eventType.getName() : null) + "}";
+    }
+}
@@ -0,0 +1,123 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package buscript;
+
+import java.util.Locale;
+
+/**
+ * A snapshot of a histogram of latencies in nanoseconds.
+ * <p>Latencies are counted in logarithmic buckets: every power of two is split into 8 buckets of equal width, so a
+ * percentile is never off by more than an eighth of its value.  Percentiles report the highest latency of the
+ * bucket they fall into.</p>
+ */
+public final class LatencyHistogram {
+
+    /** The number of bits of a latency that select the bucket within its power of two. */
+    static final int SUB_BUCKET_BITS = 3;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int BUCKETS = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final long[] counts;
+    private final long count;
+    private final long totalTime;
+    private final long maxTime;
+
+    LatencyHistogram(long[] counts, long count, long totalTime, long maxTime) {
+        this.counts = counts;
+        this.count = count;
+        this.totalTime = totalTime;
+        this.maxTime = maxTime;
+    }
+
+    static int bucket(long time) {
+        if (time < SUB_BUCKETS) {
+            return (int) Math.max(time, 0L);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(time);
+        int subBucket = (int) (time >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long highestTime(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * Gets the number of recorded latencies.
+     *
+     * @return the number of recorded latencies.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the sum of all recorded latencies.
+     *
+     * @return the total time in nanoseconds.
+     */
+    public long getTotalTime() {
+        return totalTime;
+    }
+
+    /**
+     * Gets the average of the recorded latencies.
+     *
+     * @return the average time in nanoseconds or 0 if nothing was recorded.
+     */
+    public long getMeanTime() {
+        return count > 0 ? totalTime / count : 0L;
+    }
+
+    /**
+     * Gets the highest recorded latency.
+     *
+     * @return the highest time in nanoseconds or 0 if nothing was recorded.
+     */
+    public long getMaxTime() {
+        return maxTime;
+    }
+
+    /**
+     * Gets the latency below or at which the given percentage of the recorded latencies fall.
+     *
+     * @param percentile the percentage, from 0 to 100.
+     * @return the time in nanoseconds or 0 if nothing was recorded.
+     */
+    public long getPercentile(double percentile) {
+        if (count == 0) {
+            return 0L;
+        }
+        long rank = Math.max(1L, (long) Math.ceil(count * Math.min(Math.max(percentile, 0D), 100D) / 100D));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestTime(i), maxTime);
+            }
+        }
+        return maxTime;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "n=%d mean=%s p50=%s p99=%s max=%s", count, format(getMeanTime()),
+                format(getPercentile(50)), format(getPercentile(99)), format(maxTime));
+    }
+
+    /**
+     * Formats a time in nanoseconds as milliseconds.
+     *
+     * @param time the time in nanoseconds.
+     * @return the formatted time.
+     */
+    static String format(long time) {
+        return String.format(Locale.ROOT, "%.2fms", time / 1e6);
+    }
+}
@@ -0,0 +1,311 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package buscript;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Adds a call to the script watchdog's guard to the condition of every loop in a script, so that a script that has
+ * run out of time is aborted even while it loops without calling out of the script.
+ * <p>{@code while (a)} becomes {@code while (GUARD && (a))} and {@code for (i; a; j)} becomes
+ * {@code for (i; GUARD && (a); j)}.  Everything is inserted within the line it belongs to, so errors are reported at
+ * the same line numbers as before.  The source is only scanned as far as needed to tell code from strings, comments
+ * and regular expressions, and is returned unchanged if it has no loops.  A slash is read as the start of a regular
+ * expression wherever an expression may start, such as after an operator, a keyword like {@code return} or the
+ * parentheses of {@code if}, {@code while}, {@code for} and {@code with}.  If the scan still goes wrong, which shows
+ * as unbalanced brackets or an unterminated string or regular expression, the source is returned unchanged rather
+ * than risking breaking the script.</p>
+ */
+final class LoopInstrumenter {
+
+    /** The global variable that holds the guard of the engine a script runs on. */
+    static final String GUARD_VARIABLE = "__buscript_guard";
+    private static final String CHECK = GUARD_VARIABLE + ".check()";
+
+    /** A bracket that needs nothing done, or no loop keyword waiting for its parentheses. */
+    private static final int NORMAL = 0;
+    /** The parentheses of a while loop. */
+    private static final int WHILE = 1;
+    /** The parentheses of a for loop before the condition. */
+    private static final int FOR = 2;
+    /** The condition of a for loop. */
+    private static final int FOR_CONDITION = 3;
+    /** The parentheses of a for loop after the condition. */
+    private static final int FOR_UPDATE = 4;
+    /** The parentheses of an if or with statement. */
+    private static final int CONTROL = 5;
+
+    /** Keywords that may be followed by an expression, and thus by a regular expression. */
+    private static final Set<String> EXPRESSION_KEYWORDS = new HashSet<String>(Arrays.asList("return", "typeof",
+            "instanceof", "in", "of", "new", "delete", "void", "throw", "case", "do", "else", "yield"));
+
+    private final String source;
+    private StringBuilder out = null;
+    private int copied = 0;
+    private int[] brackets = new int[16];
+    private char[] openers = new char[16];
+    private int depth = 0;
+
+    private LoopInstrumenter(String source) {
+        this.source = source;
+    }
+
+    /**
+     * Adds watchdog checks to every loop of a script.
+     *
+     * @param source the source of the script.
+     * @return the instrumented source of the script.
+     */
+    static String instrument(String source) {
+        if (source.indexOf("while") < 0 && source.indexOf("for") < 0) {
+            return source;
+        }
+        String instrumented = new LoopInstrumenter(source).instrument();
+        return instrumented != null ? instrumented : source;
+    }
+
+    /**
+     * Instruments the source.
+     *
+     * @return the instrumented source or null if the source could not be scanned reliably.
+     */
+    private String instrument() {
+        int length = source.length();
+        boolean regexAllowed = true;
+        boolean afterDot = false;
+        int pendingLoop = NORMAL;
+        int i = 0;
+        while (i < length) {
+            char c = source.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            if (c == '/' && i + 1 < length && (source.charAt(i + 1) == '/' || source.charAt(i + 1) == '*')) {
+                i = skipComment(i);
+                continue;
+            }
+            if (c == '\'' || c == '"' || c == '`') {
+                i = skipString(i, c);
+                if (i < 0) {
+                    return null;
+                }
+                regexAllowed = false;
+                afterDot = false;
+                pendingLoop = NORMAL;
+                continue;
+            }
+            if (c == '/' && regexAllowed) {
+                i = skipRegex(i);
+                if (i < 0) {
+                    return null;
+                }
+                regexAllowed = false;
+                afterDot = false;
+                pendingLoop = NORMAL;
+                continue;
+            }
+            if (Character.isJavaIdentifierStart(c)) {
+                int end = i + 1;
+                while (end < length && Character.isJavaIdentifierPart(source.charAt(end))) {
+                    end++;
+                }
+                String word = source.substring(i, end);
+                if (!afterDot && word.equals("while")) {
+                    pendingLoop = WHILE;
+                } else if (!afterDot && word.equals("for")) {
+                    pendingLoop = FOR;
+                } else if (!afterDot && (word.equals("if") || word.equals("with"))) {
+                    pendingLoop = CONTROL;
+                } else if (!(pendingLoop == FOR && word.equals("each"))) {
+                    pendingLoop = NORMAL;
+                }
+                regexAllowed = !afterDot && EXPRESSION_KEYWORDS.contains(word);
+                afterDot = false;
+                i = end;
+                continue;
+            }
+            if (Character.isDigit(c)) {
+                while (i < length && (Character.isLetterOrDigit(source.charAt(i)) || source.charAt(i) == '.')) {
+                    i++;
+                }
+                regexAllowed = false;
+                afterDot = false;
+                pendingLoop = NORMAL;
+                continue;
+            }
+            regexAllowed = true;
+            switch (c) {
+                case '(':
+                    if (pendingLoop == WHILE) {
+                        insert(i + 1, CHECK + " && (");
+                    }
+                    push(pendingLoop, c);
+                    break;
+                case '[':
+                case '{':
+                    push(NORMAL, c);
+                    break;
+                case ')':
+                    int bracket = pop('(');
+                    if (bracket < 0) {
+                        return null;
+                    }
+                    if (bracket == WHILE || bracket == FOR_CONDITION) {
+                        insert(i, ")");
+                    }
+                    // A statement, and so possibly a regular expression, follows the head of a statement.
+                    regexAllowed = bracket != NORMAL;
+                    break;
+                case ']':
+                    if (pop('[') < 0) {
+                        return null;
+                    }
+                    regexAllowed = false;
+                    break;
+                case '}':
+                    if (pop('{') < 0) {
+                        return null;
+                    }
+                    break;
+                case ';':
+                    if (depth > 0 && brackets[depth - 1] == FOR) {
+                        int next = skipBlank(i + 1);
+                        if (next < length && source.charAt(next) == ';') {
+                            insert(i + 1, " " + CHECK);
+                            brackets[depth - 1] = FOR_UPDATE;
+                        } else {
+                            insert(next, CHECK + " && (");
+                            brackets[depth - 1] = FOR_CONDITION;
+                        }
+                    } else if (depth > 0 && brackets[depth - 1] == FOR_CONDITION) {
+                        insert(i, ")");
+                        brackets[depth - 1] = FOR_UPDATE;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            afterDot = c == '.';
+            pendingLoop = NORMAL;
+            i++;
+        }
+        if (depth > 0) {
+            return null;
+        }
+        if (out == null) {
+            return source;
+        }
+        return out.append(source, copied, length).toString();
+    }
+
+    private void insert(int position, String text) {
+        if (out == null) {
+            out = new StringBuilder(source.length() + 64);
+        }
+        out.append(source, copied, position).append(text);
+        copied = position;
+    }
+
+    private void push(int bracket, char opener) {
+        if (depth == brackets.length) {
+            brackets = Arrays.copyOf(brackets, depth * 2);
+            openers = Arrays.copyOf(openers, depth * 2);
+        }
+        openers[depth] = opener;
+        brackets[depth++] = bracket;
+    }
+
+    /**
+     * Closes the innermost bracket.
+     *
+     * @param opener the opening bracket that the closing bracket belongs to.
+     * @return what the bracket was for or -1 if the innermost bracket is a different one.
+     */
+    private int pop(char opener) {
+        if (depth == 0 || openers[depth - 1] != opener) {
+            return -1;
+        }
+        return brackets[--depth];
+    }
+
+    private int skipBlank(int i) {
+        int length = source.length();
+        while (i < length) {
+            char c = source.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '/' && i + 1 < length && (source.charAt(i + 1) == '/' || source.charAt(i + 1) == '*')) {
+                i = skipComment(i);
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    private int skipComment(int i) {
+        int end;
+        if (source.charAt(i + 1) == '/') {
+            end = source.indexOf('\n', i + 2);
+        } else {
+            end = source.indexOf("*/", i + 2);
+            if (end >= 0) {
+                end += 2;
+            }
+        }
+        return end >= 0 ? end : source.length();
+    }
+
+    private int skipString(int i, char quote) {
+        int length = source.length();
+        i++;
+        while (i < length) {
+            char c = source.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == quote) {
+                return i + 1;
+            } else if (c == '\n' && quote != '`') {
+                return -1;
+            } else {
+                i++;
+            }
+        }
+        return -1;
+    }
+
+    private int skipRegex(int i) {
+        int length = source.length();
+        boolean inClass = false;
+        i++;
+        while (true) {
+            if (i >= length) {
+                return -1;
+            }
+            char c = source.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c == '\n') {
+                return -1;
+            }
+            i++;
+            if (c == '[') {
+                inClass = true;
+            } else if (c == ']') {
+                inClass = false;
+            } else if (c == '/' && !inClass) {
+                break;
+            }
+        }
+        while (i < length && Character.isJavaIdentifierPart(source.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,93 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package buscript;
+
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the online players by name and by unique id so that script functions can find a player with a single map
+ * lookup, from any thread, instead of asking the server on the main thread.
+ * <p>Players are added before any other plugin sees them join and removed after every other plugin has seen them
+ * quit, so the index agrees with the server for the whole of both events.</p>
+ */
+class PlayerIndex implements Listener {
+
+    /** The length of a unique id in its string form. */
+    private static final int UUID_LENGTH = 36;
+
+    private final Map<String, Player> byName = new ConcurrentHashMap<String, Player>();
+    private final Map<UUID, Player> byId = new ConcurrentHashMap<UUID, Player>();
+
+    /**
+     * Adds every player that is online, for when the index is created after players joined.
+     *
+     * @param players the online players.
+     */
+    void addAll(Iterable<? extends Player> players) {
+        for (Player player : players) {
+            add(player);
+        }
+    }
+
+    void add(Player player) {
+        byName.put(key(player.getName()), player);
+        byId.put(player.getUniqueId(), player);
+    }
+
+    void remove(Player player) {
+        byName.remove(key(player.getName()), player);
+        byId.remove(player.getUniqueId(), player);
+    }
+
+    /**
+     * Gets an online player by name, ignoring case like {@link org.bukkit.Server#getPlayerExact(String)}, or by the
+     * string form of its unique id.
+     *
+     * @param nameOrId the name or unique id of the player.
+     * @return the player or null if no such player is online.
+     */
+    Player get(String nameOrId) {
+        if (nameOrId.length() == UUID_LENGTH && nameOrId.charAt(8) == '-') {
+            // Names can't contain dashes, so this can only be a unique id.
+            try {
+                return byId.get(UUID.fromString(nameOrId));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        return byName.get(key(nameOrId));
+    }
+
+    Player get(UUID id) {
+        return byId.get(id);
+    }
+
+    int size() {
+        return byId.size();
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ENGLISH);
+    }
+
+    @EventHandler(priority = EventPriority.LOWEST)
+    public void playerJoin(PlayerJoinEvent event) {
+        add(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void playerQuit(PlayerQuitEvent event) {
+        remove(event.getPlayer());
+    }
+}
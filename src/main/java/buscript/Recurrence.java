@@ -0,0 +1,176 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package buscript;
+
+import buscript.util.CronExpression;
+import buscript.util.TimeTools;
+
+/**
+ * When a recurring scheduled script runs again.
+ * <p>A recurring script is stored once, and each run only moves its next due time, so recurring scripts cost next to
+ * nothing between runs.  Runs missed while the server was down or busy are skipped rather than made up for.</p>
+ *
+ * @see Buscript#scheduleScript(java.io.File, String, Recurrence)
+ */
+public final class Recurrence {
+
+    private static final String FIXED_RATE = "rate";
+    private static final String FIXED_DELAY = "delay";
+    private static final String CRON = "cron";
+
+    private final String type;
+    private final long period;
+    private final CronExpression cron;
+
+    private Recurrence(String type, long period, CronExpression cron) {
+        this.type = type;
+        this.period = period;
+        this.cron = cron;
+    }
+
+    /**
+     * Runs a script at a fixed rate, each run being due a period after the previous run was due regardless of how long
+     * that run took.
+     *
+     * @param period the period in milliseconds.
+     * @return the recurrence.
+     */
+    public static Recurrence fixedRate(long period) {
+        return new Recurrence(FIXED_RATE, checkPeriod(period), null);
+    }
+
+    /**
+     * Runs a script at a fixed rate given in short form, such as "1h 30m".
+     *
+     * @param period the period in short form.
+     * @return the recurrence.
+     * @see TimeTools#fromShortForm(String)
+     */
+    public static Recurrence fixedRate(String period) {
+        return fixedRate(TimeTools.fromShortForm(period) * 1000);
+    }
+
+    /**
+     * Runs a script with a fixed delay, each run being due a period after the previous run ended.
+     *
+     * @param delay the delay in milliseconds.
+     * @return the recurrence.
+     */
+    public static Recurrence fixedDelay(long delay) {
+        return new Recurrence(FIXED_DELAY, checkPeriod(delay), null);
+    }
+
+    /**
+     * Runs a script with a fixed delay given in short form, such as "1h 30m".
+     *
+     * @param delay the delay in short form.
+     * @return the recurrence.
+     * @see TimeTools#fromShortForm(String)
+     */
+    public static Recurrence fixedDelay(String delay) {
+        return fixedDelay(TimeTools.fromShortForm(delay) * 1000);
+    }
+
+    /**
+     * Runs a script whenever the time matches a cron expression, in the default time zone.
+     *
+     * @param expression the cron expression.
+     * @return the recurrence.
+     * @throws IllegalArgumentException if the expression is invalid.
+     * @see CronExpression
+     */
+    public static Recurrence cron(String expression) {
+        return new Recurrence(CRON, 0L, CronExpression.parse(expression));
+    }
+
+    private static long checkPeriod(long period) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("The period of a recurring script must be positive");
+        }
+        return period;
+    }
+
+    /**
+     * Reads a recurrence from the form written by {@link #toString()}.
+     *
+     * @param string the string form of a recurrence.
+     * @return the recurrence.
+     * @throws IllegalArgumentException if the string is not a valid recurrence.
+     */
+    static Recurrence fromString(String string) {
+        int space = string.indexOf(' ');
+        if (space < 0) {
+            throw new IllegalArgumentException("Invalid recurrence: " + string);
+        }
+        String type = string.substring(0, space);
+        String value = string.substring(space + 1);
+        if (type.equals(CRON)) {
+            return cron(value);
+        }
+        long period;
+        try {
+            period = Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid recurrence: " + string);
+        }
+        if (type.equals(FIXED_RATE)) {
+            return fixedRate(period);
+        } else if (type.equals(FIXED_DELAY)) {
+            return fixedDelay(period);
+        }
+        throw new IllegalArgumentException("Invalid recurrence: " + string);
+    }
+
+    /**
+     * Gets the time a script scheduled now is first due.
+     *
+     * @param now the current time in milliseconds.
+     * @return the time in milliseconds or {@link Long#MAX_VALUE} if the script never runs.
+     */
+    long first(long now) {
+        return cron != null ? cron.next(now) : now + period;
+    }
+
+    /**
+     * Gets the time a script is due next after a run.
+     *
+     * @param due the time in milliseconds the run was due.
+     * @param now the current time in milliseconds, after the run.
+     * @return the time in milliseconds or {@link Long#MAX_VALUE} if the script does not run again.
+     */
+    long next(long due, long now) {
+        if (cron != null) {
+            return cron.next(Math.max(due, now));
+        }
+        if (type.equals(FIXED_DELAY)) {
+            return now + period;
+        }
+        long next = due + period;
+        if (next <= now) {
+            // Skips the runs that were missed, keeping the rate's phase.
+            next += ((now - next) / period + 1) * period;
+        }
+        return next;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Recurrence)) {
+            return false;
+        }
+        Recurrence other = (Recurrence) o;
+        return type.equals(other.type) && period == other.period
+                && (cron != null ? cron.equals(other.cron) : other.cron == null);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * type.hashCode() + (cron != null ? cron.hashCode() : (int) (period ^ period >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return type + ' ' + (cron != null ? cron.toString() : String.valueOf(period));
+    }
+}
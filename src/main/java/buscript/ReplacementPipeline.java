@@ -0,0 +1,209 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package buscript;
+
+import org.bukkit.ChatColor;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * A precompiled set of string replacements followed by translation of '&amp;' color codes.
+ * <p>When every regex is a plain token such as "%target%" the input is handled in a single scan that replaces all
+ * tokens and translates color codes as it goes.  Otherwise, or when a replacement value could interact with the
+ * tokens, each replacement is applied in order with a cached {@link Pattern} as {@link String#replaceAll} would.</p>
+ */
+final class ReplacementPipeline {
+
+    private static final String COLOR_CODES = "0123456789AaBbCcDdEeFfKkLlMmNnOoRr";
+    private static final String REGEX_META_CHARS = "\\^$.|?*+()[]{}";
+
+    private static final ConcurrentMap<String, Pattern> PATTERNS = new ConcurrentHashMap<String, Pattern>();
+
+    private final String[] tokens;
+    private final Pattern[] patterns;
+    private final boolean literal;
+    /** First characters of all tokens, used to find candidate token positions. */
+    private final String tokenStarts;
+    /** Characters a replacement value must not contain for the single scan to give the same result. */
+    private final String unsafeValueChars;
+
+    ReplacementPipeline(List<String> regexes) {
+        int size = regexes.size();
+        tokens = regexes.toArray(new String[size]);
+        patterns = new Pattern[size];
+        boolean allLiteral = true;
+        StringBuilder starts = new StringBuilder(size);
+        StringBuilder unsafe = new StringBuilder("$\\");
+        for (int i = 0; i < size; i++) {
+            patterns[i] = compile(tokens[i]);
+            if (tokens[i].isEmpty() || !isLiteral(tokens[i])) {
+                allLiteral = false;
+                continue;
+            }
+            starts.append(tokens[i].charAt(0));
+            unsafe.append(tokens[i].charAt(0)).append(tokens[i].charAt(tokens[i].length() - 1));
+        }
+        literal = allLiteral;
+        tokenStarts = starts.toString();
+        unsafeValueChars = unsafe.toString();
+    }
+
+    private static Pattern compile(String regex) {
+        Pattern pattern = PATTERNS.get(regex);
+        if (pattern == null) {
+            pattern = Pattern.compile(regex);
+            PATTERNS.putIfAbsent(regex, pattern);
+        }
+        return pattern;
+    }
+
+    private static boolean isLiteral(String regex) {
+        for (int i = 0; i < regex.length(); i++) {
+            if (REGEX_META_CHARS.indexOf(regex.charAt(i)) > -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean containsAny(String string, String chars) {
+        for (int i = 0; i < string.length(); i++) {
+            if (chars.indexOf(string.charAt(i)) > -1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replaces every token with the value at the same index and translates color codes.
+     *
+     * @param string the string to replace in.
+     * @param values the replacement for each regex this pipeline was created with.  Null values are treated as
+     *               {@link ScriptManager#NULL}.
+     * @return the resulting string.
+     */
+    String apply(String string, String[] values) {
+        if (literal && canScan(values)) {
+            return scan(string, values);
+        }
+        return replaceEach(string, values);
+    }
+
+    private String replaceEach(String string, String[] values) {
+        String result = string;
+        for (int i = 0; i < patterns.length; i++) {
+            result = patterns[i].matcher(result).replaceAll(valueAt(values, i));
+        }
+        return ChatColor.translateAlternateColorCodes('&', result);
+    }
+
+    private static String valueAt(String[] values, int index) {
+        String value = values[index];
+        return value != null ? value : ScriptManager.NULL;
+    }
+
+    /**
+     * A single scan gives the same result as replacing in order unless a replacement value could become part of a
+     * later token, either by containing one of its edge characters or by joining the text around it into that token.
+     */
+    private boolean canScan(String[] values) {
+        for (int i = 0; i < values.length; i++) {
+            String value = valueAt(values, i);
+            if (containsAny(value, unsafeValueChars)) {
+                return false;
+            }
+            for (int j = i + 1; j < tokens.length; j++) {
+                if (containsInside(tokens[j], value)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean containsInside(String token, String value) {
+        int index = token.indexOf(value, 1);
+        while (index > -1) {
+            if (index + value.length() < token.length()) {
+                return true;
+            }
+            index = token.indexOf(value, index + 1);
+        }
+        return false;
+    }
+
+    private String scan(String string, String[] values) {
+        int length = string.length();
+        int start = 0;
+        while (start < length) {
+            char c = string.charAt(start);
+            if (c == '&' || tokenStarts.indexOf(c) > -1) {
+                break;
+            }
+            start++;
+        }
+        if (start == length) {
+            return string;
+        }
+        StringBuilder result = new StringBuilder(length + 16);
+        result.append(string, 0, start);
+        int i = start;
+        while (i < length) {
+            char c = string.charAt(i);
+            if (tokenStarts.indexOf(c) > -1) {
+                int token = tokenAt(string, i);
+                if (token > 0 && overlapsEarlierToken(string, i, token)) {
+                    // Replacing in registration order would consume the earlier token first.
+                    return replaceEach(string, values);
+                }
+                if (token > -1) {
+                    String value = valueAt(values, token);
+                    for (int j = 0; j < value.length(); j++) {
+                        appendTranslated(result, value.charAt(j));
+                    }
+                    i += tokens[token].length();
+                    continue;
+                }
+            }
+            appendTranslated(result, c);
+            i++;
+        }
+        return result.toString();
+    }
+
+    private int tokenAt(String string, int index) {
+        for (int i = 0; i < tokens.length; i++) {
+            if (string.startsWith(tokens[i], index)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean overlapsEarlierToken(String string, int index, int token) {
+        int end = index + tokens[token].length();
+        for (int i = index + 1; i < end; i++) {
+            for (int j = 0; j < token; j++) {
+                if (string.startsWith(tokens[j], i)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static void appendTranslated(StringBuilder result, char c) {
+        int last = result.length() - 1;
+        if (last >= 0 && result.charAt(last) == '&' && COLOR_CODES.indexOf(c) > -1) {
+            result.setCharAt(last, ChatColor.COLOR_CHAR);
+            result.append(Character.toLowerCase(c));
+        } else {
+            result.append(c);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package buscript;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An append-only log of changes to the scheduled scripts since the script data file was last written.
+ * <p>Each change costs a single small record instead of a rewrite of every scheduled script.  On startup the journal
+ * is replayed on top of the script data file.  Once the script data file has been written again the journal is
+ * reset.</p>
+ */
+class ScheduleJournal implements Closeable {
+
+    private static final byte ADD = 1;
+    private static final byte ADD_RECURRING = 2;
+    private static final byte REMOVE = 3;
+    private static final byte FIRE = 4;
+    private static final byte CLEAR = 5;
+    private static final byte CURSOR = 6;
+    private static final byte CLEAR_FILE = 7;
+
+    private final File file;
+    private final ScriptValueCodec codec = new ScriptValueCodec();
+    private DataOutputStream out = null;
+    private int recordCount = 0;
+
+    ScheduleJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Applies every record in the journal to the given scheduler.  A record that was only partially written, such as
+     * after a crash, ends the replay.
+     *
+     * @param scheduler the scheduler to apply the records to.
+     * @return the number of records that were replayed.
+     * @throws IOException if the journal could not be read.
+     */
+    int replay(ScriptScheduler scheduler) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        int replayed = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int type = in.read();
+                if (type == -1) {
+                    break;
+                }
+                switch (type) {
+                    case ADD:
+                        scheduler.restore(readScript(in, false));
+                        break;
+                    case ADD_RECURRING:
+                        scheduler.restore(readScript(in, true));
+                        break;
+                    case CURSOR:
+                        scheduler.restoreCursor(in.readLong(), in.readLong());
+                        break;
+                    case REMOVE:
+                    case FIRE:
+                        scheduler.cancel(in.readLong());
+                        break;
+                    case CLEAR:
+                        scheduler.clear(in.readUTF());
+                        break;
+                    case CLEAR_FILE:
+                        scheduler.clearFile(in.readUTF());
+                        break;
+                    default:
+                        throw new IOException("Unknown journal record type " + type);
+                }
+                replayed++;
+            }
+        } catch (EOFException ignore) {
+            // The last record was not completely written.
+        }
+        recordCount = replayed;
+        return replayed;
+    }
+
+    void add(ScheduledScript script) throws IOException {
+        DataOutputStream out = open();
+        out.writeByte(script.recurrence != null ? ADD_RECURRING : ADD);
+        out.writeLong(script.id);
+        out.writeUTF(script.target);
+        out.writeUTF(script.file);
+        out.writeLong(script.time);
+        codec.writeValue(out, script.replacements);
+        codec.writeValue(out, script.metaData);
+        if (script.recurrence != null) {
+            out.writeUTF(script.recurrence.toString());
+        }
+        written();
+    }
+
+    /**
+     * Records the next due time of a recurring script that ran.
+     *
+     * @param id the id of the recurring script.
+     * @param time the time in milliseconds the script is next due.
+     * @throws IOException if the record could not be written.
+     */
+    void cursor(long id, long time) throws IOException {
+        DataOutputStream out = open();
+        out.writeByte(CURSOR);
+        out.writeLong(id);
+        out.writeLong(time);
+        written();
+    }
+
+    void remove(long id) throws IOException {
+        writeIdRecord(REMOVE, id);
+    }
+
+    void fire(long id) throws IOException {
+        writeIdRecord(FIRE, id);
+    }
+
+    void clear(String target) throws IOException {
+        DataOutputStream out = open();
+        out.writeByte(CLEAR);
+        out.writeUTF(target);
+        written();
+    }
+
+    /**
+     * Records that every script scheduled to run a script file was removed.
+     *
+     * @param scriptFile the path of the script file.
+     * @throws IOException if the record could not be written.
+     */
+    void clearFile(String scriptFile) throws IOException {
+        DataOutputStream out = open();
+        out.writeByte(CLEAR_FILE);
+        out.writeUTF(scriptFile);
+        written();
+    }
+
+    private void writeIdRecord(byte type, long id) throws IOException {
+        DataOutputStream out = open();
+        out.writeByte(type);
+        out.writeLong(id);
+        written();
+    }
+
+    private DataOutputStream open() throws IOException {
+        if (out == null) {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        }
+        return out;
+    }
+
+    private void written() throws IOException {
+        out.flush();
+        recordCount++;
+    }
+
+    /**
+     * Gets the number of records in the journal.
+     *
+     * @return the number of records in the journal.
+     */
+    int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Empties the journal.  This should only be done once everything it contains has been written to the script data
+     * file.
+     *
+     * @throws IOException if the journal could not be emptied.
+     */
+    void reset() throws IOException {
+        close();
+        new FileOutputStream(file).close();
+        recordCount = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    private ScheduledScript readScript(DataInputStream in, boolean recurring) throws IOException {
+        long id = in.readLong();
+        String target = in.readUTF();
+        String file = in.readUTF();
+        long time = in.readLong();
+        List<Map<String, Object>> replacements = codec.readReplacements(in);
+        Map<String, Object> metaData = codec.readMetaData(in);
+        Recurrence recurrence = null;
+        if (recurring) {
+            try {
+                recurrence = Recurrence.fromString(in.readUTF());
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage());
+            }
+        }
+        return new ScheduledScript(id, target, file, time, replacements, metaData, recurrence);
+    }
+}
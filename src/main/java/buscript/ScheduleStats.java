@@ -0,0 +1,86 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package buscript;
+
+/**
+ * A snapshot of the statistics of scheduled scripts being run.
+ */
+public final class ScheduleStats {
+
+    private final int scheduled;
+    private final int backlog;
+    private final int maxBacklog;
+    private final long executions;
+    private final long dropped;
+    private final LatencyHistogram lag;
+
+    ScheduleStats(int scheduled, int backlog, int maxBacklog, long executions, long dropped, LatencyHistogram lag) {
+        this.scheduled = scheduled;
+        this.backlog = backlog;
+        this.maxBacklog = maxBacklog;
+        this.executions = executions;
+        this.dropped = dropped;
+        this.lag = lag;
+    }
+
+    /**
+     * Gets the number of scripts scheduled that are not due yet.
+     *
+     * @return the number of scheduled scripts.
+     */
+    public int getScheduled() {
+        return scheduled;
+    }
+
+    /**
+     * Gets the number of due scripts waiting for a tick with budget left to run in.
+     *
+     * @return the number of due scripts waiting to run.
+     */
+    public int getBacklog() {
+        return backlog;
+    }
+
+    /**
+     * Gets the highest number of due scripts that were waiting to run at once.
+     *
+     * @return the highest backlog.
+     */
+    public int getMaxBacklog() {
+        return maxBacklog;
+    }
+
+    /**
+     * Gets the number of scheduled scripts that were run.
+     *
+     * @return the number of executions.
+     */
+    public long getExecutions() {
+        return executions;
+    }
+
+    /**
+     * Gets the number of overdue scripts that were dropped by the catch-up policy.
+     *
+     * @return the number of dropped scripts.
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Gets how late scripts ran after the time they were due, recorded for every execution.
+     *
+     * @return the lag histogram.
+     */
+    public LatencyHistogram getLag() {
+        return lag;
+    }
+
+    @Override
+    public String toString() {
+        return "scheduled scripts: " + scheduled + " scheduled, " + executions + " runs, " + dropped
+                + " dropped, backlog " + backlog + " (max " + maxBacklog + "), lag " + lag;
+    }
+}
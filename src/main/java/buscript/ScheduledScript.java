@@ -0,0 +1,51 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package buscript;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A script file that has been scheduled to run for a target at a specific time, and possibly again after that.
+ */
+class ScheduledScript {
+
+    final long id;
+    final String target;
+    final String file;
+    /** The time the script is due.  For recurring scripts, the time of the next run. */
+    long time;
+    final List<Map<String, Object>> replacements;
+    final Map<String, Object> metaData;
+    /** When the script runs again or null if it only runs once. */
+    final Recurrence recurrence;
+
+    boolean cancelled = false;
+
+    ScheduledScript(long id, String target, String file, long time, List<Map<String, Object>> replacements,
+                    Map<String, Object> metaData) {
+        this(id, target, file, time, replacements, metaData, null);
+    }
+
+    ScheduledScript(long id, String target, String file, long time, List<Map<String, Object>> replacements,
+                    Map<String, Object> metaData, Recurrence recurrence) {
+        this.id = id;
+        this.target = target;
+        this.file = file;
+        this.time = time;
+        this.replacements = replacements;
+        this.metaData = metaData;
+        this.recurrence = recurrence;
+    }
+
+    /**
+     * Copies this script as it is now, for the data writer thread to write while the main thread goes on to change the
+     * time or cancel the script.
+     *
+     * @return a copy of this script.
+     */
+    ScheduledScript copy() {
+        return new ScheduledScript(id, target, file, time, replacements, metaData, recurrence);
+    }
+}
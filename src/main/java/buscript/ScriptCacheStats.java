@@ -0,0 +1,130 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package buscript;
+
+/**
+ * A snapshot of the statistics of the script cache, which holds the source of scripts bound to events.
+ */
+public final class ScriptCacheStats {
+
+    private final long hits;
+    private final long negativeHits;
+    private final long misses;
+    private final long evictions;
+    private final long loads;
+    private final long totalLoadTime;
+    private final int size;
+    private final long weight;
+    private final long maxWeight;
+
+    ScriptCacheStats(long hits, long negativeHits, long misses, long evictions, long loads, long totalLoadTime,
+                     int size, long weight, long maxWeight) {
+        this.hits = hits;
+        this.negativeHits = negativeHits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.loads = loads;
+        this.totalLoadTime = totalLoadTime;
+        this.size = size;
+        this.weight = weight;
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Gets the number of requests for a script whose source was cached.
+     *
+     * @return the number of cache hits.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of requests for a script file that was already known not to exist.
+     *
+     * @return the number of negative cache hits.
+     */
+    public long getNegativeHits() {
+        return negativeHits;
+    }
+
+    /**
+     * Gets the number of requests for a script that had to be read from disk.
+     *
+     * @return the number of cache misses.
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Gets the number of scripts that were removed from the cache to stay within its maximum weight.
+     *
+     * @return the number of evictions.
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Gets the number of times a script was read from disk, including reloads of changed scripts.
+     *
+     * @return the number of loads.
+     */
+    public long getLoads() {
+        return loads;
+    }
+
+    /**
+     * Gets the total time spent reading scripts from disk.
+     *
+     * @return the total load time in nanoseconds.
+     */
+    public long getTotalLoadTime() {
+        return totalLoadTime;
+    }
+
+    /**
+     * Gets the average time it took to read a script from disk.
+     *
+     * @return the average load time in nanoseconds or 0 if nothing was loaded.
+     */
+    public double getAverageLoadTime() {
+        return loads > 0 ? (double) totalLoadTime / loads : 0D;
+    }
+
+    /**
+     * Gets the number of scripts in the cache, including files known not to exist.
+     *
+     * @return the number of cached entries.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Gets the approximate memory taken up by the cached scripts.
+     *
+     * @return the weight of the cache in bytes.
+     */
+    public long getWeight() {
+        return weight;
+    }
+
+    /**
+     * Gets the weight above which the least recently used scripts are evicted.
+     *
+     * @return the maximum weight of the cache in bytes.
+     */
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    @Override
+    public String toString() {
+        return "ScriptCacheStats{hits=" + hits + ", negativeHits=" + negativeHits + ", misses=" + misses
+                + ", evictions=" + evictions + ", loads=" + loads + ", totalLoadTime=" + totalLoadTime
+                + ", size=" + size + ", weight=" + weight + ", maxWeight=" + maxWeight + "}";
+    }
+}
@@ -0,0 +1,259 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package buscript;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Reads and writes the script data file that holds all scheduled scripts.
+ * <p>The file starts with the bytes "BUSC", a version and a flags byte.  The rest, optionally gzip compressed, is a
+ * table of every distinct string followed by the scripts.  Numbers are written as varints, times as the difference to
+ * the previous script's time and strings as indexes into the table, so repeated targets, files and replacements are
+ * only stored once.  Each script ends with its recurrence, if any.  Files written by earlier versions of Buscript are
+ * YAML and are still read.</p>
+ */
+final class ScriptDataFormat {
+
+    private static final byte[] MAGIC = {'B', 'U', 'S', 'C'};
+    private static final int VERSION = 1;
+    private static final int FLAG_COMPRESSED = 1;
+
+    private ScriptDataFormat() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Checks whether the given file is in the binary format rather than the YAML format of earlier versions.
+     *
+     * @param file the script data file.
+     * @return true if the file starts with the binary format's header.
+     * @throws IOException if the file could not be read.
+     */
+    static boolean isBinary(File file) throws IOException {
+        byte[] header = new byte[MAGIC.length];
+        try (InputStream in = new FileInputStream(file)) {
+            int read = 0;
+            while (read < header.length) {
+                int count = in.read(header, read, header.length - read);
+                if (count == -1) {
+                    return false;
+                }
+                read += count;
+            }
+        }
+        return Arrays.equals(header, MAGIC);
+    }
+
+    /**
+     * Reads the scheduled scripts from a script data file in either format.  Scripts read from the YAML format that
+     * were saved without an id are given an id of -1.
+     *
+     * @param file the script data file.
+     * @param logger the logger to report invalid scripts to.
+     * @return the scheduled scripts in the file or an empty list if the file does not exist.
+     * @throws IOException if the file could not be read.
+     */
+    static List<ScheduledScript> read(File file, Logger logger) throws IOException {
+        if (!file.exists()) {
+            return new ArrayList<ScheduledScript>();
+        }
+        return isBinary(file) ? readBinary(file) : readYaml(file, logger);
+    }
+
+    static List<ScheduledScript> readBinary(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536))) {
+            in.skipBytes(MAGIC.length);
+            int version = in.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported script data version " + version);
+            }
+            int flags = in.readUnsignedByte();
+            DataInputStream data = in;
+            if ((flags & FLAG_COMPRESSED) != 0) {
+                data = new DataInputStream(new BufferedInputStream(new GZIPInputStream(in, 65536), 65536));
+            }
+            StringTableCodec codec = new StringTableCodec();
+            codec.readTable(data);
+            int count = ScriptValueCodec.readCount(data);
+            List<ScheduledScript> scripts =
+                    new ArrayList<ScheduledScript>(Math.min(count, ScriptValueCodec.MAX_PRESIZE));
+            long time = 0;
+            for (int i = 0; i < count; i++) {
+                long id = ScriptValueCodec.readVarLong(data);
+                String target = codec.readString(data);
+                String scriptFile = codec.readString(data);
+                time += ScriptValueCodec.decodeZigZag(ScriptValueCodec.readVarLong(data));
+                List<Map<String, Object>> replacements = codec.readReplacements(data);
+                Map<String, Object> metaData = codec.readMetaData(data);
+                Recurrence recurrence = null;
+                int recurrenceIndex = ScriptValueCodec.readVarInt(data);
+                if (recurrenceIndex != 0) {
+                    recurrence = Recurrence.fromString(codec.string(recurrenceIndex - 1));
+                }
+                scripts.add(new ScheduledScript(id, target, scriptFile, time, replacements, metaData, recurrence));
+            }
+            // Also makes the gzip stream check its trailer, which is how a compressed file cut short is noticed.
+            if (data.read() != -1) {
+                throw new IOException("Invalid script data: unexpected data after the last script");
+            }
+            return scripts;
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid script data: " + e.getMessage());
+        }
+    }
+
+    @SuppressWarnings("unchecked") // YAML lists and maps of earlier versions only held replacements and meta data.
+    static List<ScheduledScript> readYaml(File file, Logger logger) {
+        List<ScheduledScript> result = new ArrayList<ScheduledScript>();
+        YamlConfiguration config = YamlConfiguration.loadConfiguration(file);
+        ConfigurationSection scripts = config.getConfigurationSection("scripts");
+        if (scripts == null) {
+            return result;
+        }
+        for (String target : scripts.getKeys(false)) {
+            for (Object scriptObj : scripts.getList(target)) {
+                if (!(scriptObj instanceof Map)) {
+                    continue;
+                }
+                Map scriptMap = (Map) scriptObj;
+                Object timeObj = scriptMap.get("time");
+                Object fileObj = scriptMap.get("file");
+                Object replacementsObj = scriptMap.get("replacements");
+                Object metaDataObj = scriptMap.get("metaData");
+                if (timeObj == null || fileObj == null
+                        || (replacementsObj != null && !(replacementsObj instanceof List))
+                        || (metaDataObj != null && !(metaDataObj instanceof Map))) {
+                    logger.warning("Invalid delayed script entry");
+                    continue;
+                }
+                long time;
+                try {
+                    time = Long.valueOf(timeObj.toString());
+                } catch (NumberFormatException e) {
+                    logger.warning("Script data error, time reset");
+                    time = 0;
+                }
+                Object idObj = scriptMap.get("id");
+                long id = idObj instanceof Number ? ((Number) idObj).longValue() : -1;
+                result.add(new ScheduledScript(id, target, fileObj.toString(), time,
+                        (List<Map<String, Object>>) replacementsObj, (Map<String, Object>) metaDataObj));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes the scheduled scripts to a script data file in the binary format.
+     *
+     * @param file the file to write to.
+     * @param scripts the scripts to write.
+     * @param compress whether to gzip compress the file.
+     * @throws IOException if the file could not be written.
+     */
+    static void write(File file, List<ScheduledScript> scripts, boolean compress) throws IOException {
+        StringTableCodec codec = new StringTableCodec();
+        ByteArrayOutputStream body = new ByteArrayOutputStream(Math.max(32, scripts.size() * 24));
+        DataOutputStream bodyOut = new DataOutputStream(body);
+        ScriptValueCodec.writeVarInt(bodyOut, scripts.size());
+        long time = 0;
+        for (ScheduledScript script : scripts) {
+            ScriptValueCodec.writeVarLong(bodyOut, script.id);
+            codec.writeString(bodyOut, script.target);
+            codec.writeString(bodyOut, script.file);
+            ScriptValueCodec.writeVarLong(bodyOut, ScriptValueCodec.encodeZigZag(script.time - time));
+            time = script.time;
+            codec.writeValue(bodyOut, script.replacements);
+            codec.writeValue(bodyOut, script.metaData);
+            // 0 for scripts that run once, otherwise the index of the recurrence plus 1.
+            ScriptValueCodec.writeVarInt(bodyOut, script.recurrence != null
+                    ? codec.index(script.recurrence.toString()) + 1 : 0);
+        }
+        bodyOut.flush();
+
+        try (OutputStream fileOut = new BufferedOutputStream(new FileOutputStream(file), 65536)) {
+            fileOut.write(MAGIC);
+            fileOut.write(VERSION);
+            fileOut.write(compress ? FLAG_COMPRESSED : 0);
+            GZIPOutputStream gzipOut = compress ? new GZIPOutputStream(fileOut, 65536) : null;
+            DataOutputStream out = new DataOutputStream(gzipOut != null ? gzipOut : fileOut);
+            codec.writeTable(out);
+            body.writeTo(out);
+            out.flush();
+            if (gzipOut != null) {
+                gzipOut.finish();
+            }
+        }
+    }
+
+    /**
+     * Writes strings as indexes into the table of every distinct string that is written ahead of the scripts.
+     */
+    private static final class StringTableCodec extends ScriptValueCodec {
+
+        private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+        private final List<String> strings = new ArrayList<String>();
+
+        int index(String string) {
+            Integer index = indexes.get(string);
+            if (index == null) {
+                index = strings.size();
+                strings.add(string);
+                indexes.put(string, index);
+            }
+            return index;
+        }
+
+        String string(int index) throws IOException {
+            if (index < 0 || index >= strings.size()) {
+                throw new IOException("Invalid script data: string " + index + " of " + strings.size());
+            }
+            return strings.get(index);
+        }
+
+        void writeTable(DataOutputStream out) throws IOException {
+            writeVarInt(out, strings.size());
+            for (String string : strings) {
+                writeUtf8(out, string);
+            }
+        }
+
+        void readTable(DataInputStream in) throws IOException {
+            int count = readCount(in);
+            for (int i = 0; i < count; i++) {
+                strings.add(readUtf8(in));
+            }
+        }
+
+        @Override
+        void writeString(DataOutputStream out, String string) throws IOException {
+            writeVarInt(out, index(string));
+        }
+
+        @Override
+        String readString(DataInputStream in) throws IOException {
+            return string(readVarInt(in));
+        }
+    }
+}
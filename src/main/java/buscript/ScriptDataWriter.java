@@ -0,0 +1,236 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package buscript;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Writes scheduled script data on a background thread.
+ * <p>Journal records and snapshots are queued by the main thread and written together once the save delay has passed
+ * since the first of them was queued.  A snapshot makes every record queued before it redundant, so those records are
+ * never written.  Snapshots are written to a temporary file which then replaces the script data file.</p>
+ */
+class ScriptDataWriter {
+
+    /**
+     * A change to the scheduled scripts that can be written to the journal.
+     */
+    interface JournalRecord {
+
+        void write(ScheduleJournal journal) throws IOException;
+    }
+
+    private static final class Snapshot {
+
+        private final List<ScheduledScript> scripts;
+
+        private Snapshot(List<ScheduledScript> scripts) {
+            this.scripts = scripts;
+        }
+    }
+
+    private final File dataFile;
+    private final ScheduleJournal journal;
+    private final Logger logger;
+    private final ScheduledExecutorService executor;
+
+    private final Runnable writeTask = new Runnable() {
+        @Override
+        public void run() {
+            writePending();
+        }
+    };
+
+    private final List<Object> pending = new ArrayList<Object>();
+    private boolean writeScheduled = false;
+    private volatile long saveDelay;
+    private volatile boolean compress = false;
+    private volatile boolean snapshotRequired = false;
+    private int journalRecords = 0;
+
+    ScriptDataWriter(File dataFile, ScheduleJournal journal, Logger logger, long saveDelay) {
+        this.dataFile = dataFile;
+        this.journal = journal;
+        this.logger = logger;
+        this.saveDelay = saveDelay;
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Buscript data writer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Queues a record to be appended to the journal.
+     *
+     * @param record the record to append.
+     */
+    void append(JournalRecord record) {
+        journalRecords++;
+        queue(record);
+    }
+
+    /**
+     * Queues a snapshot of every scheduled script to replace the script data file.  Once written, the journal is
+     * emptied.
+     *
+     * @param scripts all scheduled scripts.  The list must not be modified afterwards.
+     */
+    void snapshot(List<ScheduledScript> scripts) {
+        journalRecords = 0;
+        snapshotRequired = false;
+        queue(new Snapshot(scripts));
+    }
+
+    private void queue(Object item) {
+        synchronized (pending) {
+            pending.add(item);
+            if (writeScheduled) {
+                return;
+            }
+            writeScheduled = true;
+        }
+        try {
+            executor.schedule(writeTask, saveDelay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Already shut down, so nobody else will write this.
+            writePending();
+        }
+    }
+
+    /**
+     * Gets the number of journal records queued since the last snapshot.
+     *
+     * @return the number of journal records queued since the last snapshot.
+     */
+    int getJournalRecords() {
+        return journalRecords;
+    }
+
+    /**
+     * Whether writing to the journal failed, meaning a snapshot is needed so that no changes are lost.
+     *
+     * @return true if a snapshot should be queued.
+     */
+    boolean isSnapshotRequired() {
+        return snapshotRequired;
+    }
+
+    long getSaveDelay() {
+        return saveDelay;
+    }
+
+    void setSaveDelay(long saveDelay) {
+        this.saveDelay = saveDelay;
+    }
+
+    boolean isCompress() {
+        return compress;
+    }
+
+    void setCompress(boolean compress) {
+        this.compress = compress;
+    }
+
+    /**
+     * Writes everything that has been queued and waits for it to finish.
+     */
+    void flush() {
+        try {
+            Future<?> future = executor.submit(writeTask);
+            future.get();
+        } catch (RejectedExecutionException e) {
+            writePending();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.warning("Could not save script data: " + e.getCause());
+        }
+    }
+
+    /**
+     * Writes everything that has been queued, waits for it to finish and stops the writer thread.
+     */
+    void close() {
+        flush();
+        executor.shutdown();
+        try {
+            journal.close();
+        } catch (IOException e) {
+            logger.warning("Could not close script journal: " + e.getMessage());
+        }
+    }
+
+    private void writePending() {
+        List<Object> items;
+        synchronized (pending) {
+            items = new ArrayList<Object>(pending);
+            pending.clear();
+            writeScheduled = false;
+        }
+        if (items.isEmpty()) {
+            return;
+        }
+        synchronized (journal) {
+            int start = 0;
+            for (int i = items.size() - 1; i >= 0; i--) {
+                if (items.get(i) instanceof Snapshot) {
+                    if (!writeSnapshot((Snapshot) items.get(i))) {
+                        snapshotRequired = true;
+                        return;
+                    }
+                    start = i + 1;
+                    break;
+                }
+            }
+            try {
+                for (int i = start; i < items.size(); i++) {
+                    ((JournalRecord) items.get(i)).write(journal);
+                }
+            } catch (IOException e) {
+                logger.warning("Could not write script journal: " + e.getMessage());
+                snapshotRequired = true;
+            }
+        }
+    }
+
+    private boolean writeSnapshot(Snapshot snapshot) {
+        File tempFile = new File(dataFile.getPath() + ".tmp");
+        try {
+            ScriptDataFormat.write(tempFile, snapshot.scripts, compress);
+            try {
+                Files.move(tempFile.toPath(), dataFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), dataFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            logger.warning("Could not save script data: " + e.getMessage());
+            return false;
+        }
+        try {
+            journal.reset();
+        } catch (IOException e) {
+            logger.warning("Could not reset script journal: " + e.getMessage());
+        }
+        return true;
+    }
+}
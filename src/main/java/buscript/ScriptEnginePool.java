@@ -0,0 +1,447 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package buscript;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.Invocable;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A pool of script engines that are leased for one execution at a time so that scripts may run on several threads at
+ * once.
+ * <p>Engines are created when first needed, up to the size of the pool.  Every engine is given the same script methods
+ * and global variables, in the order they were added.  Changes made while an engine is idle are applied the next time
+ * it is leased.  When every engine is busy a lease waits until one is released or the lease timeout passes.</p>
+ * <p>The first engine is kept for the thread that created the pool, which is the server's main thread, so the main
+ * thread never waits for an engine held by a script running on another thread.  Other threads share the remaining
+ * engines, of which there is always at least one.</p>
+ * <p>A thread that already holds an engine is given the same engine again, so scripts started from within a script
+ * never wait on the pool.</p>
+ */
+class ScriptEnginePool {
+
+    /** The total size in bytes of the script files each engine keeps compiled for file executions. */
+    private static final long COMPILED_SCRIPT_CACHE_WEIGHT = 16L * 1024L * 1024L;
+
+    /**
+     * A script engine along with the executions currently running on it.
+     */
+    static final class PooledEngine {
+
+        final ScriptEngine engine;
+        final Invocable invocable;
+        final Bindings bindings;
+        final Object globalObject;
+        final Object objectConstructor;
+
+        final CompiledScriptCache compiledScriptCache;
+        final Map<String, CompiledSource> compiledSources = new HashMap<String, CompiledSource>();
+        int cacheGeneration = -1;
+
+        /** The innermost execution running on this engine or null. */
+        ScriptExecution execution = null;
+        final ScriptWatchdog.Guard guard = new ScriptWatchdog.Guard();
+
+        private final Set<String> pendingInvalidations = new HashSet<String>();
+        private final List<Object> pendingMethods = new ArrayList<Object>();
+        private final Map<String, Object> pendingVariables = new LinkedHashMap<String, Object>();
+        private int depth = 0;
+
+        private PooledEngine(ScriptEngine engine) {
+            this.engine = engine;
+            invocable = (Invocable) engine;
+            bindings = engine.getContext().getBindings(ScriptContext.ENGINE_SCOPE);
+            bindings.put(LoopInstrumenter.GUARD_VARIABLE, guard);
+            try {
+                globalObject = engine.eval("this");
+                objectConstructor = engine.eval("Object");
+            } catch (ScriptException e) {
+                throw new RuntimeException(e);
+            }
+            compiledScriptCache = engine instanceof Compilable
+                    ? new CompiledScriptCache((Compilable) engine, COMPILED_SCRIPT_CACHE_WEIGHT) : null;
+        }
+
+        private void addScriptMethods(Object obj) {
+            try {
+                invocable.invokeMethod(objectConstructor, "bindProperties", globalObject, obj);
+            } catch (ScriptException | NoSuchMethodException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * A script compiled from a cached source.
+     */
+    static final class CompiledSource {
+
+        /** The cached source the script was compiled from. */
+        final String source;
+        /** Whether the script was compiled with watchdog checks in its loops. */
+        final boolean guarded;
+        /** The compiled script or null if the source has a syntax error. */
+        final CompiledScript script;
+
+        CompiledSource(String source, boolean guarded, CompiledScript script) {
+            this.source = source;
+            this.guarded = guarded;
+            this.script = script;
+        }
+    }
+
+    private final ScriptEngineManager engineManager = new ScriptEngineManager();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+
+    private final List<PooledEngine> engines = new ArrayList<PooledEngine>();
+    private final Deque<PooledEngine> idle = new ArrayDeque<PooledEngine>();
+    private final ThreadLocal<PooledEngine> leased = new ThreadLocal<PooledEngine>();
+
+    private final List<Object> scriptMethods = new ArrayList<Object>();
+    private final Map<String, Object> variables = new LinkedHashMap<String, Object>();
+
+    private final PooledEngine primary;
+    private final Thread primaryThread;
+
+    private int size;
+    private int creating = 0;
+    private volatile long leaseTimeout;
+
+    ScriptEnginePool(int size, long leaseTimeout) {
+        this.size = size;
+        this.leaseTimeout = leaseTimeout;
+        primaryThread = Thread.currentThread();
+        primary = createEngine();
+        engines.add(primary);
+    }
+
+    private PooledEngine createEngine() {
+        ScriptEngine engine = engineManager.getEngineByName("nashorn");
+        if (engine == null) {
+            throw new IllegalStateException("The nashorn script engine is not available");
+        }
+        return new PooledEngine(engine);
+    }
+
+    /**
+     * Gets the engine that was created first.  It is never removed from the pool, is only leased by the thread that
+     * created the pool and is used when script state is needed outside of an execution.
+     *
+     * @return the first engine of the pool.
+     */
+    PooledEngine getPrimary() {
+        return primary;
+    }
+
+    /**
+     * Gets the engine leased by the current thread.
+     *
+     * @return the engine leased by the current thread or null if it holds none.
+     */
+    PooledEngine current() {
+        return leased.get();
+    }
+
+    /**
+     * Leases an engine for the current thread, waiting for one to become available if every engine is busy.  The
+     * thread that created the pool is given the first engine and never waits.  Every lease must be matched by a call
+     * to {@link #release(PooledEngine)}.
+     *
+     * @return the leased engine.
+     * @throws ScriptException if no engine became available within the lease timeout.
+     */
+    PooledEngine lease() throws ScriptException {
+        PooledEngine engine = leased.get();
+        if (engine != null) {
+            engine.depth++;
+            return engine;
+        }
+        engine = Thread.currentThread() == primaryThread ? primary : take();
+        engine.depth = 1;
+        leased.set(engine);
+        applyPending(engine);
+        return engine;
+    }
+
+    private PooledEngine take() throws ScriptException {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(leaseTimeout);
+        lock.lock();
+        try {
+            while (true) {
+                PooledEngine engine = idle.poll();
+                if (engine != null) {
+                    return engine;
+                }
+                if (engines.size() + creating < maxEngines()) {
+                    creating++;
+                    break;
+                }
+                if (remaining <= 0L) {
+                    throw new ScriptException("All " + (maxEngines() - 1) + " script engines are busy");
+                }
+                remaining = released.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ScriptException("Interrupted while waiting for a script engine");
+        } finally {
+            lock.unlock();
+        }
+        // Creating an engine is slow so it is done without holding the lock.
+        PooledEngine engine = null;
+        try {
+            engine = createEngine();
+        } finally {
+            lock.lock();
+            try {
+                creating--;
+                if (engine != null) {
+                    engines.add(engine);
+                    engine.pendingMethods.addAll(scriptMethods);
+                    engine.pendingVariables.putAll(variables);
+                } else {
+                    released.signal();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return engine;
+    }
+
+    /**
+     * Returns a leased engine to the pool.
+     *
+     * @param engine the engine that was leased by the current thread.
+     */
+    void release(PooledEngine engine) {
+        if (--engine.depth > 0) {
+            return;
+        }
+        leased.remove();
+        if (engine == primary) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (engines.size() > maxEngines()) {
+                engines.remove(engine);
+            } else {
+                idle.push(engine);
+                released.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of engines the pool may hold.  The first engine is not shared, so other threads always have at
+     * least one engine of their own.  Must be called while holding the lock.
+     */
+    private int maxEngines() {
+        return Math.max(size, 2);
+    }
+
+    private void applyPending(PooledEngine engine) {
+        List<String> invalidations;
+        List<Object> methods;
+        Map<String, Object> vars;
+        lock.lock();
+        try {
+            if (engine.pendingInvalidations.isEmpty() && engine.pendingMethods.isEmpty()
+                    && engine.pendingVariables.isEmpty()) {
+                return;
+            }
+            invalidations = new ArrayList<String>(engine.pendingInvalidations);
+            methods = new ArrayList<Object>(engine.pendingMethods);
+            vars = new LinkedHashMap<String, Object>(engine.pendingVariables);
+            engine.pendingInvalidations.clear();
+            engine.pendingMethods.clear();
+            engine.pendingVariables.clear();
+        } finally {
+            lock.unlock();
+        }
+        for (String key : invalidations) {
+            engine.compiledSources.remove(key);
+            if (engine.compiledScriptCache != null) {
+                engine.compiledScriptCache.remove(key);
+            }
+        }
+        for (Object obj : methods) {
+            engine.addScriptMethods(obj);
+        }
+        engine.bindings.putAll(vars);
+    }
+
+    /**
+     * Adds all methods of the given object to the global scope of every engine.
+     *
+     * @param obj the object whose methods should be added.
+     */
+    void addScriptMethods(Object obj) {
+        PooledEngine current = leased.get();
+        lock.lock();
+        try {
+            scriptMethods.add(obj);
+            for (PooledEngine engine : engines) {
+                if (engine != current) {
+                    engine.pendingMethods.add(obj);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (current != null) {
+            current.addScriptMethods(obj);
+        }
+    }
+
+    /**
+     * Discards the scripts that every engine compiled under the given keys.  Engines drop them the next time they are
+     * leased, so an execution that is already running keeps the script it started with.
+     *
+     * @param keys the script file names and canonical paths to discard.
+     */
+    void invalidate(Collection<String> keys) {
+        lock.lock();
+        try {
+            for (PooledEngine engine : engines) {
+                engine.pendingInvalidations.addAll(keys);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets a global variable in every engine.
+     *
+     * @param name the name of the variable.
+     * @param value the value of the variable.
+     */
+    void setVariable(String name, Object value) {
+        PooledEngine current = leased.get();
+        lock.lock();
+        try {
+            variables.put(name, value);
+            for (PooledEngine engine : engines) {
+                if (engine != current) {
+                    engine.pendingVariables.put(name, value);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (current != null) {
+            current.bindings.put(name, value);
+        }
+    }
+
+    /**
+     * Gets a global variable as seen by the execution running on the current thread.  Outside of an execution an engine is
+     * leased just to read the variable, falling back to the last value set through {@link #setVariable(String, Object)}
+     * if every engine is busy.
+     *
+     * @param name the name of the variable.
+     * @return the value of the variable.
+     */
+    Object getVariable(String name) {
+        PooledEngine engine;
+        try {
+            engine = lease();
+        } catch (ScriptException e) {
+            lock.lock();
+            try {
+                return variables.get(name);
+            } finally {
+                lock.unlock();
+            }
+        }
+        try {
+            return engine.execution != null ? engine.execution.getAttribute(name) : engine.bindings.get(name);
+        } finally {
+            release(engine);
+        }
+    }
+
+    /**
+     * Gets the total compiled script cache hits and misses of every engine.
+     *
+     * @return an array of the hits followed by the misses.
+     */
+    long[] getCompiledScriptCacheStats() {
+        long[] stats = new long[2];
+        lock.lock();
+        try {
+            for (PooledEngine engine : engines) {
+                if (engine.compiledScriptCache != null) {
+                    stats[0] += engine.compiledScriptCache.getHits();
+                    stats[1] += engine.compiledScriptCache.getMisses();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return stats;
+    }
+
+    int getSize() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void setSize(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("size must be at least 1");
+        }
+        lock.lock();
+        try {
+            this.size = size;
+            // Idle engines beyond the new size are dropped now, busy ones once they are released.
+            Iterator<PooledEngine> it = idle.iterator();
+            while (engines.size() > maxEngines() && it.hasNext()) {
+                PooledEngine engine = it.next();
+                it.remove();
+                engines.remove(engine);
+            }
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getLeaseTimeout() {
+        return leaseTimeout;
+    }
+
+    void setLeaseTimeout(long leaseTimeout) {
+        this.leaseTimeout = leaseTimeout;
+    }
+}
@@ -0,0 +1,181 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package buscript;
+
+import javax.script.Bindings;
+import javax.script.ScriptContext;
+import javax.script.SimpleBindings;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The state and script context of a single script execution.
+ * <p>The engine scope of the context is the global scope of the script engine and is shared by every execution on that
+ * engine.  The global scope belongs to this execution alone and holds variables such as "target" and "metaData", which
+ * take precedence over the engine scope, so a script that assigns one of them does not change it for later
+ * executions.  Executions started from within a script get a context of their own and leave the one of the script
+ * that started them untouched.</p>
+ */
+final class ScriptExecution implements ScriptContext {
+
+    private static final List<Integer> SCOPES = Collections.unmodifiableList(Arrays.asList(ENGINE_SCOPE, GLOBAL_SCOPE));
+
+    /** The execution that started this one or null. */
+    final ScriptExecution parent;
+    final String target;
+    final Map<String, Object> metaData;
+
+    List<Map<String, Object>> delayedReplacements = null;
+    ReplacementPipeline delayedPipeline = null;
+    String[] delayedValues = null;
+
+    /** Nanoseconds spent compiling scripts for this execution or -1 if nothing had to be compiled. */
+    long compileTime = -1;
+
+    private Bindings engineScope;
+    private Bindings globalScope = new SimpleBindings();
+
+    private Reader reader;
+    private Writer writer;
+    private Writer errorWriter;
+
+    /**
+     * Creates an execution that starts with a copy of the meta data and the delayed replacements of its parent.
+     *
+     * @param parent the execution that starts this one or null.
+     * @param target the target of the execution.
+     * @param engineContext the default context of the script engine the execution runs on.
+     */
+    ScriptExecution(ScriptExecution parent, String target, ScriptContext engineContext) {
+        this.parent = parent;
+        this.target = target;
+        engineScope = engineContext.getBindings(ENGINE_SCOPE);
+        reader = engineContext.getReader();
+        writer = engineContext.getWriter();
+        errorWriter = engineContext.getErrorWriter();
+        if (parent != null) {
+            metaData = new HashMap<String, Object>(parent.metaData);
+            delayedReplacements = parent.delayedReplacements;
+            delayedPipeline = parent.delayedPipeline;
+            delayedValues = parent.delayedValues;
+        } else {
+            metaData = new HashMap<String, Object>();
+        }
+    }
+
+    void compiled(long time) {
+        compileTime = compileTime < 0 ? time : compileTime + time;
+    }
+
+    @Override
+    public void setBindings(Bindings bindings, int scope) {
+        switch (scope) {
+            case ENGINE_SCOPE:
+                if (bindings == null) {
+                    throw new NullPointerException("Engine scope bindings may not be null.");
+                }
+                engineScope = bindings;
+                break;
+            case GLOBAL_SCOPE:
+                globalScope = bindings;
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid scope value.");
+        }
+    }
+
+    @Override
+    public Bindings getBindings(int scope) {
+        switch (scope) {
+            case ENGINE_SCOPE:
+                return engineScope;
+            case GLOBAL_SCOPE:
+                return globalScope;
+            default:
+                throw new IllegalArgumentException("Invalid scope value.");
+        }
+    }
+
+    @Override
+    public void setAttribute(String name, Object value, int scope) {
+        getScope(scope).put(name, value);
+    }
+
+    @Override
+    public Object getAttribute(String name, int scope) {
+        return getScope(scope).get(name);
+    }
+
+    @Override
+    public Object removeAttribute(String name, int scope) {
+        return getScope(scope).remove(name);
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        if (globalScope != null && globalScope.containsKey(name)) {
+            return globalScope.get(name);
+        }
+        return engineScope.get(name);
+    }
+
+    @Override
+    public int getAttributesScope(String name) {
+        if (globalScope != null && globalScope.containsKey(name)) {
+            return GLOBAL_SCOPE;
+        }
+        if (engineScope.containsKey(name)) {
+            return ENGINE_SCOPE;
+        }
+        return -1;
+    }
+
+    private Bindings getScope(int scope) {
+        Bindings bindings = getBindings(scope);
+        if (bindings == null) {
+            throw new IllegalArgumentException("No bindings for scope " + scope);
+        }
+        return bindings;
+    }
+
+    @Override
+    public Writer getWriter() {
+        return writer;
+    }
+
+    @Override
+    public Writer getErrorWriter() {
+        return errorWriter;
+    }
+
+    @Override
+    public void setWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public void setErrorWriter(Writer writer) {
+        this.errorWriter = writer;
+    }
+
+    @Override
+    public Reader getReader() {
+        return reader;
+    }
+
+    @Override
+    public void setReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    @Override
+    public List<Integer> getScopes() {
+        return SCOPES;
+    }
+}
@@ -0,0 +1,130 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package buscript;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Watches the script folder and all folders below it for changed script files.
+ * <p>Changes are collected until the folder has been quiet for a short while, since editors often write a file in
+ * several steps, and are then passed to the script manager one file at a time.  If the watch service lost events the
+ * whole script cache is cleared instead, as there is no telling what changed.</p>
+ */
+class ScriptFolderWatcher implements Runnable {
+
+    /** Time in milliseconds without further changes after which collected changes are handled. */
+    private static final long QUIET_PERIOD = 100L;
+
+    private final ScriptManager scriptManager;
+    private final Path folder;
+    private final Logger logger;
+    private final WatchService watchService;
+    private final Thread thread;
+
+    ScriptFolderWatcher(ScriptManager scriptManager, Path folder, Logger logger) throws IOException {
+        this.scriptManager = scriptManager;
+        this.folder = folder;
+        this.logger = logger;
+        watchService = FileSystems.getDefault().newWatchService();
+        registerAll(folder);
+        thread = new Thread(this, "Buscript script watcher");
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Stops watching the script folder.
+     */
+    void stop() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            logger.warning("Could not stop watching '" + folder + "': " + e.getMessage());
+        }
+        thread.interrupt();
+    }
+
+    Path getFolder() {
+        return folder;
+    }
+
+    private void registerAll(Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Set<Path> changed = new LinkedHashSet<Path>();
+                boolean overflow = false;
+                while (key != null) {
+                    overflow |= collect(key, changed);
+                    key = watchService.poll(QUIET_PERIOD, TimeUnit.MILLISECONDS);
+                }
+                if (overflow) {
+                    scriptManager.clearScriptCache();
+                    continue;
+                }
+                for (Path path : changed) {
+                    scriptManager.scriptChanged(path.toFile());
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ignore) {
+            // Stopped.
+        }
+    }
+
+    private boolean collect(WatchKey key, Set<Path> changed) {
+        boolean overflow = false;
+        Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                    && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                try {
+                    registerAll(path);
+                } catch (IOException e) {
+                    logger.warning("Could not watch '" + path + "': " + e.getMessage());
+                }
+                continue;
+            }
+            changed.add(path);
+        }
+        // A key that is no longer valid belongs to a folder that was deleted, which needs no further watching.
+        key.reset();
+        return overflow;
+    }
+}
@@ -1,23 +1,31 @@
 package buscript;
 
 import buscript.util.FileTools;
-import org.bukkit.ChatColor;
 
 import javax.script.Bindings;
-import javax.script.Invocable;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
 import javax.script.ScriptContext;
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.Reader;
+import java.util.AbstractMap;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 
 public class ScriptManager {
@@ -26,25 +34,41 @@ public class ScriptManager {
 
     public static final String NULL = "!!NULL";
 
-    private ScriptEngine scriptEngine = new ScriptEngineManager().getEngineByName("nashorn");
-    private Invocable invocable = (Invocable) scriptEngine;
-    private ScriptContext defaultContext = scriptEngine.getContext();
-    private Bindings engineBindings = defaultContext.getBindings(ScriptContext.ENGINE_SCOPE);
+    /** The name script strings run without a source name are recorded under in the script statistics. */
+    static final String INLINE_SOURCE = "<inline>";
 
-    Object globalObject;
-    Object objectConstructor;
+    /** The default time in milliseconds an execution waits for a script engine when all of them are busy. */
+    private static final long DEFAULT_ENGINE_LEASE_TIMEOUT = 5000L;
+    /** The default number of script engines: one for the main thread and one for asynchronous executions. */
+    private static final int DEFAULT_ENGINE_POOL_SIZE = 2;
+    /** The default approximate memory in bytes the script cache may take up. */
+    private static final long DEFAULT_SCRIPT_CACHE_WEIGHT = 16L * 1024L * 1024L;
 
-    private String target = null;
+    private final ScriptEnginePool enginePool = new ScriptEnginePool(DEFAULT_ENGINE_POOL_SIZE,
+            DEFAULT_ENGINE_LEASE_TIMEOUT);
+    private ThreadPoolExecutor asyncExecutor = null;
 
     private File scriptFolder;
 
-    private Map<String, String> scriptCache = new HashMap<String, String>();
+    private final ScriptSourceCache scriptCache;
+    private final AtomicInteger scriptCacheGeneration = new AtomicInteger();
+    private ScriptFolderWatcher scriptWatcher = null;
 
-    private List<Map<String, Object>> delayedReplacements = null;
+    private final ScriptMetrics metrics = new ScriptMetrics();
+    private final ScriptWatchdog watchdog;
+    private volatile long scriptTimeBudget = 0L;
+    private final ConcurrentMap<String, Long> scriptTimeBudgets = new ConcurrentHashMap<String, Long>();
 
-    protected final List<StringReplacer> stringReplacers = new ArrayList<StringReplacer>();
+    private volatile ReplacementPipeline replacerPipeline;
+    private volatile StringReplacer[] pipelineReplacers;
 
-    protected Map<String, Object> metaData = new HashMap<String, Object>();
+    protected final List<StringReplacer> stringReplacers = new CopyOnWriteArrayList<StringReplacer>();
+
+    /**
+     * The meta data of the script currently executing on the calling thread, the same map {@link #getMetaData()}
+     * returns.  Outside of a script execution it is empty and cannot be changed.
+     */
+    protected Map<String, Object> metaData = new CurrentMetaData();
 
     private static class TargetReplacer implements StringReplacer {
 
@@ -72,23 +96,15 @@ public class ScriptManager {
 
     protected ScriptManager(File scriptFolder, Logger logger) {
         this.logger = logger;
+        scriptCache = new ScriptSourceCache(DEFAULT_SCRIPT_CACHE_WEIGHT, logger);
+        watchdog = new ScriptWatchdog(logger);
         registerStringReplacer(new TargetReplacer(this));
         // Create script folder in plugin's directory.
         this.scriptFolder = scriptFolder;
         if (!getScriptFolder().exists()) {
             getScriptFolder().mkdirs();
         }
-        // Initialize the context with a global object.
-        try {
-            globalObject = scriptEngine.eval("this");
-            objectConstructor = scriptEngine.eval("Object");
-        } catch (ScriptException e) {
-            throw new RuntimeException(e);
-        }
-
-        // Adds the current server instance as a script variable "server".
-        engineBindings.put("metaData", metaData);
-        engineBindings.put("NULL", NULL);
+        setScriptVariable("NULL", NULL);
     }
 
     protected Logger getLogger() {
@@ -97,12 +113,77 @@ public class ScriptManager {
 
     /**
      * Retrieves the global scope object for this Buscript execution environment. Equivalent to the global this object
-     * in JS.
+     * in JS.  Each script engine in the pool has its own global scope.  Outside of a script execution this returns the
+     * global scope of the first engine, which {@link #runScriptFunction(Object, String, Object...)} treats as the
+     * global scope of whichever engine it runs on.
      *
      * @return The global scope object for this Buscript execution environment.
      */
     public Object getGlobalScope() {
-        return globalObject;
+        ScriptEnginePool.PooledEngine engine = enginePool.current();
+        return (engine != null ? engine : enginePool.getPrimary()).globalObject;
+    }
+
+    /**
+     * Gets the maximum number of script engines that may execute scripts at the same time.  Each engine is given the
+     * same script methods and global variables, but variables and functions declared by a script are only visible to
+     * later scripts that run on the same engine.  One engine is kept for the thread that created this script manager,
+     * normally the server's main thread, so scripts running on other threads never make it wait.  Other threads share
+     * the rest of the engines and always have at least one.  The default size is 2.
+     *
+     * @return the maximum number of script engines.
+     */
+    public int getEnginePoolSize() {
+        return enginePool.getSize();
+    }
+
+    /**
+     * Sets the maximum number of script engines that may execute scripts at the same time.  Engines are created as
+     * they are needed.
+     *
+     * @param size the maximum number of script engines.  Must be at least 1.
+     */
+    public void setEnginePoolSize(int size) {
+        enginePool.setSize(size);
+        synchronized (this) {
+            if (asyncExecutor != null) {
+                int threads = getAsyncThreads();
+                if (threads > asyncExecutor.getMaximumPoolSize()) {
+                    asyncExecutor.setMaximumPoolSize(threads);
+                    asyncExecutor.setCorePoolSize(threads);
+                } else {
+                    asyncExecutor.setCorePoolSize(threads);
+                    asyncExecutor.setMaximumPoolSize(threads);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the number of threads asynchronous executions run on, one for each engine not kept for the main thread.
+     */
+    private int getAsyncThreads() {
+        return Math.max(1, getEnginePoolSize() - 1);
+    }
+
+    /**
+     * Gets how long in milliseconds an execution waits for a script engine when all of them are busy before it fails
+     * with an error.
+     *
+     * @return the engine lease timeout in milliseconds.
+     */
+    public long getEngineLeaseTimeout() {
+        return enginePool.getLeaseTimeout();
+    }
+
+    /**
+     * Sets how long in milliseconds an execution waits for a script engine when all of them are busy before it fails
+     * with an error.
+     *
+     * @param timeout the engine lease timeout in milliseconds.
+     */
+    public void setEngineLeaseTimeout(long timeout) {
+        enginePool.setLeaseTimeout(timeout);
     }
 
     /**
@@ -112,7 +193,60 @@ public class ScriptManager {
      * @return The current script target or null.
      */
     public String getTarget() {
-        return target;
+        ScriptExecution execution = currentExecution();
+        return execution != null ? execution.target : null;
+    }
+
+    /**
+     * Gets the meta data of the script currently executing on this thread.  Scripts may add to it and it is passed on
+     * to any script they schedule.
+     *
+     * @return the meta data of the current script or an empty map outside of a script execution.
+     */
+    protected Map<String, Object> getMetaData() {
+        ScriptExecution execution = currentExecution();
+        return execution != null ? execution.metaData : Collections.<String, Object>emptyMap();
+    }
+
+    /**
+     * A view of the meta data of whichever script is executing on the calling thread.
+     */
+    private final class CurrentMetaData extends AbstractMap<String, Object> {
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return getMetaData().entrySet();
+        }
+
+        @Override
+        public int size() {
+            return getMetaData().size();
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return getMetaData().containsKey(key);
+        }
+
+        @Override
+        public Object get(Object key) {
+            return getMetaData().get(key);
+        }
+
+        @Override
+        public Object put(String key, Object value) {
+            return getMetaData().put(key, value);
+        }
+
+        @Override
+        public Object remove(Object key) {
+            return getMetaData().remove(key);
+        }
+    }
+
+    private ScriptExecution currentExecution() {
+        ScriptEnginePool.PooledEngine engine = enginePool.current();
+        return engine != null ? engine.execution : null;
     }
 
     /**
@@ -135,12 +269,19 @@ public class ScriptManager {
             throw new IllegalArgumentException("folder must be a directory!");
         }
         this.scriptFolder = folder;
+        synchronized (this) {
+            if (scriptWatcher != null) {
+                stopWatchingScripts();
+                startWatchingScripts();
+            }
+        }
     }
 
     /**
      * Loops through all StringReplacers registered with this Buscript object and replaces their regex strings with
      * their replacement string and returns the result.  By default this includes a replacement of %t with the script's
-     * current target.  This will also replace '&amp;' with the appropriate color character.
+     * current target.  This will also replace '&amp;' with the appropriate color character.  When all regex strings are
+     * plain tokens the replacements and color translation are done in a single pass over the string.
      *
      * Note: This ONLY works correctly when used from within a script function.
      *
@@ -151,33 +292,16 @@ public class ScriptManager {
         if (string == null) {
             throw new IllegalArgumentException("string must not be null");
         }
-        String result = string;
-        if (delayedReplacements != null) {
-            for (Map<String, Object> replacement : delayedReplacements) {
-                Object regex = replacement.get("regex");
-                Object replace = replacement.get("replace");
-                if (regex != null) {
-                    if (replace == null) {
-                        replace = NULL;
-                    }
-                    result = result.replaceAll(regex.toString(), replace.toString());
-                }
-            }
-        } else {
-            for (StringReplacer r : stringReplacers) {
-                String regex = r.getRegexString();
-                if (regex == null) {
-                    continue;
-                }
-                String replace = r.getReplacement();
-                if (replace == null) {
-                    replace = NULL;
-                }
-                result = result.replaceAll(regex, replace);
-            }
+        ScriptExecution execution = currentExecution();
+        if (execution != null && execution.delayedReplacements != null) {
+            return execution.delayedPipeline.apply(string, execution.delayedValues);
         }
-        result = ChatColor.translateAlternateColorCodes('&', result);
-        return result;
+        StringReplacer[] replacers = pipelineReplacers;
+        String[] values = new String[replacers.length];
+        for (int i = 0; i < replacers.length; i++) {
+            values[i] = replacers[i].getReplacement();
+        }
+        return replacerPipeline.apply(string, values);
     }
 
     /**
@@ -187,14 +311,27 @@ public class ScriptManager {
      * @param replacer the new StringReplacer to add.
      */
     public void registerStringReplacer(StringReplacer replacer) {
-        Iterator<StringReplacer> it = stringReplacers.iterator();
-        while (it.hasNext()) {
-            StringReplacer r = it.next();
+        for (StringReplacer r : stringReplacers) {
             if (r.getRegexString().equals(replacer.getRegexString())) {
-                it.remove();
+                stringReplacers.remove(r);
             }
         }
         stringReplacers.add(replacer);
+        updateReplacerPipeline();
+    }
+
+    private void updateReplacerPipeline() {
+        List<StringReplacer> replacers = new ArrayList<StringReplacer>(stringReplacers.size());
+        List<String> regexes = new ArrayList<String>(stringReplacers.size());
+        for (StringReplacer r : stringReplacers) {
+            String regex = r.getRegexString();
+            if (regex != null) {
+                replacers.add(r);
+                regexes.add(regex);
+            }
+        }
+        replacerPipeline = new ReplacementPipeline(regexes);
+        pipelineReplacers = replacers.toArray(new StringReplacer[replacers.size()]);
     }
 
     /**
@@ -204,11 +341,7 @@ public class ScriptManager {
      * @param obj The object whose methods should be added.
      */
     public void addScriptMethods(Object obj) {
-        try {
-            invocable.invokeMethod(objectConstructor, "bindProperties", globalObject, obj);
-        } catch (ScriptException | NoSuchMethodException e) {
-            e.printStackTrace();
-        }
+        enginePool.addScriptMethods(obj);
     }
 
     /**
@@ -218,7 +351,7 @@ public class ScriptManager {
      * @param object Value for the variable.
      */
     public void setScriptVariable(String name, Object object) {
-        engineBindings.put(name, object);
+        enginePool.setVariable(name, object);
     }
 
     /**
@@ -228,7 +361,7 @@ public class ScriptManager {
      * @return The value of the global variable of the given name.
      */
     public Object getScriptVariable(String name) {
-        return engineBindings.get(name);
+        return enginePool.getVariable(name);
     }
 
     /**
@@ -257,28 +390,74 @@ public class ScriptManager {
      * @param obj - "Scope" object for use as the 'this' object in javascript.
      * @param functionName The name of the javascript function.
      * @param args - Arguments for the script function.
-     * @return The result of the function call.
+     * @return The result of the function call, or null if the function ran longer than its time budget.
      * @throws ScriptException if the calling of the function resulted in an exception.
      * @throws FunctionNotFoundException if the named variable is not a function or its value is null.
      */
     public Object runScriptFunction(Object obj, String functionName, Object... args)
             throws FunctionNotFoundException, ScriptException {
-        Object o = getScriptVariable(functionName);
+        ScriptEnginePool.PooledEngine engine = enginePool.lease();
+        boolean armed = watchdog.arm(engine.guard, functionName, getScriptTimeBudget(functionName),
+                engine != enginePool.getPrimary());
         try {
-            return invocable.invokeMethod(obj, functionName, args);
+            if (obj == enginePool.getPrimary().globalObject) {
+                obj = engine.globalObject;
+            }
+            return engine.invocable.invokeMethod(obj, functionName, args);
         } catch (NoSuchMethodException e) {
             throw new FunctionNotFoundException("'" + functionName + "' is not a valid function!");
+        } catch (ScriptTimeoutException e) {
+            if (!armed) {
+                throw e;
+            }
+            reportScriptError(e, null);
+            return null;
+        } catch (RuntimeException e) {
+            if (!armed || !engine.guard.isExpired()) {
+                throw e;
+            }
+            reportScriptError(new ScriptTimeoutException(functionName, getScriptTimeBudget(functionName)), null);
+            return null;
+        } finally {
+            if (armed) {
+                engine.guard.finish();
+            }
+            enginePool.release(engine);
         }
     }
 
     Object executeDelayedScript(File scriptFile, List<Map<String, Object>> replacements, Map<String, Object> data) {
+        ScriptEnginePool.PooledEngine engine = leaseEngine(null);
+        if (engine == null) {
+            return null;
+        }
+        // The script runs as a child of an execution that only carries the stored meta data and replacements.
+        ScriptExecution delayed = new ScriptExecution(engine.execution, null, engine.engine.getContext());
         if (data != null) {
-            metaData = data;
+            delayed.metaData.putAll(data);
+        }
+        if (replacements != null) {
+            List<String> regexes = new ArrayList<String>(replacements.size());
+            List<String> values = new ArrayList<String>(replacements.size());
+            for (Map<String, Object> replacement : replacements) {
+                Object regex = replacement.get("regex");
+                Object replace = replacement.get("replace");
+                if (regex != null) {
+                    regexes.add(regex.toString());
+                    values.add(replace != null ? replace.toString() : null);
+                }
+            }
+            delayed.delayedReplacements = replacements;
+            delayed.delayedPipeline = new ReplacementPipeline(regexes);
+            delayed.delayedValues = values.toArray(new String[values.size()]);
+        }
+        engine.execution = delayed;
+        try {
+            return executeScript(scriptFile, null, null);
+        } finally {
+            engine.execution = delayed.parent;
+            enginePool.release(engine);
         }
-        delayedReplacements = replacements;
-        Object res = executeScript(scriptFile, null, null);
-        delayedReplacements = null;
-        return res;
     }
 
     /**
@@ -319,12 +498,24 @@ public class ScriptManager {
      *               as variable 'target'
      * @param executor the executor to notify of errors.
      */
-    public Object executeScript(File scriptFile, String target, ScriptExecutor executor) {
-        this.target = target;
-        Object res = runScript(scriptFile, executor);
-        this.target = null;
-        metaData.clear();
-        return res;
+    public Object executeScript(final File scriptFile, String target, ScriptExecutor executor) {
+        return execute(scriptFile.getPath(), null, target, null, executor, new Evaluation() {
+            @Override
+            public Object eval(ScriptEnginePool.PooledEngine engine, ScriptContext context, boolean guarded)
+                    throws ScriptException, IOException {
+                CompiledScriptCache cache = engine.compiledScriptCache;
+                if (cache != null) {
+                    long misses = cache.getMisses();
+                    long start = System.nanoTime();
+                    CompiledScript compiled = cache.getCompiledScript(scriptFile, guarded);
+                    if (cache.getMisses() != misses) {
+                        engine.execution.compiled(System.nanoTime() - start);
+                    }
+                    return compiled.eval(context);
+                }
+                return engine.engine.eval(instrument(FileTools.readFile(scriptFile), guarded), context);
+            }
+        });
     }
 
     /**
@@ -375,50 +566,312 @@ public class ScriptManager {
      *               as variable 'target'
      * @param executor the executor to notify of errors.
      */
-    public Object executeScript(String script, String source, String target, ScriptExecutor executor) {
-        this.target = target;
-        Object res = runScript(script, executor);
-        this.target = null;
-        metaData.clear();
-        return res;
+    public Object executeScript(final String script, String source, String target, ScriptExecutor executor) {
+        return execute(source != null ? source : INLINE_SOURCE, null, target, null, executor, new Evaluation() {
+            @Override
+            public Object eval(ScriptEnginePool.PooledEngine engine, ScriptContext context, boolean guarded)
+                    throws ScriptException {
+                String instrumented = instrument(script, guarded);
+                if (!(engine.engine instanceof Compilable)) {
+                    return engine.engine.eval(instrumented, context);
+                }
+                // Compiling separately costs nothing extra and tells compile and evaluation time apart.
+                long start = System.nanoTime();
+                CompiledScript compiled = ((Compilable) engine.engine).compile(instrumented);
+                engine.execution.compiled(System.nanoTime() - start);
+                return compiled.eval(context);
+            }
+        });
+    }
+
+    /**
+     * Executes the given scriptFile with no target on a background thread.
+     *
+     * @param scriptFile the file to execute.
+     * @return a future completed with the result of the script.
+     */
+    public CompletableFuture<Object> executeScriptAsync(File scriptFile) {
+        return executeScriptAsync(scriptFile, null, null);
+    }
+
+    /**
+     * Executes the given scriptFile with the given target on a background thread.
+     *
+     * @param scriptFile the file to execute.
+     * @param target the target of the script which is used to replace the string '%t' and is added in the global scope
+     *               as variable 'target'
+     * @return a future completed with the result of the script.
+     */
+    public CompletableFuture<Object> executeScriptAsync(File scriptFile, String target) {
+        return executeScriptAsync(scriptFile, target, null);
+    }
+
+    /**
+     * Executes the given scriptFile with the specified target on a background thread and messages the given executor
+     * if anything goes wrong.  Scripts run on the engines not kept for the main thread, so up to one less than
+     * {@link #getEnginePoolSize()} of them run at the same time, and never hold up the main thread.
+     *
+     * @param scriptFile the file to execute.
+     * @param target the target of the script which is used to replace the string '%t' and is added in the global scope
+     *               as variable 'target'
+     * @param executor the executor to notify of errors.
+     * @return a future completed with the result of the script.
+     */
+    public CompletableFuture<Object> executeScriptAsync(final File scriptFile, final String target,
+                                                        final ScriptExecutor executor) {
+        return CompletableFuture.supplyAsync(new Supplier<Object>() {
+            @Override
+            public Object get() {
+                return executeScript(scriptFile, target, executor);
+            }
+        }, getAsyncExecutor());
+    }
+
+    /**
+     * Executes the given script string (literal javascript) with no target on a background thread.
+     *
+     * @param script The literal javascript to execute.
+     * @param source The source of the script.  This can be anything except null.  It is what will show up if errors
+     *               occur.
+     * @return a future completed with the result of the script.
+     */
+    public CompletableFuture<Object> executeScriptAsync(String script, String source) {
+        return executeScriptAsync(script, source, null, null);
+    }
+
+    /**
+     * Executes the given script string (literal javascript) with the specified target on a background thread and
+     * messages the given executor if anything goes wrong.  Scripts run on the engines not kept for the main thread, so
+     * up to one less than {@link #getEnginePoolSize()} of them run at the same time, and never hold up the main
+     * thread.
+     *
+     * @param script The literal javascript to execute.
+     * @param source The source of the script.  This can be anything except null.  It is what will show up if errors
+     *               occur.
+     * @param target the target of the script which is used to replace the string '%t' and is added in the global scope
+     *               as variable 'target'
+     * @param executor the executor to notify of errors.
+     * @return a future completed with the result of the script.
+     */
+    public CompletableFuture<Object> executeScriptAsync(final String script, final String source, final String target,
+                                                        final ScriptExecutor executor) {
+        return CompletableFuture.supplyAsync(new Supplier<Object>() {
+            @Override
+            public Object get() {
+                return executeScript(script, source, target, executor);
+            }
+        }, getAsyncExecutor());
+    }
+
+    private synchronized Executor getAsyncExecutor() {
+        if (asyncExecutor == null) {
+            int threads = getAsyncThreads();
+            asyncExecutor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Buscript script worker " + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            asyncExecutor.allowCoreThreadTimeOut(true);
+        }
+        return asyncExecutor;
+    }
+
+    /**
+     * Stops the background threads used for asynchronous script execution once every queued script has run.
+     */
+    synchronized void shutdownAsyncExecutor() {
+        if (asyncExecutor != null) {
+            asyncExecutor.shutdown();
+            asyncExecutor = null;
+        }
+    }
+
+    void stopWatchdog() {
+        watchdog.stop();
     }
 
     Object runScript(String script, ScriptExecutor executor) {
-        setup();
+        return executeScript(script, null, null, executor);
+    }
+
+    /**
+     * Executes the cached source of the given script file with the specified target and messages the given executor
+     * if anything goes wrong.  The source is compiled once for each script engine and only compiled again after the
+     * script cache has been cleared.
+     *
+     * @param fileName the script file name as used for {@link #getCachedScript(String)}.
+     * @param target the target of the script which is used to replace the string '%t' and is added in the global scope
+     *               as variable 'target'
+     * @param variables additional variables that only this execution of the script can see.  May be null.
+     * @param executor the executor to notify of errors.
+     */
+    Object executeCachedScript(String fileName, String target, Map<String, Object> variables,
+                               ScriptExecutor executor) {
+        return executeCachedScript(fileName, null, target, variables, executor);
+    }
+
+    /**
+     * Executes the cached source of the given script file for an event.  The execution is also recorded in the
+     * statistics of the event class.
+     *
+     * @param fileName the script file name as used for {@link #getCachedScript(String)}.
+     * @param eventClass the class of the event the script runs for or null.
+     * @param target the target of the script.
+     * @param variables additional variables that only this execution of the script can see.  May be null.
+     * @param executor the executor to notify of errors.
+     * @see #executeCachedScript(String, String, Map, ScriptExecutor)
+     */
+    Object executeCachedScript(final String fileName, Class<?> eventClass, String target,
+                               Map<String, Object> variables, ScriptExecutor executor) {
+        return execute(fileName, eventClass, target, variables, executor, new Evaluation() {
+            @Override
+            public Object eval(ScriptEnginePool.PooledEngine engine, ScriptContext context, boolean guarded)
+                    throws ScriptException {
+                CompiledScript compiled = getCompiledSource(engine, fileName, guarded);
+                if (compiled != null) {
+                    return compiled.eval(context);
+                }
+                // Not compilable, so the error is reported when the source is run.
+                return engine.engine.eval(instrument(getCachedScript(fileName), guarded), context);
+            }
+        });
+    }
+
+    /**
+     * Evaluates a script in the context of an execution on an engine leased by the current thread.
+     */
+    private interface Evaluation {
+
+        /**
+         * @param guarded whether a time budget applies, so the script must be compiled with watchdog checks in its
+         *                loops.
+         */
+        Object eval(ScriptEnginePool.PooledEngine engine, ScriptContext context, boolean guarded)
+                throws ScriptException, IOException;
+    }
+
+    private Object execute(String source, Class<?> eventClass, String target, Map<String, Object> variables,
+                           ScriptExecutor executor, Evaluation evaluation) {
+        ScriptEnginePool.PooledEngine engine = leaseEngine(executor);
+        if (engine == null) {
+            return null;
+        }
+        ScriptExecution execution = new ScriptExecution(engine.execution, target, engine.engine.getContext());
+        engine.execution = execution;
+        // Scripts started from within a script run within the time budget of the outermost one.
+        boolean armed = watchdog.arm(engine.guard, source, getScriptTimeBudget(source),
+                engine != enginePool.getPrimary());
+        boolean failed = true;
+        long start = System.nanoTime();
         try {
-            return scriptEngine.eval(script);
-        } catch (ScriptException e) {
-            getLogger().warning("Error running script: " + e.getMessage());
-            if (executor != null) {
-                executor.sendMessage("Error running script: " + e.getMessage());
+            setup(execution, variables);
+            Object result = evaluation.eval(engine, execution, engine.guard.isArmed());
+            failed = false;
+            return result;
+        } catch (ScriptException | IOException e) {
+            // A script interrupted while it waited fails with whatever the wait throws.
+            reportScriptError(armed && engine.guard.isExpired()
+                    ? new ScriptTimeoutException(source, getScriptTimeBudget(source)) : e, executor);
+            return null;
+        } catch (ScriptTimeoutException e) {
+            if (!armed) {
+                throw e;
+            }
+            reportScriptError(e, executor);
+            return null;
+        } catch (RuntimeException e) {
+            if (!armed || !engine.guard.isExpired()) {
+                throw e;
             }
+            reportScriptError(new ScriptTimeoutException(source, getScriptTimeBudget(source)), executor);
             return null;
+        } finally {
+            long time = System.nanoTime() - start;
+            if (armed) {
+                engine.guard.finish();
+            }
+            engine.execution = execution.parent;
+            enginePool.release(engine);
+            metrics.record(source, eventClass, execution.compileTime,
+                    time - Math.max(execution.compileTime, 0L), failed);
         }
     }
 
-    Object runScript(File script, ScriptExecutor executor) {
-        setup();
-        try (Reader reader = new FileReader(script)){
-            return scriptEngine.eval(reader);
-        } catch (ScriptException | IOException e) {
-            getLogger().warning("Error running script: " + e.getMessage());
-            if (executor != null) {
-                executor.sendMessage("Error running script: " + e.getMessage());
-            }
+    /**
+     * Adds watchdog checks to the loops of a script if a time budget applies to it.  Scripts without a budget are run
+     * as they are, so they never depend on the loop instrumentation.
+     */
+    private static String instrument(String source, boolean guarded) {
+        return guarded ? LoopInstrumenter.instrument(source) : source;
+    }
+
+    private CompiledScript getCompiledSource(ScriptEnginePool.PooledEngine engine, String fileName, boolean guarded) {
+        if (!(engine.engine instanceof Compilable)) {
+            return null;
+        }
+        // Looking the source up keeps it recently used in the script cache and tells whether it was reloaded.
+        String source = getCachedScript(fileName);
+        ScriptEnginePool.CompiledSource compiled = engine.compiledSources.get(fileName);
+        if (compiled != null && compiled.source == source && compiled.guarded == guarded) {
+            return compiled.script;
+        }
+        CompiledScript script;
+        long start = System.nanoTime();
+        try {
+            script = ((Compilable) engine.engine).compile(instrument(source, guarded));
+        } catch (ScriptException e) {
+            getLogger().warning("Error compiling script '" + fileName + "': " + e.getMessage());
+            script = null;
+        }
+        engine.execution.compiled(System.nanoTime() - start);
+        engine.compiledSources.put(fileName, new ScriptEnginePool.CompiledSource(source, guarded, script));
+        return script;
+    }
+
+    private ScriptEnginePool.PooledEngine leaseEngine(ScriptExecutor executor) {
+        ScriptEnginePool.PooledEngine engine;
+        try {
+            engine = enginePool.lease();
+        } catch (ScriptException e) {
+            reportScriptError(e, executor);
             return null;
         }
+        int generation = scriptCacheGeneration.get();
+        if (engine.cacheGeneration != generation) {
+            // The script cache was cleared since this engine last ran, so its compiled scripts are stale too.
+            engine.cacheGeneration = generation;
+            engine.compiledSources.clear();
+            if (engine.compiledScriptCache != null) {
+                engine.compiledScriptCache.clear();
+            }
+        }
+        return engine;
+    }
+
+    private void reportScriptError(Exception e, ScriptExecutor executor) {
+        getLogger().warning("Error running script: " + e.getMessage());
+        if (executor != null) {
+            executor.sendMessage("Error running script: " + e.getMessage());
+        }
     }
 
-    private void setup() {
-        if (delayedReplacements != null) {
-            for (Map<String, Object> replacement : delayedReplacements) {
+    private void setup(ScriptExecution execution, Map<String, Object> variables) {
+        Bindings bindings = execution.getBindings(ScriptContext.GLOBAL_SCOPE);
+        if (execution.delayedReplacements != null) {
+            for (Map<String, Object> replacement : execution.delayedReplacements) {
                 Object var = replacement.get("var");
                 Object replace = replacement.get("replace");
                 if (var != null) {
                     if (replace == null) {
                         replace = NULL;
                     }
-                    setScriptVariable(var.toString(), replace);
+                    bindings.put(var.toString(), replace);
                 }
             }
         } else {
@@ -429,41 +882,255 @@ public class ScriptManager {
                     if (replace == null) {
                         replace = NULL;
                     }
-                    setScriptVariable(var, replace);
+                    bindings.put(var, replace);
                 }
             }
         }
-        setScriptVariable("metaData", metaData);
+        bindings.put("metaData", execution.metaData);
+        if (variables != null) {
+            bindings.putAll(variables);
+        }
+        // A script that assigned one of these without declaring it left it in the engine scope, where the engine would
+        // find it before asking the context.
+        Bindings engineBindings = execution.getBindings(ScriptContext.ENGINE_SCOPE);
+        for (String name : bindings.keySet()) {
+            engineBindings.remove(name);
+        }
     }
 
-    void cacheScript(String fileName) {
-        File file = new File(fileName);
-        if (!file.exists()) {
-            try {
-                file.createNewFile();
-            } catch (IOException e) {
-                getLogger().warning(e.getMessage());
-                return;
-            }
+    /**
+     * Brings everything cached for the given script file up to date after it changed on disk.  If its source is
+     * cached it is read again right away and scripts compiled from the file are discarded.
+     *
+     * @param file the script file that changed, was created or was deleted.
+     */
+    void scriptChanged(File file) {
+        List<String> evicted = new ArrayList<String>(0);
+        // The new source is in place before engines discard what they compiled, so they never compile it again from
+        // the old source.
+        List<String> keys = new ArrayList<String>(scriptCache.reload(file, evicted));
+        keys.add(ScriptSourceCache.canonicalPath(file));
+        enginePool.invalidate(keys);
+        if (!evicted.isEmpty()) {
+            enginePool.invalidate(evicted);
         }
+    }
 
-        scriptCache.put(fileName, FileTools.readFileAsString(file, getLogger()));
+    /**
+     * Starts watching the script folder so that scripts are reloaded in the background whenever they change on disk,
+     * instead of only when {@link #clearScriptCache()} is called.  Only the scripts that changed are reloaded.
+     */
+    public synchronized void startWatchingScripts() {
+        if (scriptWatcher != null) {
+            return;
+        }
+        try {
+            scriptWatcher = new ScriptFolderWatcher(this, getScriptFolder().getAbsoluteFile().toPath(), getLogger());
+        } catch (IOException e) {
+            getLogger().warning("Could not watch script folder '" + getScriptFolder() + "': " + e.getMessage());
+            return;
+        }
+        scriptWatcher.start();
+    }
+
+    /**
+     * Stops watching the script folder for changes.
+     */
+    public synchronized void stopWatchingScripts() {
+        if (scriptWatcher != null) {
+            scriptWatcher.stop();
+            scriptWatcher = null;
+        }
+    }
+
+    /**
+     * Whether the script folder is watched so that changed scripts are reloaded automatically.
+     *
+     * @return true if the script folder is watched.
+     */
+    public synchronized boolean isWatchingScripts() {
+        return scriptWatcher != null;
     }
 
     String getCachedScript(String fileName) {
-        String cached = scriptCache.get(fileName);
-        if (cached == null) {
-            cacheScript(fileName);
-            cached = scriptCache.get(fileName);
+        String source = scriptCache.getIfCached(fileName);
+        if (source != null) {
+            return source;
+        }
+        List<String> evicted = new ArrayList<String>(0);
+        source = scriptCache.get(fileName, evicted);
+        if (!evicted.isEmpty()) {
+            enginePool.invalidate(evicted);
+        }
+        return source;
+    }
+
+    /**
+     * Gets the statistics of the script cache, which holds the source of scripts bound to events.
+     *
+     * @return a snapshot of the script cache statistics.
+     */
+    public ScriptCacheStats getScriptCacheStats() {
+        return scriptCache.getStats();
+    }
+
+    /**
+     * Gets the approximate memory in bytes the script cache may take up before the least recently used scripts are
+     * evicted.
+     *
+     * @return the maximum weight of the script cache in bytes.
+     */
+    public long getScriptCacheMaxWeight() {
+        return scriptCache.getMaxWeight();
+    }
+
+    /**
+     * Sets the approximate memory in bytes the script cache may take up before the least recently used scripts are
+     * evicted.
+     *
+     * @param maxWeight the maximum weight of the script cache in bytes.
+     */
+    public void setScriptCacheMaxWeight(long maxWeight) {
+        List<String> evicted = new ArrayList<String>();
+        scriptCache.setMaxWeight(maxWeight, evicted);
+        if (!evicted.isEmpty()) {
+            enginePool.invalidate(evicted);
         }
-        return cached != null ? cached : "";
+    }
+
+    /**
+     * Gets a counter that changes every time the script cache is cleared.  Holders of scripts compiled from the cache
+     * should compile them again once this changes.
+     *
+     * @return the current generation of the script cache.
+     */
+    int getScriptCacheGeneration() {
+        return scriptCacheGeneration.get();
     }
 
     /**
      * Clears scripts that have been cached so that they may be reloaded from the disk.  Scripts are typically cached
-     * when set bound to an event.
+     * when set bound to an event.  Script files that were compiled for execution are also discarded.
      */
     public void clearScriptCache() {
         scriptCache.clear();
+        scriptCacheGeneration.incrementAndGet();
+    }
+
+    /**
+     * Gets the number of script file executions that reused an already compiled script.
+     *
+     * @return the number of compiled script cache hits.
+     */
+    public long getCompiledScriptCacheHits() {
+        return enginePool.getCompiledScriptCacheStats()[0];
+    }
+
+    /**
+     * Gets the number of script file executions that had to compile the script file, either because it was not
+     * cached yet or because it changed on disk.
+     *
+     * @return the number of compiled script cache misses.
+     */
+    public long getCompiledScriptCacheMisses() {
+        return enginePool.getCompiledScriptCacheStats()[1];
+    }
+
+    /**
+     * Gets the default time in milliseconds a script may run before it is aborted.
+     *
+     * @return the default script time budget in milliseconds, 0 if scripts may run for as long as they like.
+     */
+    public long getScriptTimeBudget() {
+        return scriptTimeBudget;
+    }
+
+    /**
+     * Sets the default time in milliseconds a script may run before it is aborted.  There is no default budget unless
+     * one is set.  A script that runs out of time is aborted at its next loop iteration, or when it waits on
+     * something, and the error is reported to the logger and the executor of the script.  Only scripts that run with
+     * a budget get the checks in their loops, so functions declared by a script that ran without one can not be
+     * aborted while they loop.  Scripts started from within a script count towards the budget of the outermost one.
+     *
+     * @param budget the default script time budget in milliseconds, 0 to let scripts run for as long as they like.
+     */
+    public void setScriptTimeBudget(long budget) {
+        scriptTimeBudget = Math.max(budget, 0L);
+    }
+
+    /**
+     * Gets the time in milliseconds the given script may run before it is aborted.
+     *
+     * @param source the path of the script file, the source name of the script string or the name of the script
+     *               function, as shown in the script statistics.
+     * @return the time budget of the script in milliseconds, 0 if it may run for as long as it likes.
+     */
+    public long getScriptTimeBudget(String source) {
+        if (!scriptTimeBudgets.isEmpty() && source != null) {
+            Long budget = scriptTimeBudgets.get(source);
+            if (budget != null) {
+                return budget;
+            }
+        }
+        return scriptTimeBudget;
+    }
+
+    /**
+     * Overrides the default time budget for a script that is known to run for a long time.
+     *
+     * @param source the path of the script file, the source name of the script string or the name of the script
+     *               function, as shown in the script statistics.
+     * @param budget the time budget of the script in milliseconds, 0 to let it run for as long as it likes.
+     */
+    public void setScriptTimeBudget(String source, long budget) {
+        scriptTimeBudgets.put(source, Math.max(budget, 0L));
+    }
+
+    /**
+     * Removes the time budget override of a script so that the default time budget applies to it again.
+     *
+     * @param source the path of the script file, the source name of the script string or the name of the script
+     *               function.
+     */
+    public void removeScriptTimeBudget(String source) {
+        scriptTimeBudgets.remove(source);
+    }
+
+    /**
+     * Gets the execution statistics of every script that ran since the statistics were last reset, most time
+     * consuming first.  Script files are listed by their path and script strings by their source name.  Once
+     * 256 scripts are listed, any further scripts are counted together under the name {@code <other>}.
+     *
+     * @return a snapshot of the statistics of each script.
+     */
+    public List<ScriptStats> getScriptStats() {
+        return metrics.getScriptStats();
+    }
+
+    /**
+     * Gets the execution statistics of a single script.
+     *
+     * @param source the path of the script file or the source name of the script string.
+     * @return a snapshot of the statistics of the script or null if it did not run since the statistics were reset or
+     *         is counted among the other scripts.
+     */
+    public ScriptStats getScriptStats(String source) {
+        return metrics.getScriptStats(source);
+    }
+
+    /**
+     * Gets the execution statistics of the scripts bound to each event class, most time consuming first.
+     *
+     * @return a snapshot of the statistics of each event class.
+     */
+    public List<ScriptStats> getEventStats() {
+        return metrics.getEventStats();
+    }
+
+    /**
+     * Discards all script execution statistics.
+     */
+    public void resetScriptStats() {
+        metrics.reset();
     }
 }
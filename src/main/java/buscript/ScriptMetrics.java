@@ -0,0 +1,185 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package buscript;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * Records how often and how long scripts run, per script source and per event class.
+ * <p>Recording does not lock, so scripts may be recorded from any thread.  Snapshots taken while scripts are being
+ * recorded may be off by the executions in progress.  At most {@link #MAX_RECORDERS} sources and event classes are
+ * tracked each, so that source names built per player or per command do not grow the statistics without bound.
+ * Any others are recorded together under {@link #OTHER}.</p>
+ */
+class ScriptMetrics {
+
+    /** The number of sources, and of event classes, that are tracked separately. */
+    static final int MAX_RECORDERS = 256;
+    /** The name the sources and event classes beyond {@link #MAX_RECORDERS} are recorded under. */
+    static final String OTHER = "<other>";
+
+    private static final LatencyHistogram EMPTY = new LatencyHistogram(new long[LatencyHistogram.BUCKETS], 0L, 0L, 0L);
+
+    /** Orders statistics by the total time spent in them, most first. */
+    static final Comparator<ScriptStats> BY_TOTAL_TIME = new Comparator<ScriptStats>() {
+        @Override
+        public int compare(ScriptStats a, ScriptStats b) {
+            long timeA = a.getEvalLatency().getTotalTime() + a.getCompileLatency().getTotalTime();
+            long timeB = b.getEvalLatency().getTotalTime() + b.getCompileLatency().getTotalTime();
+            return timeA > timeB ? -1 : (timeA == timeB ? a.getName().compareTo(b.getName()) : 1);
+        }
+    };
+
+    private static final LongBinaryOperator MAX = new LongBinaryOperator() {
+        @Override
+        public long applyAsLong(long a, long b) {
+            return Math.max(a, b);
+        }
+    };
+
+    /**
+     * Records latencies into a histogram without locking.
+     */
+    static final class LatencyRecorder {
+
+        private final AtomicLongArray counts = new AtomicLongArray(LatencyHistogram.BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalTime = new LongAdder();
+        private final LongAccumulator maxTime = new LongAccumulator(MAX, 0L);
+
+        void record(long time) {
+            counts.incrementAndGet(LatencyHistogram.bucket(time));
+            count.increment();
+            totalTime.add(time);
+            maxTime.accumulate(time);
+        }
+
+        LatencyHistogram snapshot() {
+            long[] snapshot = new long[counts.length()];
+            for (int i = 0; i < snapshot.length; i++) {
+                snapshot[i] = counts.get(i);
+            }
+            return new LatencyHistogram(snapshot, count.sum(), totalTime.sum(), maxTime.get());
+        }
+    }
+
+    private static final class Recorder {
+
+        private final String name;
+        private final LongAdder executions = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        /** Only created once the source is compiled, since most executions run an already compiled script. */
+        private volatile LatencyRecorder compileLatency = null;
+        private final LatencyRecorder evalLatency = new LatencyRecorder();
+
+        private Recorder(String name) {
+            this.name = name;
+        }
+
+        private void record(long compileTime, long evalTime, boolean failed) {
+            executions.increment();
+            if (failed) {
+                errors.increment();
+            }
+            if (compileTime >= 0) {
+                compileLatency().record(compileTime);
+            }
+            evalLatency.record(evalTime);
+        }
+
+        private LatencyRecorder compileLatency() {
+            LatencyRecorder recorder = compileLatency;
+            if (recorder == null) {
+                synchronized (this) {
+                    recorder = compileLatency;
+                    if (recorder == null) {
+                        recorder = new LatencyRecorder();
+                        compileLatency = recorder;
+                    }
+                }
+            }
+            return recorder;
+        }
+
+        private ScriptStats snapshot() {
+            LatencyRecorder compiled = compileLatency;
+            return new ScriptStats(name, executions.sum(), errors.sum(), compiled != null ? compiled.snapshot() : EMPTY,
+                    evalLatency.snapshot());
+        }
+    }
+
+    private final ConcurrentMap<String, Recorder> scripts = new ConcurrentHashMap<String, Recorder>();
+    private final ConcurrentMap<String, Recorder> events = new ConcurrentHashMap<String, Recorder>();
+
+    /**
+     * Records an execution of a script.
+     *
+     * @param source the script file or source name.
+     * @param eventClass the class of the event the script ran for or null.
+     * @param compileTime the nanoseconds spent compiling or -1 if nothing was compiled.
+     * @param evalTime the nanoseconds spent running the script.
+     * @param failed whether the execution failed with an error.
+     */
+    void record(String source, Class<?> eventClass, long compileTime, long evalTime, boolean failed) {
+        recorder(scripts, source).record(compileTime, evalTime, failed);
+        if (eventClass != null) {
+            recorder(events, eventClass.getName()).record(compileTime, evalTime, failed);
+        }
+    }
+
+    private static Recorder recorder(ConcurrentMap<String, Recorder> recorders, String name) {
+        Recorder recorder = recorders.get(name);
+        if (recorder == null) {
+            if (recorders.size() >= MAX_RECORDERS) {
+                name = OTHER;
+                recorder = recorders.get(name);
+                if (recorder != null) {
+                    return recorder;
+                }
+            }
+            recorder = new Recorder(name);
+            Recorder existing = recorders.putIfAbsent(name, recorder);
+            if (existing != null) {
+                recorder = existing;
+            }
+        }
+        return recorder;
+    }
+
+    List<ScriptStats> getScriptStats() {
+        return snapshot(scripts);
+    }
+
+    ScriptStats getScriptStats(String source) {
+        Recorder recorder = scripts.get(source);
+        return recorder != null ? recorder.snapshot() : null;
+    }
+
+    List<ScriptStats> getEventStats() {
+        return snapshot(events);
+    }
+
+    private static List<ScriptStats> snapshot(ConcurrentMap<String, Recorder> recorders) {
+        List<ScriptStats> stats = new ArrayList<ScriptStats>(recorders.size());
+        for (Recorder recorder : recorders.values()) {
+            stats.add(recorder.snapshot());
+        }
+        Collections.sort(stats, BY_TOTAL_TIME);
+        return stats;
+    }
+
+    void reset() {
+        scripts.clear();
+        events.clear();
+    }
+}
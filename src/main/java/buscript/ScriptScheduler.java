@@ -0,0 +1,359 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package buscript;
+
+import buscript.util.LongObjectMap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of scheduled scripts ordered by the time they are due so that checking for due scripts only touches
+ * the scripts that are actually due.  Scripts are also indexed by id, target and script file, so cancelling a
+ * script or all scripts of a target or file only touches the scripts cancelled.
+ * <p>Equal targets, file paths, replacements and meta data are shared between scheduled scripts through
+ * {@link SharedValues}, so a scheduled script costs little more than its id and due time.  Its replacements and meta
+ * data are immutable once it is scheduled.</p>
+ * <p>Cleared scripts are only flagged as cancelled and are skipped once they reach the head of the queue.  The queue
+ * is rebuilt when cancelled scripts make up most of it.</p>
+ * <p>A due script stays scheduled until it ran: {@link #pollDue(long)} only takes it out of the queue, so it can still
+ * be cancelled or cleared while it waits to run.  Once it ran, a script that runs once is removed with
+ * {@link #finish(ScheduledScript)} and a recurring script is put back for its next run with
+ * {@link #advance(ScheduledScript, long)}, unless it was cleared in the meantime.</p>
+ */
+class ScriptScheduler {
+
+    private static final Comparator<ScheduledScript> DUE_ORDER = new Comparator<ScheduledScript>() {
+        @Override
+        public int compare(ScheduledScript a, ScheduledScript b) {
+            if (a.time != b.time) {
+                return a.time < b.time ? -1 : 1;
+            }
+            return a.id < b.id ? -1 : (a.id == b.id ? 0 : 1);
+        }
+    };
+
+    private PriorityQueue<ScheduledScript> queue = new PriorityQueue<ScheduledScript>(16, DUE_ORDER);
+    private final Map<String, Set<ScheduledScript>> byTarget = new LinkedHashMap<String, Set<ScheduledScript>>();
+    private final Map<String, Set<ScheduledScript>> byFile = new HashMap<String, Set<ScheduledScript>>();
+    private final LongObjectMap<ScheduledScript> byId = new LongObjectMap<ScheduledScript>();
+    private final SharedValues shared = new SharedValues();
+
+    /** The next id to hand out.  Ids may be taken from any thread, everything else is main thread only. */
+    private final AtomicLong nextId = new AtomicLong();
+    private int size = 0;
+    /** Whether due times changed in place and the queue has to be rebuilt before it is used. */
+    private boolean reorder = false;
+
+    /**
+     * Schedules a script file to be run for the given target.
+     *
+     * @param target the target of the script.
+     * @param file the path of the script file.
+     * @param time the time in milliseconds at which the script is due.
+     * @param replacements the string replacements the script should run with.
+     * @param metaData the meta data the script should run with.
+     * @return the scheduled script.
+     */
+    ScheduledScript schedule(String target, String file, long time, List<Map<String, Object>> replacements,
+                             Map<String, Object> metaData) {
+        return schedule(target, file, time, replacements, metaData, null);
+    }
+
+    /**
+     * Schedules a script file to be run for the given target, and to run again as given by the recurrence.
+     *
+     * @param target the target of the script.
+     * @param file the path of the script file.
+     * @param time the time in milliseconds at which the script is first due.
+     * @param replacements the string replacements the script should run with.
+     * @param metaData the meta data the script should run with.
+     * @param recurrence when the script runs again or null to run it once.
+     * @return the scheduled script.
+     */
+    ScheduledScript schedule(String target, String file, long time, List<Map<String, Object>> replacements,
+                             Map<String, Object> metaData, Recurrence recurrence) {
+        ScheduledScript script = new ScheduledScript(nextId.getAndIncrement(), shared.share(target),
+                shared.share(file), time, shared.shareReplacements(replacements), shared.shareMetaData(metaData),
+                recurrence);
+        add(script);
+        return script;
+    }
+
+    /**
+     * Adds a previously scheduled script back under its original id, such as when loading saved scripts.  The
+     * scheduler keeps a copy of the script that shares its values with the other scheduled scripts, unless it already
+     * does.
+     *
+     * @param script the script to add.
+     * @return false if a script with the same id is already scheduled.
+     */
+    boolean restore(ScheduledScript script) {
+        if (byId.containsKey(script.id)) {
+            return false;
+        }
+        long next = nextId.get();
+        while (next <= script.id && !nextId.compareAndSet(next, script.id + 1)) {
+            next = nextId.get();
+        }
+        add(share(script));
+        return true;
+    }
+
+    private ScheduledScript share(ScheduledScript script) {
+        String target = shared.share(script.target);
+        String file = shared.share(script.file);
+        List<Map<String, Object>> replacements = shared.shareReplacements(script.replacements);
+        Map<String, Object> metaData = shared.shareMetaData(script.metaData);
+        if (target == script.target && file == script.file && replacements == script.replacements
+                && metaData == script.metaData) {
+            return script;
+        }
+        return new ScheduledScript(script.id, target, file, script.time, replacements, metaData, script.recurrence);
+    }
+
+    /**
+     * Takes an id for a script that is scheduled later with {@link #restore(ScheduledScript)}, so that the id can be
+     * handed out before the script is scheduled on the main thread.  May be called from any thread.
+     *
+     * @return a new script id.
+     */
+    long newId() {
+        return nextId.getAndIncrement();
+    }
+
+    private void add(ScheduledScript script) {
+        queue.add(script);
+        Set<ScheduledScript> targetScripts = byTarget.get(script.target);
+        if (targetScripts == null) {
+            targetScripts = new LinkedHashSet<ScheduledScript>();
+            byTarget.put(script.target, targetScripts);
+        }
+        targetScripts.add(script);
+        Set<ScheduledScript> fileScripts = byFile.get(script.file);
+        if (fileScripts == null) {
+            fileScripts = new HashSet<ScheduledScript>();
+            byFile.put(script.file, fileScripts);
+        }
+        fileScripts.add(script);
+        byId.put(script.id, script);
+        size++;
+    }
+
+    /**
+     * Removes a single scheduled script.
+     *
+     * @param id the id of the scheduled script.
+     * @return the removed script or null if no script with that id is scheduled.
+     */
+    ScheduledScript cancel(long id) {
+        ScheduledScript script = byId.remove(id);
+        if (script == null) {
+            return null;
+        }
+        script.cancelled = true;
+        unindex(byTarget, script.target, script);
+        unindex(byFile, script.file, script);
+        size--;
+        if (size < queue.size() / 2) {
+            compact();
+        }
+        return script;
+    }
+
+    private static void unindex(Map<String, Set<ScheduledScript>> index, String key, ScheduledScript script) {
+        Set<ScheduledScript> scripts = index.get(key);
+        scripts.remove(script);
+        if (scripts.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    /**
+     * Removes all scripts scheduled for the given target.
+     *
+     * @param target the target to remove scheduled scripts for.
+     * @return the removed scripts.
+     */
+    List<ScheduledScript> clear(String target) {
+        Set<ScheduledScript> targetScripts = byTarget.remove(target);
+        if (targetScripts == null) {
+            return Collections.emptyList();
+        }
+        for (ScheduledScript script : targetScripts) {
+            script.cancelled = true;
+            byId.remove(script.id);
+            unindex(byFile, script.file, script);
+        }
+        removed(targetScripts.size());
+        return new ArrayList<ScheduledScript>(targetScripts);
+    }
+
+    /**
+     * Removes all scripts scheduled to run the given script file, for any target.
+     *
+     * @param file the path of the script file to remove scheduled scripts for.
+     * @return the removed scripts.
+     */
+    List<ScheduledScript> clearFile(String file) {
+        Set<ScheduledScript> fileScripts = byFile.remove(file);
+        if (fileScripts == null) {
+            return Collections.emptyList();
+        }
+        for (ScheduledScript script : fileScripts) {
+            script.cancelled = true;
+            byId.remove(script.id);
+            unindex(byTarget, script.target, script);
+        }
+        removed(fileScripts.size());
+        return new ArrayList<ScheduledScript>(fileScripts);
+    }
+
+    private void removed(int count) {
+        size -= count;
+        if (size < queue.size() / 2) {
+            compact();
+        }
+    }
+
+    /**
+     * Moves a recurring script to its next due time, such as when replaying the journal.  The queue is only reordered
+     * once it is next used.
+     *
+     * @param id the id of the recurring script.
+     * @param time the time in milliseconds at which the script is next due.
+     * @return false if no script with that id is scheduled.
+     */
+    boolean restoreCursor(long id, long time) {
+        ScheduledScript script = byId.get(id);
+        if (script == null) {
+            return false;
+        }
+        script.time = time;
+        reorder = true;
+        return true;
+    }
+
+    /**
+     * Removes a script that runs once after it was taken by {@link #pollDue(long)} and ran or was dropped.
+     *
+     * @param script the script.
+     * @return true if the script was removed, false if it was cleared while it was out of the queue.
+     */
+    boolean finish(ScheduledScript script) {
+        if (script.cancelled) {
+            return false;
+        }
+        byId.remove(script.id);
+        unindex(byTarget, script.target, script);
+        unindex(byFile, script.file, script);
+        size--;
+        return true;
+    }
+
+    /**
+     * Puts a recurring script taken by {@link #pollDue(long)} back into the queue for its next run.
+     *
+     * @param script the recurring script.
+     * @param time the time in milliseconds at which the script is next due or {@link Long#MAX_VALUE} if it does not
+     *             run again, in which case it is removed.
+     * @return true if the script was put back, false if it was cleared while it was out of the queue or was removed.
+     */
+    boolean advance(ScheduledScript script, long time) {
+        if (script.cancelled) {
+            return false;
+        }
+        if (time == Long.MAX_VALUE) {
+            finish(script);
+            return false;
+        }
+        script.time = time;
+        queue.add(script);
+        return true;
+    }
+
+    private void compact() {
+        PriorityQueue<ScheduledScript> compacted = new PriorityQueue<ScheduledScript>(Math.max(16, size), DUE_ORDER);
+        for (ScheduledScript script : queue) {
+            if (!script.cancelled) {
+                compacted.add(script);
+            }
+        }
+        queue = compacted;
+        reorder = false;
+    }
+
+    /**
+     * Takes every script that is due at the given time out of the queue and returns them, in the order they are due.
+     * The scripts stay scheduled and have to be {@link #finish(ScheduledScript) finished} or
+     * {@link #advance(ScheduledScript, long) advanced} after they ran.
+     *
+     * @param now the current time in milliseconds.
+     * @return the due scripts or an empty list if none are due.
+     */
+    List<ScheduledScript> pollDue(long now) {
+        if (reorder) {
+            compact();
+        }
+        List<ScheduledScript> due = null;
+        ScheduledScript head;
+        while ((head = queue.peek()) != null && (head.cancelled || head.time <= now)) {
+            queue.poll();
+            if (head.cancelled) {
+                continue;
+            }
+            if (due == null) {
+                due = new ArrayList<ScheduledScript>();
+            }
+            due.add(head);
+        }
+        return due != null ? due : Collections.<ScheduledScript>emptyList();
+    }
+
+    /**
+     * Gets the time the next script is due.
+     *
+     * @return the time in milliseconds the next script is due or {@link Long#MAX_VALUE} if nothing is scheduled.
+     */
+    long nextDueTime() {
+        if (reorder) {
+            compact();
+        }
+        ScheduledScript head;
+        while ((head = queue.peek()) != null && head.cancelled) {
+            queue.poll();
+        }
+        return head != null ? head.time : Long.MAX_VALUE;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Creates a copy of all scheduled scripts, grouped by target in the order they were scheduled.  The scripts are
+     * copied too, so the list can be written on another thread.
+     *
+     * @return a list of all scheduled scripts.
+     */
+    List<ScheduledScript> snapshot() {
+        List<ScheduledScript> scripts = new ArrayList<ScheduledScript>(size);
+        for (Set<ScheduledScript> targetScripts : byTarget.values()) {
+            for (ScheduledScript script : targetScripts) {
+                scripts.add(script.copy());
+            }
+        }
+        return scripts;
+    }
+}
@@ -0,0 +1,287 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package buscript;
+
+import buscript.util.FileTools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * A bounded cache of script sources keyed by the file name they were requested with.
+ * <p>Entries are weighed by the memory their source takes up and the least recently used ones are evicted once the
+ * total weight goes over the maximum.  Cached sources are read without locking, so instead of reordering the entries
+ * on every read, a read only marks its entry.  Eviction goes through the entries oldest first and moves marked entries
+ * to the back rather than evicting them, which keeps recently read scripts much like a strict LRU order would.  A file
+ * that does not exist is cached as a negative entry so that it is not looked up on disk for every request.  Negative
+ * entries expire after a short while, as there is no guarantee that anyone reports the file being created.</p>
+ */
+class ScriptSourceCache {
+
+    /** The weight of an entry apart from its source, roughly the memory taken up by the entry itself. */
+    private static final int ENTRY_WEIGHT = 96;
+    /** Time in milliseconds after which a missing file is looked up on disk again. */
+    static final long NEGATIVE_ENTRY_TTL = 5000L;
+
+    private static final class Entry {
+
+        /** The source of the script or null if the file does not exist. */
+        private final String source;
+        private final String path;
+        private final long loaded;
+        private final long weight;
+        /** Whether the entry was read since eviction last passed over it. */
+        private volatile boolean accessed = false;
+
+        private Entry(String source, String path, long loaded) {
+            this.source = source;
+            this.path = path;
+            this.loaded = loaded;
+            weight = ENTRY_WEIGHT + (source != null ? source.length() * 2L : 0L);
+        }
+    }
+
+    private final Logger logger;
+    /** The entries in eviction order.  Only used while synchronized. */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>();
+    /** The same entries as {@link #entries}, for reads that do not lock. */
+    private final ConcurrentMap<String, Entry> lookup = new ConcurrentHashMap<String, Entry>();
+    private final Map<String, Set<String>> fileNamesByPath = new HashMap<String, Set<String>>();
+
+    private long maxWeight;
+    private long weight = 0;
+    /** Changes every time entries are reloaded or removed so that loads that started earlier are not cached. */
+    private long modifications = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private long misses = 0;
+    private long negativeHits = 0;
+    private long evictions = 0;
+    private long loads = 0;
+    private long loadTime = 0;
+
+    ScriptSourceCache(long maxWeight, Logger logger) {
+        this.maxWeight = maxWeight;
+        this.logger = logger;
+    }
+
+    /**
+     * Gets the source of the given script file if it is cached, without locking.
+     *
+     * @param fileName the name of the script file.
+     * @return the source of the script or null if it is not cached or the file does not exist.
+     */
+    String getIfCached(String fileName) {
+        Entry entry = lookup.get(fileName);
+        if (entry == null || entry.source == null) {
+            return null;
+        }
+        entry.accessed = true;
+        hits.increment();
+        return entry.source;
+    }
+
+    /**
+     * Gets the source of the given script file, reading it from disk if it is not cached.
+     *
+     * @param fileName the name of the script file.
+     * @param evicted receives the file names of entries evicted to make room for this one.
+     * @return the source of the script or an empty string if the file does not exist.
+     */
+    String get(String fileName, List<String> evicted) {
+        String source = getIfCached(fileName);
+        if (source != null) {
+            return source;
+        }
+        long modification;
+        boolean knownMissing;
+        synchronized (this) {
+            Entry entry = entries.get(fileName);
+            knownMissing = entry != null && entry.source == null;
+            if (entry != null) {
+                if (entry.source != null) {
+                    entry.accessed = true;
+                    hits.increment();
+                    return entry.source;
+                }
+                if (System.currentTimeMillis() - entry.loaded < NEGATIVE_ENTRY_TTL) {
+                    negativeHits++;
+                    return "";
+                }
+            }
+            misses++;
+            modification = modifications;
+        }
+        Entry entry = load(fileName);
+        synchronized (this) {
+            if (modification == modifications) {
+                put(fileName, entry, evicted);
+            }
+        }
+        if (entry.source == null && !knownMissing) {
+            logger.warning("Missing script file: " + fileName);
+        }
+        return entry.source != null ? entry.source : "";
+    }
+
+    private Entry load(String fileName) {
+        File file = new File(fileName);
+        long start = System.nanoTime();
+        String source = null;
+        if (file.isFile()) {
+            source = FileTools.readFileAsString(file, logger);
+        }
+        Entry entry = new Entry(source, canonicalPath(file), System.currentTimeMillis());
+        long time = System.nanoTime() - start;
+        synchronized (this) {
+            loads++;
+            loadTime += time;
+        }
+        return entry;
+    }
+
+    private void put(String fileName, Entry entry, List<String> evicted) {
+        remove(fileName);
+        if (entry.weight > maxWeight) {
+            return;
+        }
+        entries.put(fileName, entry);
+        lookup.put(fileName, entry);
+        weight += entry.weight;
+        Set<String> fileNames = fileNamesByPath.get(entry.path);
+        if (fileNames == null) {
+            fileNames = new HashSet<String>(2);
+            fileNamesByPath.put(entry.path, fileNames);
+        }
+        fileNames.add(fileName);
+        evict(evicted, fileName);
+    }
+
+    private Entry remove(String fileName) {
+        Entry entry = entries.remove(fileName);
+        lookup.remove(fileName);
+        if (entry != null) {
+            weight -= entry.weight;
+            Set<String> fileNames = fileNamesByPath.get(entry.path);
+            if (fileNames != null) {
+                fileNames.remove(fileName);
+                if (fileNames.isEmpty()) {
+                    fileNamesByPath.remove(entry.path);
+                }
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Evicts entries until the total weight is within the maximum.
+     *
+     * @param evicted receives the file names of the evicted entries.
+     * @param added the file name of the entry that was just added and should not be evicted, or null.
+     */
+    private void evict(List<String> evicted, String added) {
+        // Each entry gets at most one second chance per eviction, even if it is read again meanwhile.
+        int secondChances = entries.size();
+        while (weight > maxWeight && entries.size() > (added != null ? 1 : 0)) {
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            Map.Entry<String, Entry> eldest = it.next();
+            String fileName = eldest.getKey();
+            Entry entry = eldest.getValue();
+            it.remove();
+            if (fileName.equals(added) || entry.accessed && secondChances-- > 0) {
+                entry.accessed = false;
+                entries.put(fileName, entry);
+                continue;
+            }
+            lookup.remove(fileName);
+            weight -= entry.weight;
+            Set<String> fileNames = fileNamesByPath.get(entry.path);
+            if (fileNames != null) {
+                fileNames.remove(fileName);
+                if (fileNames.isEmpty()) {
+                    fileNamesByPath.remove(entry.path);
+                }
+            }
+            evictions++;
+            if (evicted != null) {
+                evicted.add(fileName);
+            }
+        }
+    }
+
+    /**
+     * Reads every entry for the given script file again after it changed on disk.
+     *
+     * @param file the script file that changed, was created or was deleted.
+     * @param evicted receives the file names of entries evicted to make room.
+     * @return the file names the script file was cached under.
+     */
+    List<String> reload(File file, List<String> evicted) {
+        String path = canonicalPath(file);
+        List<String> fileNames;
+        synchronized (this) {
+            Set<String> cached = fileNamesByPath.get(path);
+            if (cached == null) {
+                return Collections.emptyList();
+            }
+            fileNames = new ArrayList<String>(cached);
+            modifications++;
+        }
+        for (String fileName : fileNames) {
+            Entry entry = load(fileName);
+            synchronized (this) {
+                put(fileName, entry, evicted);
+            }
+        }
+        return fileNames;
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        lookup.clear();
+        fileNamesByPath.clear();
+        weight = 0;
+        modifications++;
+    }
+
+    synchronized long getMaxWeight() {
+        return maxWeight;
+    }
+
+    synchronized void setMaxWeight(long maxWeight, List<String> evicted) {
+        this.maxWeight = maxWeight;
+        evict(evicted, null);
+    }
+
+    /**
+     * Gets a snapshot of the statistics of this cache.
+     *
+     * @return the statistics of this cache.
+     */
+    synchronized ScriptCacheStats getStats() {
+        return new ScriptCacheStats(hits.sum(), negativeHits, misses, evictions, loads, loadTime, entries.size(),
+                weight, maxWeight);
+    }
+
+    static String canonicalPath(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package buscript;
+
+/**
+ * A snapshot of the execution statistics of a script source or of the scripts bound to an event class.
+ */
+public final class ScriptStats {
+
+    private final String name;
+    private final long executions;
+    private final long errors;
+    private final LatencyHistogram compileLatency;
+    private final LatencyHistogram evalLatency;
+
+    ScriptStats(String name, long executions, long errors, LatencyHistogram compileLatency,
+                LatencyHistogram evalLatency) {
+        this.name = name;
+        this.executions = executions;
+        this.errors = errors;
+        this.compileLatency = compileLatency;
+        this.evalLatency = evalLatency;
+    }
+
+    /**
+     * Gets the name of what these statistics are for: the script file or source name, or the event class name.
+     *
+     * @return the name of these statistics.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the number of times a script was executed.
+     *
+     * @return the number of executions.
+     */
+    public long getExecutions() {
+        return executions;
+    }
+
+    /**
+     * Gets the number of executions that failed with an error.
+     *
+     * @return the number of failed executions.
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * Gets the time spent compiling, recorded only for executions that had to compile the script.
+     *
+     * @return the compile latency histogram.
+     */
+    public LatencyHistogram getCompileLatency() {
+        return compileLatency;
+    }
+
+    /**
+     * Gets the time spent running the compiled script, recorded for every execution.
+     *
+     * @return the evaluation latency histogram.
+     */
+    public LatencyHistogram getEvalLatency() {
+        return evalLatency;
+    }
+
+    @Override
+    public String toString() {
+        return name + ": " + executions + " runs, " + errors + " errors, eval " + evalLatency + ", compile "
+                + compileLatency;
+    }
+}
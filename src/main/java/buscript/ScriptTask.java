@@ -7,115 +7,261 @@ import org.bukkit.plugin.Plugin;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Iterator;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Runs scheduled scripts when they are due.
+ * <p>Rather than polling, a single Bukkit task is armed for the tick closest to the time the next script is due, and
+ * armed again whenever the next due time changes.  Nothing runs while no scripts are scheduled.</p>
+ * <p>Due scripts are run in the order they are due, but only as many per tick as the budget allows.  The rest wait in
+ * a backlog for the following ticks, so a large batch of scripts coming due at once, such as after the server was
+ * down, is spread over several ticks.  Scripts in the backlog are still scheduled, so they are saved and can be
+ * cancelled until they run.  Scripts that are overdue by more than the catch-up age are handled by the
+ * {@link CatchUpPolicy} when they come due.  All methods other than the settings and {@link #getStats()} must be
+ * called on the main thread.</p>
+ */
 class ScriptTask implements Runnable {
 
+    /** The length of a server tick in milliseconds. */
+    static final long TICK_MILLIS = 50L;
+
+    /** The default number of scheduled scripts run per tick. */
+    static final int DEFAULT_TICK_SCRIPTS = 100;
+    /** The default time in milliseconds scheduled scripts may run for per tick. */
+    static final long DEFAULT_TICK_TIME = 25L;
+    /** The default time in milliseconds a script has to be overdue for the catch-up policy to apply. */
+    static final long DEFAULT_CATCH_UP_AGE = 60000L;
+
     private Buscript buscript;
     private Plugin plugin;
     private int id = -1;
+    /** The due time the task is armed for, or {@link Long#MIN_VALUE} if it is armed for the backlog. */
+    private long armedTime = Long.MAX_VALUE;
+    /** Due scripts waiting for budget to run. */
+    private final ArrayDeque<ScheduledScript> backlog = new ArrayDeque<ScheduledScript>();
+
+    private volatile int tickScripts = DEFAULT_TICK_SCRIPTS;
+    private volatile long tickTime = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TICK_TIME);
+    private volatile CatchUpPolicy catchUpPolicy = CatchUpPolicy.RUN_ALL;
+    private volatile long catchUpAge = DEFAULT_CATCH_UP_AGE;
+
+    private volatile int backlogSize = 0;
+    private volatile int maxBacklog = 0;
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private volatile ScriptMetrics.LatencyRecorder lag = new ScriptMetrics.LatencyRecorder();
 
     ScriptTask(Buscript buscript) {
         this.plugin = buscript.getPlugin();
         this.buscript = buscript;
     }
 
+    void setTickBudget(int scripts, long millis) {
+        if (scripts < 1 || millis < 1) {
+            throw new IllegalArgumentException("The per tick budget must allow at least 1 script and 1 ms");
+        }
+        tickScripts = scripts;
+        tickTime = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    int getTickScripts() {
+        return tickScripts;
+    }
+
+    long getTickTime() {
+        return TimeUnit.NANOSECONDS.toMillis(tickTime);
+    }
+
+    void setCatchUpPolicy(CatchUpPolicy policy, long age) {
+        if (policy == null) {
+            throw new IllegalArgumentException("policy must not be null");
+        }
+        catchUpPolicy = policy;
+        catchUpAge = Math.max(0L, age);
+    }
+
+    CatchUpPolicy getCatchUpPolicy() {
+        return catchUpPolicy;
+    }
+
+    long getCatchUpAge() {
+        return catchUpAge;
+    }
+
     void start() {
-        id = plugin.getServer().getScheduler().scheduleSyncRepeatingTask(plugin, this, 20L, 20L);
+        reschedule();
     }
 
     void kill() {
-        plugin.getServer().getScheduler().cancelTask(id);
+        if (id != -1) {
+            plugin.getServer().getScheduler().cancelTask(id);
+            id = -1;
+        }
+        armedTime = Long.MAX_VALUE;
+    }
+
+    /**
+     * Arms the task for the next due script, unless it already is.  Called whenever scripts are scheduled or cleared.
+     */
+    void reschedule() {
+        if (!buscript.runTasks) {
+            kill();
+            return;
+        }
+        if (!backlog.isEmpty()) {
+            if (armedTime != Long.MIN_VALUE) {
+                kill();
+                id = plugin.getServer().getScheduler().scheduleSyncDelayedTask(plugin, this, 1L);
+                armedTime = Long.MIN_VALUE;
+            }
+            return;
+        }
+        long next = buscript.scheduler.nextDueTime();
+        if (id != -1 && next == armedTime) {
+            return;
+        }
+        kill();
+        if (next == Long.MAX_VALUE) {
+            return;
+        }
+        long delay = Math.max(0L, next - System.currentTimeMillis());
+        // Rounded to the nearest tick, as that is as close as a Bukkit task gets.
+        id = plugin.getServer().getScheduler().scheduleSyncDelayedTask(plugin, this,
+                (delay + TICK_MILLIS / 2) / TICK_MILLIS);
+        armedTime = next;
     }
 
     @Override
     public void run() {
+        id = -1;
+        armedTime = Long.MAX_VALUE;
         if (!buscript.runTasks) {
-            kill();
             return;
         }
-        long time = System.currentTimeMillis();
-        Iterator<Map.Entry<String, List<Map<String, Object>>>> allScriptsIt = buscript.delayedScripts.entrySet().iterator();
-        while (allScriptsIt.hasNext()) {
-            final Map.Entry<String, List<Map<String, Object>>> entry = allScriptsIt.next();
-            boolean removed = false;
-            Iterator<Map<String, Object>> scriptsIt = entry.getValue().iterator();
-            while (scriptsIt.hasNext()) {
-                final Map<String, Object> script = scriptsIt.next();
-                if (script.get("time") != null) {
-                    try {
-                        long scriptTime = (Long) script.get("time");
-                        if (time >= scriptTime) {
-                            if (script.get("file") != null) {
-                                final File scriptFile = new File(script.get("file").toString());
-                                if (scriptFile.exists()) {
-                                    try {
-                                        final List<Map<String, Object>> replacements = (List<Map<String, Object>>) script.get("replacements");
-                                        final Map<String, Object> metaData = (Map<String, Object>) script.get("metaData");
-                                        buscript.getPlugin().getServer().getScheduler().scheduleSyncDelayedTask(plugin, new Runnable() {
-                                            @Override
-                                            public void run() {
-                                                buscript.executeDelayedScript(scriptFile, replacements, metaData);
-                                            }
-                                        });
-                                        scriptsIt.remove();
-                                        removed = true;
-                                    } catch (ClassCastException e) {
-                                        plugin.getLogger().warning("Invalid delayed script entry");
-                                        scriptsIt.remove();
-                                        removed = true;
-                                    }
-                                } else {
-                                    try {
-                                        scriptFile.createNewFile();
-                                    } catch (IOException ignore) { }
-                                    if (scriptFile.exists()) {
-                                        try {
-                                            final List<Map<String, Object>> replacements = (List<Map<String, Object>>) script.get("replacements");
-                                            final Map<String, Object> metaData = (Map<String, Object>) script.get("metaData");
-                                            buscript.getPlugin().getServer().getScheduler().scheduleSyncDelayedTask(plugin, new Runnable() {
-                                                @Override
-                                                public void run() {
-                                                    buscript.executeDelayedScript(scriptFile, replacements, metaData);
-                                                }
-                                            });
-                                            scriptsIt.remove();
-                                            removed = true;
-                                        } catch (ClassCastException e) {
-                                            scriptsIt.remove();
-                                            removed = true;
-                                            System.out.println("could not cast");
-                                        }
-                                    } else {
-                                        plugin.getLogger().warning("Missing script file: " + scriptFile);
-                                        scriptsIt.remove();
-                                        removed = true;
-                                    }
-                                }
-                            } else {
-                                plugin.getLogger().warning("Invalid delayed script entry");
-                                scriptsIt.remove();
-                                removed = true;
-                            }
-                        }
-                    } catch (NumberFormatException ignore) {
-                        plugin.getLogger().warning("Invalid delayed script entry");
-                        scriptsIt.remove();
-                        removed = true;
-                    }
+        long now = System.currentTimeMillis();
+        // Scripts due before the middle of the next tick are closer to now than to any later wakeup.
+        List<ScheduledScript> due = buscript.scheduler.pollDue(now + TICK_MILLIS / 2);
+        if (!due.isEmpty()) {
+            admit(due, now);
+        }
+        int budget = tickScripts;
+        long deadline = System.nanoTime() + tickTime;
+        ScheduledScript script;
+        while ((script = backlog.poll()) != null) {
+            backlogSize = backlog.size();
+            execute(script);
+            if (--budget <= 0 || System.nanoTime() - deadline >= 0) {
+                break;
+            }
+        }
+        reschedule();
+    }
+
+    /**
+     * Adds newly due scripts to the backlog, applying the catch-up policy to those that are overdue.
+     */
+    private void admit(List<ScheduledScript> due, long now) {
+        CatchUpPolicy policy = catchUpPolicy;
+        long overdue = now - catchUpAge;
+        int skipped = 0;
+        if (policy == CatchUpPolicy.RUN_LATEST) {
+            // The latest overdue run of each script file for each target.
+            Map<String, ScheduledScript> latest = new HashMap<String, ScheduledScript>();
+            for (ScheduledScript script : due) {
+                if (script.time < overdue) {
+                    latest.put(script.target + '\0' + script.file, script);
+                }
+            }
+            List<ScheduledScript> kept = new ArrayList<ScheduledScript>(due.size());
+            for (ScheduledScript script : due) {
+                if (script.time >= overdue || latest.get(script.target + '\0' + script.file) == script) {
+                    kept.add(script);
                 } else {
-                    plugin.getLogger().warning("Invalid delayed script entry");
-                    scriptsIt.remove();
-                    removed = true;
+                    drop(script);
+                    skipped++;
                 }
             }
-            if (removed) {
-                buscript.saveData();
+            due = kept;
+        } else if (policy == CatchUpPolicy.DROP) {
+            List<ScheduledScript> kept = new ArrayList<ScheduledScript>(due.size());
+            for (ScheduledScript script : due) {
+                if (script.time >= overdue) {
+                    kept.add(script);
+                } else {
+                    drop(script);
+                    skipped++;
+                }
             }
+            due = kept;
+        }
+        if (skipped > 0) {
+            plugin.getLogger().info("Skipped " + skipped + " overdue scheduled scripts");
+        }
+        backlog.addAll(due);
+        backlogSize = backlog.size();
+        if (backlogSize > maxBacklog) {
+            maxBacklog = backlogSize;
         }
     }
 
+    private void drop(ScheduledScript script) {
+        dropped.increment();
+        finish(script);
+    }
+
+    private void execute(ScheduledScript script) {
+        if (script.cancelled) {
+            // Cancelled or cleared while it waited to run.
+            return;
+        }
+        executions.increment();
+        lag.record(TimeUnit.MILLISECONDS.toNanos(Math.max(0L, System.currentTimeMillis() - script.time)));
+        File scriptFile = new File(script.file);
+        if (!scriptFile.exists()) {
+            try {
+                scriptFile.createNewFile();
+            } catch (IOException ignore) { }
+        }
+        if (scriptFile.exists()) {
+            buscript.executeDelayedScript(scriptFile, script.replacements, script.metaData);
+        } else {
+            plugin.getLogger().warning("Missing script file: " + scriptFile);
+        }
+        finish(script);
+    }
 
-}
\ No newline at end of file
+    /**
+     * Logs a script as fired, or schedules the next run of a recurring script and logs only its new due time.
+     */
+    private void finish(ScheduledScript script) {
+        if (script.recurrence == null) {
+            if (buscript.scheduler.finish(script)) {
+                buscript.logFired(script);
+            }
+        } else if (buscript.scheduler.advance(script,
+                script.recurrence.next(script.time, System.currentTimeMillis()))) {
+            buscript.logCursor(script);
+        } else if (!script.cancelled) {
+            // The recurrence has no next run.
+            buscript.logFired(script);
+        }
+    }
+
+    ScheduleStats getStats() {
+        return new ScheduleStats(buscript.scheduler.size(), backlogSize, maxBacklog, executions.sum(), dropped.sum(),
+                lag.snapshot());
+    }
+
+    void resetStats() {
+        maxBacklog = backlogSize;
+        executions.reset();
+        dropped.reset();
+        lag = new ScriptMetrics.LatencyRecorder();
+    }
+}
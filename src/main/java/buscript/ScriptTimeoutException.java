@@ -0,0 +1,37 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package buscript;
+
+/**
+ * Thrown out of a script that ran longer than its time budget in order to abort it.
+ */
+public class ScriptTimeoutException extends RuntimeException {
+
+    private final String source;
+    private final long budget;
+
+    public ScriptTimeoutException(String source, long budget) {
+        super("Script '" + source + "' was aborted after exceeding its time budget of " + budget + " ms");
+        this.source = source;
+        this.budget = budget;
+    }
+
+    /**
+     * Gets the script file or source name of the script that was aborted.
+     *
+     * @return the source of the aborted script.
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Gets the time budget the script exceeded.
+     *
+     * @return the time budget in milliseconds.
+     */
+    public long getBudget() {
+        return budget;
+    }
+}
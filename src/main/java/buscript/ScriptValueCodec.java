@@ -0,0 +1,254 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package buscript;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes the replacements and meta data of scheduled scripts for both the script data file and the schedule
+ * journal.
+ * <p>Each value is a type byte followed by the value.  Numbers are written as varints and strings as their UTF-8
+ * length and bytes, unless a subclass stores strings elsewhere, as the script data file does in its string table.
+ * Counts read back are never trusted to allocate more than a little up front, so corrupt data fails with an
+ * {@link IOException} rather than exhausting memory.</p>
+ */
+class ScriptValueCodec {
+
+    private static final int NULL_VALUE = 0;
+    private static final int STRING_VALUE = 1;
+    private static final int INT_VALUE = 2;
+    private static final int LONG_VALUE = 3;
+    private static final int DOUBLE_VALUE = 4;
+    private static final int TRUE_VALUE = 5;
+    private static final int FALSE_VALUE = 6;
+    private static final int LIST_VALUE = 7;
+    private static final int MAP_VALUE = 8;
+
+    static final int MAX_PRESIZE = 1024;
+    private static final int MAX_DEPTH = 64;
+
+    private byte[] buffer = new byte[64];
+
+    void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL_VALUE);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            int intValue = ((Number) value).intValue();
+            out.writeByte(INT_VALUE);
+            writeVarInt(out, (intValue << 1) ^ (intValue >> 31));
+        } else if (value instanceof Long) {
+            out.writeByte(LONG_VALUE);
+            writeVarLong(out, encodeZigZag((Long) value));
+        } else if (value instanceof Number) {
+            out.writeByte(DOUBLE_VALUE);
+            out.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? TRUE_VALUE : FALSE_VALUE);
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            out.writeByte(LIST_VALUE);
+            writeVarInt(out, list.size());
+            for (Object element : list) {
+                writeValue(out, element);
+            }
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeByte(MAP_VALUE);
+            writeVarInt(out, map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeString(out, String.valueOf(entry.getKey()));
+                writeValue(out, entry.getValue());
+            }
+        } else {
+            out.writeByte(STRING_VALUE);
+            writeString(out, value.toString());
+        }
+    }
+
+    Object readValue(DataInputStream in) throws IOException {
+        return readValue(in, 0);
+    }
+
+    private Object readValue(DataInputStream in, int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new IOException("Invalid script data: values nested too deeply");
+        }
+        int type = in.readUnsignedByte();
+        switch (type) {
+            case NULL_VALUE:
+                return null;
+            case STRING_VALUE:
+                return readString(in);
+            case INT_VALUE:
+                int zigZag = readVarInt(in);
+                return (zigZag >>> 1) ^ -(zigZag & 1);
+            case LONG_VALUE:
+                return decodeZigZag(readVarLong(in));
+            case DOUBLE_VALUE:
+                return in.readDouble();
+            case TRUE_VALUE:
+                return true;
+            case FALSE_VALUE:
+                return false;
+            case LIST_VALUE:
+                int length = readCount(in);
+                List<Object> list = new ArrayList<Object>(Math.min(length, MAX_PRESIZE));
+                for (int i = 0; i < length; i++) {
+                    list.add(readValue(in, depth + 1));
+                }
+                return list;
+            case MAP_VALUE:
+                int size = readCount(in);
+                Map<String, Object> map = new LinkedHashMap<String, Object>(Math.min(size, MAX_PRESIZE) * 4 / 3 + 1);
+                for (int i = 0; i < size; i++) {
+                    String key = readString(in);
+                    map.put(key, readValue(in, depth + 1));
+                }
+                return map;
+            default:
+                throw new IOException("Unknown script data value type " + type);
+        }
+    }
+
+    /**
+     * Reads replacements written by {@link #writeValue(DataOutputStream, Object)}.
+     *
+     * @param in the stream to read from.
+     * @return the replacements, which may be null.
+     * @throws IOException if the stream could not be read or does not hold replacements.
+     */
+    @SuppressWarnings("unchecked") // Checked element by element before the cast.
+    List<Map<String, Object>> readReplacements(DataInputStream in) throws IOException {
+        Object value = readValue(in);
+        if (value != null) {
+            if (!(value instanceof List)) {
+                throw new IOException("Invalid script data: replacements are not a list");
+            }
+            for (Object replacement : (List<?>) value) {
+                if (!(replacement instanceof Map)) {
+                    throw new IOException("Invalid script data: replacement is not a map");
+                }
+            }
+        }
+        return (List<Map<String, Object>>) value;
+    }
+
+    /**
+     * Reads meta data written by {@link #writeValue(DataOutputStream, Object)}.
+     *
+     * @param in the stream to read from.
+     * @return the meta data, which may be null.
+     * @throws IOException if the stream could not be read or does not hold meta data.
+     */
+    @SuppressWarnings("unchecked") // Maps are only ever read with string keys.
+    Map<String, Object> readMetaData(DataInputStream in) throws IOException {
+        Object value = readValue(in);
+        if (value != null && !(value instanceof Map)) {
+            throw new IOException("Invalid script data: meta data is not a map");
+        }
+        return (Map<String, Object>) value;
+    }
+
+    void writeString(DataOutputStream out, String string) throws IOException {
+        writeUtf8(out, string);
+    }
+
+    String readString(DataInputStream in) throws IOException {
+        return readUtf8(in);
+    }
+
+    final void writeUtf8(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    final String readUtf8(DataInputStream in) throws IOException {
+        int length = readCount(in);
+        // The buffer only grows as the bytes arrive, so a corrupt length runs into the end of the data.
+        int read = 0;
+        while (read < length) {
+            if (read == buffer.length) {
+                buffer = Arrays.copyOf(buffer, (int) Math.min(length, buffer.length * 2L));
+            }
+            int chunk = Math.min(length, buffer.length) - read;
+            in.readFully(buffer, read, chunk);
+            read += chunk;
+        }
+        return new String(buffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the number of strings, scripts, elements or bytes that follow.  Since the count may be corrupt, it should
+     * never be used to allocate more than {@link #MAX_PRESIZE} up front, so that a count larger than the data left
+     * runs into the end of the data instead of running out of memory.
+     *
+     * @param in the stream to read from.
+     * @return the count.
+     * @throws IOException if the stream could not be read or the count is negative.
+     */
+    static int readCount(DataInputStream in) throws IOException {
+        int count = readVarInt(in);
+        if (count < 0) {
+            throw new IOException("Invalid script data: negative count " + count);
+        }
+        return count;
+    }
+
+    static long encodeZigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long decodeZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in script data");
+    }
+
+    static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in script data");
+    }
+}
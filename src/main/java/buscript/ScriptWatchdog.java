@@ -0,0 +1,182 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package buscript;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Aborts scripts that run longer than their time budget.
+ * <p>Each script engine has a {@link Guard} that is armed when an execution on it starts and disarmed when it ends.
+ * A single background thread checks the armed guards every {@link #CHECK_INTERVAL} milliseconds and expires those
+ * past their deadline: the next loop iteration of the script throws a {@link ScriptTimeoutException}, as every loop
+ * of a compiled script checks its guard (see {@link LoopInstrumenter}).  A script running on a thread other than the
+ * server's main thread is also interrupted, so that it is aborted while it sleeps or waits on I/O.  The interrupt
+ * only lands while the guard is armed and is cleared again when the guard is finished, so it never reaches the next
+ * task of the thread.  The main thread is never interrupted, as an interrupt there could break whatever the server
+ * does next, so a script blocked in a wait on the main thread is only aborted once the wait ends.</p>
+ */
+class ScriptWatchdog implements Runnable {
+
+    /** Time in milliseconds between checks for expired guards, the precision of time budgets. */
+    static final long CHECK_INTERVAL = 25L;
+
+    /**
+     * The guard of a single script engine, which its scripts see as a global variable.
+     */
+    public static final class Guard {
+
+        /** Whether an execution armed this guard.  Only used by the thread holding the engine. */
+        private boolean armed = false;
+        private boolean registered = false;
+
+        private volatile boolean active = false;
+        private volatile boolean expired = false;
+        private volatile long deadline;
+
+        private String source;
+        private long budget;
+        /** The thread to interrupt when the guard expires or null. */
+        private Thread thread = null;
+        private boolean interrupted = false;
+
+        /**
+         * Checks whether the current script may keep running.  Called by every loop iteration of a script.
+         *
+         * @return true if the script may keep running.
+         * @throws ScriptTimeoutException if the script ran out of time.
+         */
+        public boolean check() {
+            if (expired) {
+                throw new ScriptTimeoutException(source, budget);
+            }
+            return true;
+        }
+
+        /**
+         * Whether an execution on this engine runs with a time budget.  Only meaningful to the thread holding the
+         * engine.
+         *
+         * @return true if the guard is armed.
+         */
+        boolean isArmed() {
+            return armed;
+        }
+
+        private synchronized boolean expire() {
+            if (!active || expired) {
+                return false;
+            }
+            expired = true;
+            if (thread != null) {
+                thread.interrupt();
+                interrupted = true;
+            }
+            return true;
+        }
+
+        /**
+         * Whether the execution that armed this guard ran out of time.  Only meaningful to the thread holding the
+         * engine.
+         *
+         * @return true if the guard expired.
+         */
+        boolean isExpired() {
+            return expired;
+        }
+
+        /**
+         * Ends the execution that armed this guard.  Must be called by the thread that armed it.
+         */
+        synchronized void finish() {
+            active = false;
+            armed = false;
+            expired = false;
+            thread = null;
+            if (interrupted) {
+                // Clears the interrupt, which can no longer land now that the guard is inactive.
+                Thread.interrupted();
+                interrupted = false;
+            }
+        }
+    }
+
+    private final Logger logger;
+    private final List<Guard> guards = new CopyOnWriteArrayList<Guard>();
+    private volatile Thread thread = null;
+
+    ScriptWatchdog(Logger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * Arms the guard of an engine for an execution starting on the current thread, unless an execution further out
+     * on the same engine already armed it.
+     *
+     * @param guard the guard of the engine the execution runs on.
+     * @param source the script file or source name of the execution.
+     * @param budget the time budget in milliseconds, 0 or less for no budget.
+     * @param interruptible whether the current thread may be interrupted when the budget runs out.
+     * @return true if the guard was armed and must be finished once the execution ends.
+     */
+    boolean arm(Guard guard, String source, long budget, boolean interruptible) {
+        if (guard.armed || budget <= 0) {
+            return false;
+        }
+        if (!guard.registered) {
+            guards.add(guard);
+            guard.registered = true;
+        }
+        synchronized (guard) {
+            guard.source = source;
+            guard.budget = budget;
+            guard.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budget);
+            guard.thread = interruptible ? Thread.currentThread() : null;
+            guard.active = true;
+        }
+        guard.armed = true;
+        if (thread == null) {
+            start();
+        }
+        return true;
+    }
+
+    private synchronized void start() {
+        if (thread == null) {
+            thread = new Thread(this, "Buscript script watchdog");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops checking for scripts that ran out of time.  Checking starts again with the next armed guard.
+     */
+    synchronized void stop() {
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Thread.sleep(CHECK_INTERVAL);
+                long now = System.nanoTime();
+                for (Guard guard : guards) {
+                    if (guard.active && now - guard.deadline >= 0 && guard.expire()) {
+                        logger.warning("Script '" + guard.source + "' exceeded its time budget of " + guard.budget
+                                + " ms and is being aborted");
+                    }
+                }
+            }
+        } catch (InterruptedException ignore) {
+            // Stopped.
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package buscript;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Shares equal targets, file paths, replacements and meta data between scheduled scripts.
+ * <p>Scripts are mostly scheduled by the same few script files with the same replacements, so rather than each
+ * scheduled script holding copies of its own, equal values are stored once as immutable snapshots.  Values are only
+ * held weakly and are forgotten once no scheduled script uses them anymore.  Must only be used on the main
+ * thread.</p>
+ */
+class SharedValues {
+
+    private final WeakHashMap<Object, WeakReference<Object>> values = new WeakHashMap<Object, WeakReference<Object>>();
+
+    /**
+     * Gets the shared string equal to the given string.
+     *
+     * @param string the string.
+     * @return the shared string, or the given string if it is the first of its value.
+     */
+    String share(String string) {
+        if (string == null) {
+            return null;
+        }
+        String shared = (String) get(string);
+        return shared != null ? shared : put(string);
+    }
+
+    /**
+     * Gets an immutable snapshot of the given replacements, shared with all scripts that have equal replacements.
+     *
+     * @param replacements the replacements of a scheduled script.
+     * @return the shared replacements.
+     */
+    @SuppressWarnings("unchecked") // A value is only ever shared under a key equal to itself, so of the same type.
+    List<Map<String, Object>> shareReplacements(List<Map<String, Object>> replacements) {
+        if (replacements == null) {
+            return null;
+        }
+        if (replacements.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Map<String, Object>> shared = (List<Map<String, Object>>) get(replacements);
+        if (shared != null) {
+            return shared;
+        }
+        List<Map<String, Object>> snapshot = new ArrayList<Map<String, Object>>(replacements.size());
+        for (Map<String, Object> replacement : replacements) {
+            snapshot.add(shareMap(replacement));
+        }
+        return put(Collections.unmodifiableList(snapshot));
+    }
+
+    /**
+     * Gets an immutable snapshot of the given meta data, shared with all scripts that have equal meta data.
+     *
+     * @param metaData the meta data of a scheduled script.
+     * @return the shared meta data.
+     */
+    Map<String, Object> shareMetaData(Map<String, Object> metaData) {
+        return shareMap(metaData);
+    }
+
+    @SuppressWarnings("unchecked") // A value is only ever shared under a key equal to itself, so of the same type.
+    private Map<String, Object> shareMap(Map<String, Object> map) {
+        if (map == null) {
+            return null;
+        }
+        if (map.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, Object> shared = (Map<String, Object>) get(map);
+        if (shared != null) {
+            return shared;
+        }
+        Map<String, Object> snapshot = new HashMap<String, Object>(map.size() * 4 / 3 + 1);
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            Object value = entry.getValue();
+            snapshot.put(share(entry.getKey()), value instanceof String ? share((String) value) : value);
+        }
+        return put(Collections.unmodifiableMap(snapshot));
+    }
+
+    private Object get(Object value) {
+        WeakReference<Object> shared = values.get(value);
+        return shared != null ? shared.get() : null;
+    }
+
+    private <T> T put(T value) {
+        values.put(value, new WeakReference<Object>(value));
+        return value;
+    }
+
+    /**
+     * Gets the number of distinct values currently shared.
+     *
+     * @return the number of shared values.
+     */
+    int size() {
+        return values.size();
+    }
+}
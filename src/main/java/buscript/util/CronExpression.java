@@ -0,0 +1,187 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package buscript.util;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Locale;
+
+/**
+ * A standard five field cron expression: minute, hour, day of month, month and day of week.
+ * <p>Each field is {@code *}, a value, a range {@code a-b}, any of those with a step such as {@code *}{@code /15} or
+ * {@code 1-30/2}, or a comma separated list of them.  Months and days of the week may also be given by their first
+ * three letters, and Sunday is both 0 and 7.  As in cron, a time matches when both the day of month and day of week
+ * match, unless neither starts with {@code *}, in which case either may match.</p>
+ */
+public final class CronExpression {
+
+    private static final String[] MONTHS =
+            {"JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT", "NOV", "DEC"};
+    private static final String[] DAYS = {"SUN", "MON", "TUE", "WED", "THU", "FRI", "SAT"};
+
+    /** How far ahead to look for a matching time before giving up, for expressions such as February 30th. */
+    private static final int MAX_YEARS = 5;
+
+    private final String expression;
+    private final long minutes;
+    private final long hours;
+    private final long daysOfMonth;
+    private final long months;
+    private final long daysOfWeek;
+    private final boolean dayOfMonthRestricted;
+    private final boolean dayOfWeekRestricted;
+    private final ZoneId zone;
+
+    private CronExpression(String expression, String[] fields, ZoneId zone) {
+        this.expression = expression;
+        this.zone = zone;
+        minutes = parseField(fields[0], 0, 59, null);
+        hours = parseField(fields[1], 0, 23, null);
+        daysOfMonth = parseField(fields[2], 1, 31, null);
+        months = parseField(fields[3], 1, 12, MONTHS);
+        long days = parseField(fields[4], 0, 7, DAYS);
+        // Sunday may be given as 7.
+        daysOfWeek = (days & 1L << 7) != 0 ? (days | 1L) & ~(1L << 7) : days;
+        dayOfMonthRestricted = !fields[2].startsWith("*");
+        dayOfWeekRestricted = !fields[4].startsWith("*");
+    }
+
+    /**
+     * Parses a cron expression that is evaluated in the default time zone.
+     *
+     * @param expression the cron expression.
+     * @return the parsed expression.
+     * @throws IllegalArgumentException if the expression is invalid.
+     */
+    public static CronExpression parse(String expression) {
+        return parse(expression, ZoneId.systemDefault());
+    }
+
+    /**
+     * Parses a cron expression that is evaluated in the given time zone.
+     *
+     * @param expression the cron expression.
+     * @param zone the time zone to evaluate the expression in.
+     * @return the parsed expression.
+     * @throws IllegalArgumentException if the expression is invalid.
+     */
+    public static CronExpression parse(String expression, ZoneId zone) {
+        String trimmed = expression.trim();
+        String[] fields = trimmed.split("\\s+");
+        if (fields.length != 5) {
+            throw new IllegalArgumentException("Cron expression must have 5 fields: " + expression);
+        }
+        return new CronExpression(trimmed, fields, zone);
+    }
+
+    private static long parseField(String field, int min, int max, String[] names) {
+        long bits = 0L;
+        for (String part : field.split(",")) {
+            int step = 1;
+            int slash = part.indexOf('/');
+            if (slash >= 0) {
+                step = parseNumber(part.substring(slash + 1), 1, max, null);
+                part = part.substring(0, slash);
+            }
+            int start;
+            int end;
+            if (part.equals("*")) {
+                start = min;
+                end = max;
+            } else {
+                int dash = part.indexOf('-');
+                if (dash >= 0) {
+                    start = parseNumber(part.substring(0, dash), min, max, names);
+                    end = parseNumber(part.substring(dash + 1), min, max, names);
+                    if (end < start) {
+                        throw new IllegalArgumentException("Invalid cron range: " + part);
+                    }
+                } else {
+                    start = parseNumber(part, min, max, names);
+                    end = slash >= 0 ? max : start;
+                }
+            }
+            for (int i = start; i <= end; i += step) {
+                bits |= 1L << i;
+            }
+        }
+        return bits;
+    }
+
+    private static int parseNumber(String value, int min, int max, String[] names) {
+        if (names != null) {
+            String upper = value.toUpperCase(Locale.ENGLISH);
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(upper)) {
+                    // Months are numbered from 1, days of the week from 0.
+                    return i + (min == 1 ? 1 : 0);
+                }
+            }
+        }
+        int number;
+        try {
+            number = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cron value: " + value);
+        }
+        if (number < min || number > max) {
+            throw new IllegalArgumentException("Cron value " + number + " is not within " + min + "-" + max);
+        }
+        return number;
+    }
+
+    /**
+     * Gets the first time after the given time that matches this expression.
+     *
+     * @param after the time in milliseconds to start looking after.
+     * @return the next matching time in milliseconds, or {@link Long#MAX_VALUE} if no time within the next few years
+     *         matches.
+     */
+    public long next(long after) {
+        ZonedDateTime time = Instant.ofEpochMilli(after).atZone(zone).truncatedTo(ChronoUnit.MINUTES).plusMinutes(1);
+        int lastYear = time.getYear() + MAX_YEARS;
+        while (time.getYear() <= lastYear) {
+            if ((months & 1L << time.getMonthValue()) == 0) {
+                time = time.withDayOfMonth(1).truncatedTo(ChronoUnit.DAYS).plusMonths(1);
+            } else if (!matchesDay(time)) {
+                time = time.truncatedTo(ChronoUnit.DAYS).plusDays(1);
+            } else if ((hours & 1L << time.getHour()) == 0) {
+                time = time.truncatedTo(ChronoUnit.HOURS).plusHours(1);
+            } else if ((minutes & 1L << time.getMinute()) == 0) {
+                time = time.plusMinutes(1);
+            } else {
+                return time.toInstant().toEpochMilli();
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private boolean matchesDay(ZonedDateTime time) {
+        boolean dayOfMonth = (daysOfMonth & 1L << time.getDayOfMonth()) != 0;
+        // DayOfWeek numbers Monday to Sunday from 1 to 7, cron from Sunday as 0.
+        boolean dayOfWeek = (daysOfWeek & 1L << (time.getDayOfWeek().getValue() % 7)) != 0;
+        if (dayOfMonthRestricted && dayOfWeekRestricted) {
+            return dayOfMonth || dayOfWeek;
+        }
+        return dayOfMonth && dayOfWeek;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof CronExpression && ((CronExpression) o).expression.equals(expression)
+                && ((CronExpression) o).zone.equals(zone);
+    }
+
+    @Override
+    public int hashCode() {
+        return expression.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+}
@@ -1,40 +1,222 @@
 package buscript.util;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.util.logging.Logger;
 
 public class FileTools {
 
+    /**
+     * Files at least this large are memory-mapped instead of read into a buffer.  Decoding from a heap buffer is
+     * faster, so mapping only pays off once the temporary buffer itself becomes a burden.
+     */
+    static final int MAP_THRESHOLD = 16 * 1024 * 1024;
+
+    /**
+     * Reads a UTF-8 text file into a string.  A byte order mark at the start of the file is skipped and malformed
+     * input is replaced rather than rejected.
+     *
+     * @param file the file to read.
+     * @return the contents of the file.
+     * @throws IOException if the file could not be read.
+     */
+    public static String readFile(File file) throws IOException {
+        return readFileAsCharSequence(file).toString();
+    }
+
+    /**
+     * Reads a UTF-8 text file without copying its decoded contents into a string.
+     *
+     * @param file the file to read.
+     * @return the contents of the file.
+     * @throws IOException if the file could not be read.
+     * @see #readFile(File)
+     */
+    public static CharSequence readFileAsCharSequence(File file) throws IOException {
+        return readFileAsCharSequence(file, MAP_THRESHOLD);
+    }
+
+    static CharSequence readFileAsCharSequence(File file, int mapThreshold) throws IOException {
+        checkFile(file);
+        try (FileInputStream in = new FileInputStream(file);
+             FileChannel channel = in.getChannel()) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File is too large: " + file);
+            }
+            ByteBuffer bytes;
+            if (size >= mapThreshold) {
+                bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                bytes = ByteBuffer.allocate((int) size);
+                while (bytes.hasRemaining() && channel.read(bytes) != -1) {
+                    // Keep reading until the buffer is full.
+                }
+                bytes.flip();
+            }
+            return decode(bytes);
+        }
+    }
+
+    /**
+     * Opens a reader over the contents of a UTF-8 text file.  The file is read and decoded at once, so the reader
+     * does not hold the file open.
+     *
+     * @param file the file to read.
+     * @return a reader over the contents of the file.
+     * @throws IOException if the file could not be read.
+     * @see #readFile(File)
+     */
+    public static Reader openReader(File file) throws IOException {
+        return new CharSequenceReader(readFileAsCharSequence(file));
+    }
+
+    /**
+     * Reads a UTF-8 text file into a string, logging a warning if it can't be read.
+     *
+     * @param file the file to read.
+     * @param log the logger to warn if the file can't be read.
+     * @return the contents of the file or an empty string if it could not be read.
+     * @see #readFile(File)
+     */
     public static String readFileAsString(File file, Logger log) {
+        checkFile(file);
+        try {
+            return readFile(file);
+        } catch (IOException e) {
+            log.warning("Error reading file '" + file + "': " + e.getMessage());
+            return "";
+        }
+    }
+
+    private static void checkFile(File file) {
         if (file == null) {
             throw new IllegalArgumentException("File may not be null!");
         }
         if (file.isDirectory()) {
             throw new IllegalArgumentException("File may not be directory!");
         }
-        StringBuilder fileData = new StringBuilder(1000);
-        BufferedReader reader = null;
-        try {
-            reader = new BufferedReader(new FileReader(file));
-            char[] buf = new char[1024];
-            int numRead = 0;
-            while((numRead = reader.read(buf)) != -1){
-                String readData = String.valueOf(buf, 0, numRead);
-                fileData.append(readData);
-                buf = new char[1024];
+    }
+
+    private static CharBuffer decode(ByteBuffer bytes) throws CharacterCodingException {
+        if (bytes.remaining() >= 3 && (bytes.get(bytes.position()) & 0xFF) == 0xEF
+                && (bytes.get(bytes.position() + 1) & 0xFF) == 0xBB
+                && (bytes.get(bytes.position() + 2) & 0xFF) == 0xBF) {
+            bytes.position(bytes.position() + 3);
+        }
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        // UTF-8 never decodes to more chars than it has bytes, so the buffer never has to grow.
+        CharBuffer chars = CharBuffer.allocate(bytes.remaining());
+        CoderResult result = decoder.decode(bytes, chars, true);
+        if (!result.isUnderflow()) {
+            result.throwException();
+        }
+        result = decoder.flush(chars);
+        if (!result.isUnderflow()) {
+            result.throwException();
+        }
+        chars.flip();
+        return chars;
+    }
+
+    /**
+     * A reader over a char sequence that is read in place.
+     */
+    private static final class CharSequenceReader extends Reader {
+
+        private CharSequence chars;
+        private int position = 0;
+        private int mark = 0;
+
+        private CharSequenceReader(CharSequence chars) {
+            this.chars = chars;
+        }
+
+        private void ensureOpen() throws IOException {
+            if (chars == null) {
+                throw new IOException("Reader closed");
             }
-        } catch (IOException e) {
-            log.warning("Error reading file '" + file + "': " + e.getMessage());
-        } finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (IOException ignore) { }
+        }
+
+        @Override
+        public int read() throws IOException {
+            ensureOpen();
+            return position < chars.length() ? chars.charAt(position++) : -1;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            ensureOpen();
+            if (offset < 0 || length < 0 || offset + length > buffer.length) {
+                throw new IndexOutOfBoundsException();
+            }
+            if (length == 0) {
+                return 0;
+            }
+            int remaining = chars.length() - position;
+            if (remaining <= 0) {
+                return -1;
+            }
+            int count = Math.min(length, remaining);
+            if (chars instanceof CharBuffer) {
+                CharBuffer view = ((CharBuffer) chars).duplicate();
+                view.position(view.position() + position);
+                view.get(buffer, offset, count);
+            } else {
+                for (int i = 0; i < count; i++) {
+                    buffer[offset + i] = chars.charAt(position + i);
+                }
             }
+            position += count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            ensureOpen();
+            int skipped = (int) Math.max(0, Math.min(n, chars.length() - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean ready() throws IOException {
+            ensureOpen();
+            return true;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public void mark(int readAheadLimit) throws IOException {
+            ensureOpen();
+            mark = position;
+        }
+
+        @Override
+        public void reset() throws IOException {
+            ensureOpen();
+            position = mark;
+        }
+
+        @Override
+        public void close() {
+            chars = null;
         }
-        return fileData.toString();
     }
 }
@@ -0,0 +1,156 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package buscript.util;
+
+/**
+ * A hash map from primitive long keys to non-null values.
+ * <p>Keys and values are kept in two arrays using open addressing, so an entry costs two array slots rather than a
+ * boxed key and a map entry as it would in a {@link java.util.HashMap}.  This class is not thread safe.</p>
+ *
+ * @param <V> the type of the values.
+ */
+public final class LongObjectMap<V> {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int size = 0;
+
+    public LongObjectMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * Creates a map that holds the given number of entries without growing.
+     *
+     * @param expected the expected number of entries.
+     */
+    public LongObjectMap(int expected) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 / 4 < expected) {
+            capacity <<= 1;
+        }
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    private int index(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ hash >>> 32) & mask;
+    }
+
+    /**
+     * Gets the value of a key.
+     *
+     * @param key the key.
+     * @return the value or null if the key is not in the map.
+     */
+    @SuppressWarnings("unchecked") // Only values of type V are ever stored.
+    public V get(long key) {
+        for (int i = index(key); ; i = i + 1 & mask) {
+            Object value = values[i];
+            if (value == null || keys[i] == key) {
+                return (V) value;
+            }
+        }
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Sets the value of a key.
+     *
+     * @param key the key.
+     * @param value the value, which must not be null.
+     * @return the previous value or null if the key was not in the map.
+     */
+    @SuppressWarnings("unchecked") // Only values of type V are ever stored.
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("value must not be null");
+        }
+        int i = index(key);
+        for (; values[i] != null; i = i + 1 & mask) {
+            if (keys[i] == key) {
+                Object previous = values[i];
+                values[i] = value;
+                return (V) previous;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > values.length * 3 / 4) {
+            resize(values.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * Removes a key.
+     *
+     * @param key the key.
+     * @return the value of the key or null if the key was not in the map.
+     */
+    @SuppressWarnings("unchecked") // Only values of type V are ever stored.
+    public V remove(long key) {
+        int i = index(key);
+        for (; values[i] != null; i = i + 1 & mask) {
+            if (keys[i] == key) {
+                Object previous = values[i];
+                values[i] = null;
+                size--;
+                closeGap(i);
+                return (V) previous;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Moves the entries following a removed entry back into the gap it left, where their probe sequence allows, so
+     * that lookups never have to skip over removed entries.
+     */
+    private void closeGap(int gap) {
+        for (int i = gap + 1 & mask; values[i] != null; i = i + 1 & mask) {
+            int home = index(keys[i]);
+            if ((i - home & mask) >= (i - gap & mask)) {
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                values[i] = null;
+                gap = i;
+            }
+        }
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        for (int j = 0; j < oldValues.length; j++) {
+            if (oldValues[j] != null) {
+                int i = index(oldKeys[j]);
+                while (values[i] != null) {
+                    i = i + 1 & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+}
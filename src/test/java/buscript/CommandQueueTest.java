@@ -0,0 +1,150 @@
+package buscript;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CommandQueueTest {
+
+    private TestFixtures.TestServer server;
+    private List<String> dispatched;
+    private CommandSender console;
+    private CommandQueue queue;
+
+    @Before
+    public void setUp() {
+        server = new TestFixtures.TestServer("CommandQueueTest");
+        dispatched = server.dispatched;
+        console = TestFixtures.proxy(CommandSender.class,
+                Collections.<String, Object>singletonMap("getName", "CONSOLE"));
+        queue = new CommandQueue(server.plugin);
+    }
+
+    private void tick() {
+        server.tick();
+    }
+
+    @Test
+    public void testTickBudget() {
+        queue.setTickBudget(2);
+        queue.submit(console, "a");
+        queue.submit(console, "b");
+        queue.submit(console, "c");
+        queue.submit(console, "d");
+        queue.submit(console, "e");
+        assertEquals(Arrays.asList("a", "b"), dispatched);
+        assertEquals(3, queue.getStats().getDepth());
+
+        tick();
+        assertEquals(Arrays.asList("a", "b", "c", "d"), dispatched);
+        tick();
+        assertEquals(Arrays.asList("a", "b", "c", "d", "e"), dispatched);
+        tick();
+        tick();
+        assertTrue(server.tasks.isEmpty());
+
+        CommandQueueStats stats = queue.getStats();
+        assertEquals(5, stats.getSubmitted());
+        assertEquals(0, stats.getDepth());
+        assertEquals(3, stats.getMaxDepth());
+        assertEquals(5, stats.getWaitLatency().getCount());
+    }
+
+    @Test
+    public void testOtherThreadsQueue() {
+        server.primaryThread = false;
+        queue.submit(console, "a");
+        assertTrue(dispatched.isEmpty());
+        assertEquals(1, server.tasks.size());
+
+        server.primaryThread = true;
+        // Commands keep their order behind those already waiting.
+        queue.submit(console, "b");
+        assertTrue(dispatched.isEmpty());
+        tick();
+        assertEquals(Arrays.asList("a", "b"), dispatched);
+    }
+
+    @Test
+    public void testCoalescing() {
+        queue.setCoalescing(true);
+        server.primaryThread = false;
+        queue.submit(console, "a");
+        queue.submit(console, "a");
+        queue.submit(console, "b");
+        tick();
+        assertEquals(Arrays.asList("a", "b"), dispatched);
+        assertEquals(1, queue.getStats().getCoalesced());
+
+        queue.setCoalescing(false);
+        queue.submit(console, "a");
+        queue.submit(console, "a");
+        tick();
+        assertEquals(Arrays.asList("a", "b", "a", "a"), dispatched);
+    }
+
+    @Test
+    public void testNoCoalescingByDefault() {
+        server.primaryThread = false;
+        queue.submit(console, "a");
+        queue.submit(console, "a");
+        tick();
+        assertEquals(Arrays.asList("a", "a"), dispatched);
+        assertEquals(0, queue.getStats().getCoalesced());
+    }
+
+    @Test
+    public void testCommandsDispatchedRightAwayAreNotCoalesced() {
+        queue.setCoalescing(true);
+        queue.submit(console, "a");
+        queue.submit(console, "a");
+        assertEquals(Arrays.asList("a", "a"), dispatched);
+        server.primaryThread = false;
+        queue.submit(console, "a");
+        queue.submit(console, "a");
+        assertEquals(1, queue.getStats().getCoalesced());
+        tick();
+        assertEquals(Arrays.asList("a", "a", "a"), dispatched);
+    }
+
+    @Test
+    public void testFailedCommandIsNotThrown() {
+        Player player = TestFixtures.proxy(Player.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("isOnline")) {
+                    throw new IllegalStateException("disconnected");
+                }
+                if (method.getName().equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                }
+                return method.getName().equals("equals") ? proxy == args[0] : "Steve";
+            }
+        });
+        queue.submit(player, "a");
+        server.primaryThread = false;
+        queue.submit(player, "b");
+        tick();
+        assertTrue(dispatched.isEmpty());
+        assertEquals(2, queue.getStats().getFailed());
+    }
+
+    @Test
+    public void testFlush() {
+        queue.setTickBudget(1);
+        queue.submit(console, "a");
+        queue.submit(console, "b");
+        queue.submit(console, "c");
+        queue.flush();
+        assertEquals(Arrays.asList("a", "b", "c"), dispatched);
+    }
+}
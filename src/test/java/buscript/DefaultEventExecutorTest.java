@@ -0,0 +1,34 @@
+package buscript;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DefaultEventExecutorTest {
+
+    @Test
+    public void testAddIsIdempotent() {
+        DefaultEventExecutor executor = new DefaultEventExecutor(null);
+
+        assertTrue(executor.add("a.js", EventScriptFilter.NONE));
+        assertTrue(executor.add("b.js", EventScriptFilter.NONE));
+        assertFalse(executor.add("a.js", EventScriptFilter.NONE.ignoreCancelled(true)));
+
+        assertTrue(executor.remove("a.js"));
+        assertFalse(executor.remove("a.js"));
+        assertFalse(executor.isEmpty());
+        assertTrue(executor.remove("b.js"));
+        assertTrue(executor.isEmpty());
+    }
+
+    @Test
+    public void testFilteredScriptsAreNotRun() throws Exception {
+        DefaultEventExecutor executor = new DefaultEventExecutor(null);
+        executor.add("a.js", EventScriptFilter.NONE.ignoreCancelled(true));
+        EventScriptFilterTest.TestEvent event = new EventScriptFilterTest.TestEvent(null);
+        event.setCancelled(true);
+
+        // The executor has no Buscript to run scripts with, so this only passes if the script is filtered out.
+        executor.execute(null, event);
+    }
+}
@@ -0,0 +1,112 @@
+package buscript;
+
+import org.bukkit.entity.Player;
+import org.bukkit.event.Cancellable;
+import org.bukkit.event.Event;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.player.PlayerEvent;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class EventScriptFilterTest {
+
+    public static class TestEvent extends PlayerEvent implements Cancellable {
+
+        private static final HandlerList HANDLERS = new HandlerList();
+        private boolean cancelled = false;
+
+        public TestEvent(Player player) {
+            super(player);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void setCancelled(boolean cancelled) {
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        public HandlerList getHandlers() {
+            return HANDLERS;
+        }
+
+        public static HandlerList getHandlerList() {
+            return HANDLERS;
+        }
+    }
+
+    public static class OtherEvent extends TestEvent {
+
+        public OtherEvent(Player player) {
+            super(player);
+        }
+    }
+
+    @Test
+    public void testNoneMatchesEverything() {
+        TestEvent event = new TestEvent(null);
+        event.setCancelled(true);
+
+        assertTrue(EventScriptFilter.NONE.matches(event));
+    }
+
+    @Test
+    public void testIgnoreCancelled() {
+        EventScriptFilter filter = EventScriptFilter.NONE.ignoreCancelled(true);
+        TestEvent event = new TestEvent(TestFixtures.playerInWorld("world"));
+
+        assertTrue(filter.matches(event));
+        event.setCancelled(true);
+        assertFalse(filter.matches(event));
+    }
+
+    @Test
+    public void testWorldsAndPermission() {
+        EventScriptFilter filter = EventScriptFilter.NONE.worlds("World", "nether").permission("scripts.move");
+
+        assertTrue(filter.matches(new TestEvent(TestFixtures.playerInWorld("world", "scripts.move"))));
+        assertFalse(filter.matches(new TestEvent(TestFixtures.playerInWorld("end", "scripts.move"))));
+        assertFalse(filter.matches(new TestEvent(TestFixtures.playerInWorld("nether"))));
+        assertFalse(filter.matches(new TestEvent(null)));
+    }
+
+    @Test
+    public void testEventType() {
+        EventScriptFilter filter = EventScriptFilter.NONE.eventType(OtherEvent.class);
+
+        assertFalse(filter.matches(new TestEvent(null)));
+        assertTrue(filter.matches(new OtherEvent(null)));
+    }
+
+    @Test
+    public void testFromOptions() {
+        Map<String, Object> options = new HashMap<String, Object>();
+        options.put("ignoreCancelled", true);
+        options.put("worlds", Arrays.asList("world"));
+        options.put("permission", "scripts.move");
+        options.put("eventType", OtherEvent.class.getName());
+
+        EventScriptFilter filter = EventScriptFilter.fromOptions(options);
+
+        assertTrue(filter.isIgnoringCancelled());
+        assertTrue(filter.getWorlds().contains("WORLD"));
+        assertEquals("scripts.move", filter.getPermission());
+        assertEquals(OtherEvent.class, filter.getEventType());
+        assertSame(EventScriptFilter.NONE, EventScriptFilter.fromOptions(null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFromOptionsRejectsNonEvents() {
+        EventScriptFilter.fromOptions(Collections.<String, Object>singletonMap("eventType", "java.lang.String"));
+    }
+}
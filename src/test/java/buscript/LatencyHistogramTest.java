@@ -0,0 +1,44 @@
+package buscript;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketsCoverTheirTimes() {
+        for (long time : new long[] {0, 1, 7, 8, 15, 16, 1000, 123456789L, Long.MAX_VALUE}) {
+            int bucket = LatencyHistogram.bucket(time);
+            assertTrue(bucket < LatencyHistogram.BUCKETS);
+            assertTrue(LatencyHistogram.highestTime(bucket) >= time);
+            assertTrue(bucket == 0 || LatencyHistogram.highestTime(bucket - 1) < time);
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        long[] counts = new long[LatencyHistogram.BUCKETS];
+        long total = 0;
+        for (long time = 1; time <= 1000; time++) {
+            counts[LatencyHistogram.bucket(time * 1000)]++;
+            total += time * 1000;
+        }
+        LatencyHistogram histogram = new LatencyHistogram(counts, 1000, total, 1000000);
+
+        assertEquals(500500, histogram.getMeanTime());
+        assertEquals(1000000, histogram.getPercentile(100));
+        long median = histogram.getPercentile(50);
+        assertTrue(median >= 500000 && median <= 500000 * 9 / 8);
+        long p99 = histogram.getPercentile(99);
+        assertTrue(p99 >= 990000 && p99 <= 1000000);
+    }
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram(new long[LatencyHistogram.BUCKETS], 0, 0, 0);
+
+        assertEquals(0, histogram.getPercentile(99));
+        assertEquals(0, histogram.getMeanTime());
+    }
+}
@@ -0,0 +1,69 @@
+package buscript;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LoopInstrumenterTest {
+
+    private static final String CHECK = LoopInstrumenter.GUARD_VARIABLE + ".check()";
+
+    @Test
+    public void testWhileLoops() {
+        assertEquals("while (" + CHECK + " && (a < b)) a++;", LoopInstrumenter.instrument("while (a < b) a++;"));
+        assertEquals("do { a++; } while (" + CHECK + " && (f(a)));",
+                LoopInstrumenter.instrument("do { a++; } while (f(a));"));
+    }
+
+    @Test
+    public void testForLoops() {
+        assertEquals("for (var i = 0; " + CHECK + " && (i < n); i++) {}",
+                LoopInstrumenter.instrument("for (var i = 0; i < n; i++) {}"));
+        assertEquals("for (; " + CHECK + ";) {}", LoopInstrumenter.instrument("for (;;) {}"));
+        assertEquals("for (var k in o) {}", LoopInstrumenter.instrument("for (var k in o) {}"));
+        assertEquals("for (var i = f(function() { return 1; }); " + CHECK + " && (i); i--) {}",
+                LoopInstrumenter.instrument("for (var i = f(function() { return 1; }); i; i--) {}"));
+    }
+
+    @Test
+    public void testNonCodeIsUntouched() {
+        String source = "var s = 'while (x)'; // for (;;)\n/* while (y) */ var r = /for (a;b;c)/g; o.while(1);";
+        assertSame(source, LoopInstrumenter.instrument(source));
+    }
+
+    @Test
+    public void testRegexAfterParenthesis() {
+        assertEquals("if (x) /\\(/.test(s); while (" + CHECK + " && (a)) {}",
+                LoopInstrumenter.instrument("if (x) /\\(/.test(s); while (a) {}"));
+        assertEquals("var q = (a) / b / c; while (" + CHECK + " && (q)) {}",
+                LoopInstrumenter.instrument("var q = (a) / b / c; while (q) {}"));
+    }
+
+    @Test
+    public void testRegexWithBrackets() {
+        assertEquals("var r = /[({]+/g; for (; " + CHECK + " && (r.test(s)); ) {}",
+                LoopInstrumenter.instrument("var r = /[({]+/g; for (; r.test(s); ) {}"));
+    }
+
+    @Test
+    public void testRegexInForCondition() {
+        assertEquals("for (var i = 0; " + CHECK + " && (/[)]/.test(a[i])); i++) {}",
+                LoopInstrumenter.instrument("for (var i = 0; /[)]/.test(a[i]); i++) {}"));
+    }
+
+    @Test
+    public void testUnbalancedSourceIsUntouched() {
+        String source = "while (a) { if (b) } }";
+        assertSame(source, LoopInstrumenter.instrument(source));
+        String unterminated = "while (a) { s = 'abc\n'; }";
+        assertSame(unterminated, LoopInstrumenter.instrument(unterminated));
+    }
+
+    @Test
+    public void testLinesAreKept() {
+        String source = "var i = 0;\nwhile (i < 10) {\n  i++;\n}\nfor (var j = 0;\n j < 2;\n j++) {}\nerror";
+        String instrumented = LoopInstrumenter.instrument(source);
+        assertNotEquals(source, instrumented);
+        assertEquals(source.split("\n").length, instrumented.split("\n").length);
+    }
+}
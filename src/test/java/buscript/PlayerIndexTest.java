@@ -0,0 +1,48 @@
+package buscript;
+
+import org.bukkit.entity.Player;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class PlayerIndexTest {
+
+    @Test
+    public void testLookupByNameAndId() {
+        PlayerIndex index = new PlayerIndex();
+        UUID id = UUID.randomUUID();
+        Player player = TestFixtures.player("Notch", id);
+        index.playerJoin(new PlayerJoinEvent(player, null));
+
+        assertSame(player, index.get("Notch"));
+        assertSame(player, index.get("nOTCH"));
+        assertSame(player, index.get(id));
+        assertSame(player, index.get(id.toString()));
+        assertNull(index.get("jeb_"));
+        assertNull(index.get(UUID.randomUUID().toString()));
+
+        index.playerQuit(new PlayerQuitEvent(player, null));
+        assertNull(index.get("Notch"));
+        assertNull(index.get(id));
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testQuitOfReplacedPlayerKeepsNewPlayer() {
+        PlayerIndex index = new PlayerIndex();
+        UUID id = UUID.randomUUID();
+        Player old = TestFixtures.player("Notch", id);
+        Player current = TestFixtures.player("Notch", id);
+        index.addAll(Arrays.asList(old));
+        index.add(current);
+
+        index.remove(old);
+        assertSame(current, index.get("notch"));
+        assertSame(current, index.get(id));
+    }
+}
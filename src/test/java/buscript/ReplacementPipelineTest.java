@@ -0,0 +1,87 @@
+package buscript;
+
+import org.bukkit.ChatColor;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ReplacementPipelineTest {
+
+    private static String reference(String string, List<String> regexes, String[] values) {
+        String result = string;
+        for (int i = 0; i < regexes.size(); i++) {
+            result = result.replaceAll(regexes.get(i), values[i] != null ? values[i] : ScriptManager.NULL);
+        }
+        return ChatColor.translateAlternateColorCodes('&', result);
+    }
+
+    @Test
+    public void testTokensAndColors() {
+        List<String> regexes = Arrays.asList("%target%", "%world%");
+        ReplacementPipeline pipeline = new ReplacementPipeline(regexes);
+        String[] values = {"Steve", "&cnether"};
+        assertEquals("§aHi Steve in §cnether",
+                pipeline.apply("&aHi %target% in %world%", values));
+        assertEquals(ScriptManager.NULL + "!", pipeline.apply("%target%!", new String[] {null, "x"}));
+    }
+
+    @Test
+    public void testOverlappingTokensKeepRegistrationOrder() {
+        List<String> regexes = Arrays.asList("%target%", "%player%");
+        ReplacementPipeline pipeline = new ReplacementPipeline(regexes);
+        String[] values = {"T", "P"};
+        assertEquals(reference("%player%target%", regexes, values), pipeline.apply("%player%target%", values));
+        assertEquals(reference("%target%player%", regexes, values), pipeline.apply("%target%player%", values));
+    }
+
+    @Test
+    public void testUnchangedStringIsReturned() {
+        ReplacementPipeline pipeline = new ReplacementPipeline(Arrays.asList("%target%"));
+        String string = "nothing to replace";
+        assertSame(string, pipeline.apply(string, new String[] {"Steve"}));
+    }
+
+    @Test
+    public void testRegexReplacer() {
+        List<String> regexes = Arrays.asList("%t(arget)?%", "[0-9]+");
+        ReplacementPipeline pipeline = new ReplacementPipeline(regexes);
+        String[] values = {"Alex", "#"};
+        assertEquals(reference("%t% has 12 of %target%'s 3", regexes, values),
+                pipeline.apply("%t% has 12 of %target%'s 3", values));
+    }
+
+    @Test
+    public void testMatchesSequentialReplacement() {
+        List<String> regexes = Arrays.asList("%target%", "%player%", "<x>", "%p%");
+        ReplacementPipeline pipeline = new ReplacementPipeline(regexes);
+        String alphabet = "%targetplyr<x>&cAk1 ";
+        String[] valueAlphabet = {"Steve", "&4red", "a&", "", "%", "$1", null};
+        Random random = new Random(42);
+        for (int n = 0; n < 20000; n++) {
+            StringBuilder input = new StringBuilder();
+            int length = random.nextInt(30);
+            for (int i = 0; i < length; i++) {
+                if (random.nextInt(3) == 0) {
+                    input.append(regexes.get(random.nextInt(regexes.size())));
+                } else {
+                    input.append(alphabet.charAt(random.nextInt(alphabet.length())));
+                }
+            }
+            String[] values = new String[regexes.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = valueAlphabet[random.nextInt(valueAlphabet.length)];
+            }
+            String expected;
+            try {
+                expected = reference(input.toString(), regexes, values);
+            } catch (IndexOutOfBoundsException e) {
+                continue;
+            }
+            assertEquals(input + " " + Arrays.toString(values), expected, pipeline.apply(input.toString(), values));
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package buscript;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ScheduleJournalTest {
+
+    private File file;
+    private ScheduleJournal journal;
+
+    @Before
+    public void setUp() throws Exception {
+        file = new File(Files.createTempDirectory("journal").toFile(), "scripts.journal");
+        journal = new ScheduleJournal(file);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        journal.close();
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        ScriptScheduler scheduler = new ScriptScheduler();
+        List<Map<String, Object>> replacements = new ArrayList<Map<String, Object>>();
+        Map<String, Object> replacement = new HashMap<String, Object>();
+        replacement.put("regex", "%target%");
+        replacement.put("replace", "Steve");
+        replacements.add(replacement);
+        Map<String, Object> metaData = new HashMap<String, Object>();
+        metaData.put("count", 3);
+        metaData.put("ratio", 0.5D);
+
+        ScheduledScript kept = scheduler.schedule("Steve", "reward.js", 500, replacements, metaData);
+        journal.add(kept);
+        ScheduledScript fired = scheduler.schedule("Steve", "fired.js", 100, null, null);
+        journal.add(fired);
+        journal.fire(fired.id);
+        journal.add(scheduler.schedule("Alex", "cleared.js", 200, null, null));
+        journal.clear("Alex");
+        assertEquals(5, journal.getRecordCount());
+        journal.close();
+
+        ScriptScheduler replayed = new ScriptScheduler();
+        assertEquals(5, new ScheduleJournal(file).replay(replayed));
+        assertEquals(1, replayed.size());
+        ScheduledScript script = replayed.pollDue(Long.MAX_VALUE).get(0);
+        assertEquals(kept.id, script.id);
+        assertEquals("reward.js", script.file);
+        assertEquals(500, script.time);
+        assertEquals(replacements, script.replacements);
+        assertEquals(metaData, script.metaData);
+    }
+
+    @Test
+    public void testPartialRecordEndsReplay() throws Exception {
+        ScriptScheduler scheduler = new ScriptScheduler();
+        journal.add(scheduler.schedule("Steve", "a.js", 100, null, null));
+        journal.add(scheduler.schedule("Steve", "b.js", 200, null, null));
+        journal.close();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+
+        ScriptScheduler replayed = new ScriptScheduler();
+        assertEquals(1, new ScheduleJournal(file).replay(replayed));
+        assertEquals(1, replayed.size());
+    }
+
+    @Test
+    public void testReplayRecurringCursor() throws Exception {
+        ScriptScheduler scheduler = new ScriptScheduler();
+        ScheduledScript recurring = scheduler.schedule("Steve", "every.js", 100, null, null,
+                Recurrence.fixedDelay(1000));
+        journal.add(recurring);
+        journal.add(scheduler.schedule("Steve", "once.js", 500, null, null));
+        journal.cursor(recurring.id, 1100);
+        journal.cursor(recurring.id, 2100);
+        journal.close();
+
+        ScriptScheduler replayed = new ScriptScheduler();
+        assertEquals(4, new ScheduleJournal(file).replay(replayed));
+        assertEquals(2, replayed.size());
+        assertEquals(500, replayed.nextDueTime());
+        List<ScheduledScript> due = replayed.pollDue(Long.MAX_VALUE);
+        assertEquals(2, due.size());
+        assertEquals("every.js", due.get(1).file);
+        assertEquals(2100, due.get(1).time);
+        assertEquals(Recurrence.fixedDelay(1000), due.get(1).recurrence);
+    }
+
+    @Test
+    public void testReplayClearFile() throws Exception {
+        ScriptScheduler scheduler = new ScriptScheduler();
+        journal.add(scheduler.schedule("Steve", "vote-reward.js", 100, null, null));
+        journal.add(scheduler.schedule("Alex", "vote-reward.js", 200, null, null));
+        ScheduledScript kept = scheduler.schedule("Alex", "other.js", 300, null, null);
+        journal.add(kept);
+        journal.clearFile("vote-reward.js");
+        journal.close();
+
+        ScriptScheduler replayed = new ScriptScheduler();
+        assertEquals(4, new ScheduleJournal(file).replay(replayed));
+        assertEquals(1, replayed.size());
+        assertEquals(kept.id, replayed.pollDue(Long.MAX_VALUE).get(0).id);
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        journal.add(new ScriptScheduler().schedule("Steve", "a.js", 100, null, null));
+        journal.reset();
+        assertEquals(0, journal.getRecordCount());
+        assertEquals(0, file.length());
+    }
+}
@@ -0,0 +1,190 @@
+package buscript;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+public class ScriptDataFormatTest {
+
+    private static final Logger LOGGER = Logger.getLogger("ScriptDataFormatTest");
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = new File(Files.createTempDirectory("data").toFile(), "scripts.bin");
+    }
+
+    static List<ScheduledScript> createScripts(int count) {
+        List<ScheduledScript> scripts = new ArrayList<ScheduledScript>(count);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            String target = "Player" + (i % 500);
+            List<Map<String, Object>> replacements = new ArrayList<Map<String, Object>>(1);
+            Map<String, Object> replacement = new HashMap<String, Object>(4);
+            replacement.put("regex", "%target%");
+            replacement.put("replace", target);
+            replacement.put("var", "target");
+            replacements.add(replacement);
+            Map<String, Object> metaData = new HashMap<String, Object>(4);
+            metaData.put("amount", i % 10);
+            metaData.put("reason", "vote");
+            scripts.add(new ScheduledScript(i, target, "plugins/Buscript/scripts/vote-reward.js",
+                    now + i * 1000L, replacements, metaData));
+        }
+        return scripts;
+    }
+
+    private static void assertSameScripts(List<ScheduledScript> expected, List<ScheduledScript> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).id, actual.get(i).id);
+            assertEquals(expected.get(i).target, actual.get(i).target);
+            assertEquals(expected.get(i).file, actual.get(i).file);
+            assertEquals(expected.get(i).time, actual.get(i).time);
+            assertEquals(expected.get(i).replacements, actual.get(i).replacements);
+            assertEquals(expected.get(i).metaData, actual.get(i).metaData);
+            assertEquals(expected.get(i).recurrence, actual.get(i).recurrence);
+        }
+    }
+
+    @Test
+    public void testRecurringScripts() throws Exception {
+        List<ScheduledScript> scripts = new ArrayList<ScheduledScript>();
+        scripts.add(new ScheduledScript(0, "a", "once.js", 100, null, null));
+        scripts.add(new ScheduledScript(1, "a", "rate.js", 200, null, null, Recurrence.fixedRate(60000)));
+        scripts.add(new ScheduledScript(2, "b", "cron.js", 300, null, null, Recurrence.cron("0 */2 * * MON-FRI")));
+        scripts.add(new ScheduledScript(3, "c", "rate.js", 400, null, null, Recurrence.fixedRate(60000)));
+        ScriptDataFormat.write(file, scripts, false);
+
+        assertSameScripts(scripts, ScriptDataFormat.read(file, LOGGER));
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        List<ScheduledScript> scripts = createScripts(1000);
+        ScriptDataFormat.write(file, scripts, false);
+        assertTrue(ScriptDataFormat.isBinary(file));
+        assertSameScripts(scripts, ScriptDataFormat.read(file, LOGGER));
+    }
+
+    @Test
+    public void testCompressedRoundTrip() throws Exception {
+        List<ScheduledScript> scripts = createScripts(1000);
+        ScriptDataFormat.write(file, scripts, true);
+        assertTrue(ScriptDataFormat.isBinary(file));
+        assertSameScripts(scripts, ScriptDataFormat.read(file, LOGGER));
+    }
+
+    @Test
+    public void testValueTypes() throws Exception {
+        Map<String, Object> metaData = new HashMap<String, Object>();
+        metaData.put("int", -7);
+        metaData.put("long", Long.MIN_VALUE);
+        metaData.put("double", 1.5D);
+        metaData.put("bool", true);
+        metaData.put("null", null);
+        List<Object> list = new ArrayList<Object>();
+        list.add("a");
+        list.add(false);
+        metaData.put("list", list);
+        List<ScheduledScript> scripts = new ArrayList<ScheduledScript>();
+        scripts.add(new ScheduledScript(3, ScriptManager.NULL, "a.js", -5, null, metaData));
+        ScriptDataFormat.write(file, scripts, false);
+        assertSameScripts(scripts, ScriptDataFormat.readBinary(file));
+    }
+
+    private static List<ScheduledScript> mixedScripts() {
+        List<ScheduledScript> scripts = createScripts(3);
+        List<Object> list = new ArrayList<Object>();
+        list.add(1.5D);
+        list.add(Long.MAX_VALUE);
+        Map<String, Object> metaData = new HashMap<String, Object>();
+        metaData.put("list", list);
+        scripts.add(new ScheduledScript(3, "a", "rate.js", 400, null, metaData, Recurrence.fixedRate(60000)));
+        return scripts;
+    }
+
+    /**
+     * Reads the given bytes as a script data file, which must either succeed or fail with an IOException.
+     */
+    private boolean readsOrFails(byte[] bytes) throws Exception {
+        Files.write(file.toPath(), bytes);
+        try {
+            ScriptDataFormat.readBinary(file);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Test
+    public void testTruncatedFile() throws Exception {
+        for (boolean compress : new boolean[] {false, true}) {
+            ScriptDataFormat.write(file, mixedScripts(), compress);
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            for (int length = 0; length < bytes.length; length++) {
+                assertFalse("read truncated to " + length, readsOrFails(Arrays.copyOf(bytes, length)));
+            }
+        }
+    }
+
+    @Test
+    public void testCorruptFile() throws Exception {
+        ScriptDataFormat.write(file, mixedScripts(), false);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        for (int i = 0; i < bytes.length; i++) {
+            for (int value : new int[] {0x00, 0x7F, 0x80, 0xFF}) {
+                byte[] corrupt = bytes.clone();
+                corrupt[i] = (byte) value;
+                readsOrFails(corrupt);
+            }
+        }
+    }
+
+    @Test
+    public void testCorruptCounts() throws Exception {
+        // A string table claiming Integer.MAX_VALUE strings.
+        assertFalse(readsOrFails(new byte[] {'B', 'U', 'S', 'C', 2, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                (byte) 0xFF, 0x07}));
+        // A negative string length.
+        assertFalse(readsOrFails(new byte[] {'B', 'U', 'S', 'C', 2, 0, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                (byte) 0xFF, 0x0F}));
+        // A script whose target is not in the string table.
+        assertFalse(readsOrFails(new byte[] {'B', 'U', 'S', 'C', 2, 0, 0, 1, 0, 5}));
+    }
+
+    @Test
+    public void testReadsYaml() throws Exception {
+        Map<String, Object> script = new HashMap<String, Object>();
+        script.put("time", 1234L);
+        script.put("file", "a.js");
+        script.put("metaData", new HashMap<String, Object>());
+        List<Object> scripts = new ArrayList<Object>();
+        scripts.add(script);
+        Map<String, Object> data = new HashMap<String, Object>();
+        data.put("Steve", scripts);
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("scripts", data);
+        config.save(file);
+
+        assertFalse(ScriptDataFormat.isBinary(file));
+        List<ScheduledScript> read = ScriptDataFormat.read(file, LOGGER);
+        assertEquals(1, read.size());
+        assertEquals(-1, read.get(0).id);
+        assertEquals("Steve", read.get(0).target);
+        assertEquals(1234L, read.get(0).time);
+    }
+}
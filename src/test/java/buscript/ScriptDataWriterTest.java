@@ -0,0 +1,74 @@
+package buscript;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+public class ScriptDataWriterTest {
+
+    private File dataFile;
+    private File journalFile;
+    private ScriptDataWriter writer;
+    private ScriptScheduler scheduler;
+
+    @Before
+    public void setUp() throws Exception {
+        File folder = Files.createTempDirectory("data").toFile();
+        dataFile = new File(folder, "scripts.bin");
+        journalFile = new File(folder, "scripts.journal");
+        writer = new ScriptDataWriter(dataFile, new ScheduleJournal(journalFile),
+                Logger.getLogger("ScriptDataWriterTest"), 60000L);
+        scheduler = new ScriptScheduler();
+    }
+
+    @After
+    public void tearDown() {
+        writer.close();
+    }
+
+    private ScriptDataWriter.JournalRecord add(final ScheduledScript script) {
+        return new ScriptDataWriter.JournalRecord() {
+            @Override
+            public void write(ScheduleJournal journal) throws IOException {
+                journal.add(script);
+            }
+        };
+    }
+
+    @Test
+    public void testNothingIsWrittenBeforeDelay() {
+        writer.append(add(scheduler.schedule("Steve", "a.js", 100, null, null)));
+        assertFalse(journalFile.exists());
+        writer.flush();
+        assertTrue(journalFile.length() > 0);
+    }
+
+    @Test
+    public void testSnapshotReplacesEarlierRecords() throws Exception {
+        writer.append(add(scheduler.schedule("Steve", "a.js", 100, null, null)));
+        writer.append(add(scheduler.schedule("Alex", "b.js", 200, null, null)));
+        assertEquals(2, writer.getJournalRecords());
+        writer.snapshot(scheduler.snapshot());
+        assertEquals(0, writer.getJournalRecords());
+        writer.append(add(scheduler.schedule("Alex", "c.js", 300, null, null)));
+        writer.flush();
+
+        List<ScheduledScript> saved = ScriptDataFormat.readBinary(dataFile);
+        assertEquals(2, saved.size());
+        assertEquals("a.js", saved.get(0).file);
+        assertEquals("b.js", saved.get(1).file);
+        assertFalse(new File(dataFile.getPath() + ".tmp").exists());
+
+        ScriptScheduler replayed = new ScriptScheduler();
+        assertEquals(1, new ScheduleJournal(journalFile).replay(replayed));
+        assertEquals("c.js", replayed.pollDue(Long.MAX_VALUE).get(0).file);
+    }
+}
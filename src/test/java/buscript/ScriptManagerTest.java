@@ -7,7 +7,12 @@ import org.junit.Test;
 import java.io.File;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import static org.junit.Assert.*;
@@ -15,11 +20,12 @@ import static org.junit.Assert.*;
 public class ScriptManagerTest {
 
     private ScriptManager sm;
+    private File scriptFolder;
 
     @Before
     public void setUp() throws Exception {
-        sm = new ScriptManager(Files.createTempDirectory("scripts").toFile(),
-                Logger.getLogger("ScriptManagerTest"));
+        scriptFolder = Files.createTempDirectory("scripts").toFile();
+        sm = new ScriptManager(scriptFolder, Logger.getLogger("ScriptManagerTest"));
         sm.addScriptMethods(new TestMethods(sm));
     }
 
@@ -47,11 +53,285 @@ public class ScriptManagerTest {
         assertEquals("Test", sm.executeScript("var name = target; name", null, "Test"));
     }
 
+    @Test
+    public void testAssignedTargetDoesNotLeakIntoLaterExecutions() {
+        assertEquals("x", sm.executeScript("target = 'x'; target", null, "First"));
+        assertEquals("Second", sm.executeScript("target", null, "Second"));
+    }
+
+    @Test
+    public void testMetaDataField() {
+        assertEquals("vote", sm.runScript("metaData.put('reason', 'vote'); metaDataValue('reason')", null));
+        assertTrue(sm.metaData.isEmpty());
+    }
+
     @Test
     public void testTargetReplacementScript() {
         assertEquals("Test", sm.executeScript(sm.stringReplace("testReplace()"), null, "Test"));
     }
 
+    @Test
+    public void testNestedExecutionKeepsCallerState() {
+        assertEquals("Outer:Inner:v:v", sm.executeScript("metaData.put('key', 'v');"
+                + "var inner = nested(\"target + ':' + metaData.get('key')\", 'Inner');"
+                + "target + ':' + inner + ':' + metaData.get('key')", null, "Outer"));
+        assertNull(sm.getTarget());
+    }
+
+    @Test
+    public void testExecutionVariablesAreNotGlobal() throws Exception {
+        File script = new File(scriptFolder, "event.js");
+        Files.write(script.toPath(), "typeof event == 'undefined' ? 'none' : event".getBytes("UTF-8"));
+
+        assertEquals("first", sm.executeCachedScript(script.toString(), null,
+                Collections.<String, Object>singletonMap("event", "first"), null));
+        assertEquals("none", sm.executeCachedScript(script.toString(), null, null, null));
+    }
+
+    @Test
+    public void testCompiledScriptFileIsReused() throws Exception {
+        File script = new File(scriptFolder, "add.js");
+        Files.write(script.toPath(), "add(1, 2)".getBytes("UTF-8"));
+
+        assertEquals(3, sm.executeScript(script));
+        assertEquals(3, sm.executeScript(script));
+        assertEquals(1, sm.getCompiledScriptCacheMisses());
+        assertEquals(1, sm.getCompiledScriptCacheHits());
+
+        Files.write(script.toPath(), "add(10, 20)".getBytes("UTF-8"));
+        assertEquals(30, sm.executeScript(script));
+        assertEquals(2, sm.getCompiledScriptCacheMisses());
+
+        sm.clearScriptCache();
+        assertEquals(30, sm.executeScript(script));
+        assertEquals(3, sm.getCompiledScriptCacheMisses());
+    }
+
+    @Test
+    public void testCachedScriptIsCompiledUntilCacheCleared() throws Exception {
+        File script = new File(scriptFolder, "event.js");
+        Files.write(script.toPath(), "add(2, 2)".getBytes("UTF-8"));
+
+        int generation = sm.getScriptCacheGeneration();
+        assertEquals(4, sm.executeCachedScript(script.toString(), null, null, null));
+
+        Files.write(script.toPath(), "add(3, 3)".getBytes("UTF-8"));
+        assertEquals(4, sm.executeCachedScript(script.toString(), null, null, null));
+
+        sm.clearScriptCache();
+        assertNotEquals(generation, sm.getScriptCacheGeneration());
+        assertEquals(6, sm.executeCachedScript(script.toString(), null, null, null));
+    }
+
+    @Test
+    public void testChangedScriptIsReloadedByWatcher() throws Exception {
+        File script = new File(scriptFolder, "watched.js");
+        Files.write(script.toPath(), "add(1, 1)".getBytes("UTF-8"));
+        assertEquals(2, sm.executeCachedScript(script.toString(), null, null, null));
+
+        sm.startWatchingScripts();
+        try {
+            int generation = sm.getScriptCacheGeneration();
+            Files.write(script.toPath(), "add(2, 2)".getBytes("UTF-8"));
+            long deadline = System.currentTimeMillis() + 10000L;
+            Object result = 2;
+            while (!Integer.valueOf(4).equals(result) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50L);
+                result = sm.executeCachedScript(script.toString(), null, null, null);
+            }
+            assertEquals(4, result);
+            assertEquals(generation, sm.getScriptCacheGeneration());
+        } finally {
+            sm.stopWatchingScripts();
+        }
+    }
+
+    @Test
+    public void testPooledEnginesRunInParallel() throws Exception {
+        // One engine is kept for the thread that created the script manager, leaving two for these threads.
+        sm.setEnginePoolSize(3);
+        final CountDownLatch started = new CountDownLatch(2);
+        sm.setScriptVariable("started", started);
+        sm.addScriptMethods(new LateMethods());
+
+        final List<Object> results = Collections.synchronizedList(new ArrayList<>());
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                // Only finishes if both scripts are running at the same time.
+                results.add(sm.executeScript("started.countDown(); started.await(5, java.util.concurrent.TimeUnit.SECONDS) ? lateMethod() + add(1, 1) : 'timeout'", "test"));
+            }
+        };
+        Thread first = new Thread(task);
+        Thread second = new Thread(task);
+        first.start();
+        second.start();
+        first.join();
+        second.join();
+
+        assertEquals(Arrays.asList("late2", "late2"), results);
+    }
+
+    @Test
+    public void testBusyPoolTimesOut() throws Exception {
+        sm.setEngineLeaseTimeout(50L);
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+        sm.setScriptVariable("running", running);
+        sm.setScriptVariable("finish", finish);
+        Thread holder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                sm.executeScript("running.countDown(); finish.await(); 1", "test");
+            }
+        });
+        holder.start();
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+
+        final Object[] result = new Object[] {"none"};
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                result[0] = sm.executeScript("2", "test");
+            }
+        });
+        waiter.start();
+        waiter.join();
+        assertNull(result[0]);
+
+        finish.countDown();
+        holder.join();
+        waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                result[0] = sm.executeScript("2", "test");
+            }
+        });
+        waiter.start();
+        waiter.join();
+        assertEquals(2, result[0]);
+    }
+
+    @Test
+    public void testMainThreadDoesNotWaitForAsyncScript() throws Exception {
+        sm.setEngineLeaseTimeout(5000L);
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+        sm.setScriptVariable("running", running);
+        sm.setScriptVariable("finish", finish);
+        CompletableFuture<Object> future = sm.executeScriptAsync(
+                "running.countDown(); finish.await(); 1", "async");
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+
+        // The async script holds the only shared engine, the thread that created the manager has its own.
+        long start = System.currentTimeMillis();
+        assertEquals(2, sm.executeScript("add(1, 1)", "sync"));
+        assertTrue(System.currentTimeMillis() - start < 1000L);
+
+        finish.countDown();
+        assertEquals(1, future.get(5, TimeUnit.SECONDS));
+        sm.shutdownAsyncExecutor();
+    }
+
+    @Test
+    public void testExecuteScriptAsync() throws Exception {
+        CompletableFuture<Object> future = sm.executeScriptAsync(
+                "java.lang.Thread.currentThread().getName() + ':' + target + ':' + add(1, 2)", "test", "Test", null);
+
+        String result = (String) future.get(5, TimeUnit.SECONDS);
+        assertNotEquals(Thread.currentThread().getName() + ":Test:3", result);
+        assertTrue(result.endsWith(":Test:3"));
+        sm.shutdownAsyncExecutor();
+    }
+
+    @Test
+    public void testScriptStats() throws Exception {
+        File script = new File(scriptFolder, "event.js");
+        Files.write(script.toPath(), "1 + 1".getBytes("UTF-8"));
+
+        sm.executeCachedScript(script.toString(), String.class, null, null, null);
+        sm.executeCachedScript(script.toString(), String.class, null, null, null);
+        sm.executeScript("undefinedFunction()", "broken");
+
+        ScriptStats stats = sm.getScriptStats(script.toString());
+        assertEquals(2, stats.getExecutions());
+        assertEquals(0, stats.getErrors());
+        assertEquals(1, stats.getCompileLatency().getCount());
+        assertEquals(2, stats.getEvalLatency().getCount());
+        assertEquals(1, sm.getScriptStats("broken").getErrors());
+        assertEquals(1, sm.getEventStats().size());
+        assertEquals(String.class.getName(), sm.getEventStats().get(0).getName());
+
+        sm.resetScriptStats();
+        assertNull(sm.getScriptStats(script.toString()));
+        assertTrue(sm.getScriptStats().isEmpty());
+    }
+
+    @Test
+    public void testRunawayScriptIsAborted() {
+        sm.setScriptTimeBudget(100);
+
+        long start = System.currentTimeMillis();
+        assertNull(sm.executeScript("while (true) { try { for (;;) {} } catch (e) {} }", "runaway"));
+
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertFalse(Thread.currentThread().isInterrupted());
+        assertEquals(1, sm.getScriptStats("runaway").getErrors());
+        assertEquals("i=3", sm.runScript("var i = 0; while (i < 3) { i++; } 'i=' + i", null));
+    }
+
+    @Test
+    public void testRunawayFunctionIsAborted() throws Exception {
+        // The function only checks its budget if the script declaring it ran with a budget too.
+        sm.setScriptTimeBudget(60000);
+        sm.runScript("function spin() { while (true) {} }", null);
+        sm.setScriptTimeBudget("spin", 100);
+
+        assertNull(sm.runScriptFunction(sm.getGlobalScope(), "spin"));
+        assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+    @Test
+    public void testSleepingAsyncScriptIsAborted() throws Exception {
+        sm.setScriptTimeBudget(100);
+
+        long start = System.currentTimeMillis();
+        assertNull(sm.executeScriptAsync("java.lang.Thread.sleep(60000); 'woke'", "sleeper")
+                .get(10, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - start < 10000);
+        assertEquals(1, sm.getScriptStats("sleeper").getErrors());
+        // The interrupt does not outlive the aborted script.
+        assertEquals("slept", sm.executeScriptAsync("java.lang.Thread.sleep(10); 'slept'", "sleeper")
+                .get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testNoBudgetByDefault() {
+        assertEquals(0, sm.getScriptTimeBudget());
+        assertEquals("done", sm.executeScript("var i = 0; while (i < 3) { i++; } 'done'", "plain"));
+        assertEquals(0, sm.getScriptStats("plain").getErrors());
+    }
+
+    @Test
+    public void testNestedScriptRunsWithinOutermostBudget() {
+        sm.setScriptTimeBudget(100);
+        sm.setScriptTimeBudget("inner", 0);
+
+        assertNull(sm.executeScript("nested('while (true) {}', null); 'finished'", "outer"));
+        assertEquals(1, sm.getScriptStats("outer").getErrors());
+    }
+
+    @Test
+    public void testScriptTimeBudgetOverride() {
+        sm.setScriptTimeBudget(50);
+        sm.setScriptTimeBudget("slow", 5000);
+
+        assertEquals("done", sm.executeScript("var end = Date.now() + 200; while (Date.now() < end) {} 'done'",
+                "slow"));
+        sm.removeScriptTimeBudget("slow");
+        assertEquals(50, sm.getScriptTimeBudget("slow"));
+    }
+
     public static class TestMethods {
         ScriptManager sm;
         TestMethods(ScriptManager sm) {
@@ -63,5 +343,17 @@ public class ScriptManagerTest {
         public String testReplace() {
             return sm.stringReplace("%target%");
         }
+        public Object nested(String script, String target) {
+            return sm.executeScript(script, null, target);
+        }
+        public Object metaDataValue(String key) {
+            return sm.metaData.get(key);
+        }
+    }
+
+    public static class LateMethods {
+        public String lateMethod() {
+            return "late";
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,33 @@
+package buscript;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ScriptMetricsTest {
+
+    @Test
+    public void testCompileLatencyOnlyWhenCompiled() {
+        ScriptMetrics metrics = new ScriptMetrics();
+        metrics.record("a.js", null, -1, 100, false);
+        assertEquals(0, metrics.getScriptStats("a.js").getCompileLatency().getCount());
+        metrics.record("a.js", null, 50, 100, false);
+        assertEquals(1, metrics.getScriptStats("a.js").getCompileLatency().getCount());
+        assertEquals(2, metrics.getScriptStats("a.js").getEvalLatency().getCount());
+    }
+
+    @Test
+    public void testSourcesBeyondLimitAreOther() {
+        ScriptMetrics metrics = new ScriptMetrics();
+        for (int i = 0; i < ScriptMetrics.MAX_RECORDERS + 10; i++) {
+            metrics.record("player-" + i, String.class, -1, 100, false);
+        }
+        assertEquals(ScriptMetrics.MAX_RECORDERS + 1, metrics.getScriptStats().size());
+        assertEquals(10, metrics.getScriptStats(ScriptMetrics.OTHER).getExecutions());
+        assertNull(metrics.getScriptStats("player-" + ScriptMetrics.MAX_RECORDERS));
+        // Sources already tracked keep their own statistics.
+        metrics.record("player-0", null, -1, 100, false);
+        assertEquals(2, metrics.getScriptStats("player-0").getExecutions());
+        assertEquals(1, metrics.getEventStats().size());
+    }
+}
@@ -0,0 +1,198 @@
+package buscript;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ScriptSchedulerTest {
+
+    private ScriptScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new ScriptScheduler();
+    }
+
+    @Test
+    public void testPollDueInDueOrder() {
+        scheduler.schedule("a", "third.js", 300, null, null);
+        scheduler.schedule("b", "first.js", 100, null, null);
+        scheduler.schedule("a", "second.js", 200, null, null);
+
+        assertTrue(scheduler.pollDue(99).isEmpty());
+        assertEquals(100, scheduler.nextDueTime());
+
+        List<ScheduledScript> due = scheduler.pollDue(200);
+        assertEquals(2, due.size());
+        assertEquals("first.js", due.get(0).file);
+        assertEquals("second.js", due.get(1).file);
+        // Due scripts stay scheduled until they ran.
+        assertEquals(3, scheduler.size());
+        assertEquals(300, scheduler.nextDueTime());
+        assertTrue(scheduler.finish(due.get(0)));
+        assertTrue(scheduler.finish(due.get(1)));
+        assertEquals(1, scheduler.size());
+    }
+
+    @Test
+    public void testClearTarget() {
+        scheduler.schedule("a", "a.js", 100, null, null);
+        scheduler.schedule("b", "b.js", 200, null, null);
+        scheduler.schedule("a", "a.js", 300, null, null);
+
+        assertEquals(2, scheduler.clear("a").size());
+        assertTrue(scheduler.clear("a").isEmpty());
+        assertEquals(1, scheduler.size());
+        assertEquals(200, scheduler.nextDueTime());
+
+        List<ScheduledScript> due = scheduler.pollDue(1000);
+        assertEquals(1, due.size());
+        assertEquals("b", due.get(0).target);
+        assertEquals(Long.MAX_VALUE, scheduler.nextDueTime());
+        assertTrue(scheduler.finish(due.get(0)));
+        assertTrue(scheduler.snapshot().isEmpty());
+    }
+
+    @Test
+    public void testClearFile() {
+        scheduler.schedule("a", "vote-reward.js", 100, null, null);
+        scheduler.schedule("b", "vote-reward.js", 200, null, null);
+        scheduler.schedule("a", "other.js", 300, null, null);
+
+        assertEquals(2, scheduler.clearFile("vote-reward.js").size());
+        assertTrue(scheduler.clearFile("vote-reward.js").isEmpty());
+        assertEquals(1, scheduler.size());
+        assertEquals(300, scheduler.nextDueTime());
+        // The cleared scripts are gone from the target index as well.
+        assertTrue(scheduler.clear("b").isEmpty());
+        assertEquals(1, scheduler.clear("a").size());
+    }
+
+    @Test
+    public void testCancelById() {
+        ScheduledScript cancelled = scheduler.schedule("a", "a.js", 100, null, null);
+        scheduler.schedule("a", "a.js", 200, null, null);
+
+        assertSame(cancelled, scheduler.cancel(cancelled.id));
+        assertNull(scheduler.cancel(cancelled.id));
+        assertEquals(200, scheduler.nextDueTime());
+        assertEquals(1, scheduler.clearFile("a.js").size());
+
+        long id = scheduler.newId();
+        assertTrue(scheduler.restore(new ScheduledScript(id, "a", "a.js", 300, null, null, null)));
+        assertTrue(scheduler.newId() > id);
+        assertEquals(id, scheduler.pollDue(300).get(0).id);
+    }
+
+    @Test
+    public void testEqualValuesAreShared() {
+        List<Map<String, Object>> replacements = new ArrayList<Map<String, Object>>();
+        Map<String, Object> replacement = new HashMap<String, Object>();
+        replacement.put("regex", "%t");
+        replacement.put("replace", "Steve");
+        replacements.add(replacement);
+        Map<String, Object> metaData = new HashMap<String, Object>();
+        metaData.put("source", "vote");
+
+        ScheduledScript first = scheduler.schedule(new String("Steve"), new String("vote-reward.js"), 100,
+                replacements, metaData);
+        assertTrue(scheduler.restore(new ScheduledScript(scheduler.newId(), new String("Steve"),
+                new String("vote-reward.js"), 200, new ArrayList<Map<String, Object>>(replacements),
+                new HashMap<String, Object>(metaData))));
+        List<ScheduledScript> due = scheduler.pollDue(200);
+        assertSame(first, due.get(0));
+        ScheduledScript second = due.get(1);
+        assertSame(first.target, second.target);
+        assertSame(first.file, second.file);
+        assertSame(first.replacements, second.replacements);
+        assertSame(first.metaData, second.metaData);
+        assertEquals(replacements, second.replacements);
+        assertEquals(metaData, second.metaData);
+
+        // Scheduled values are snapshots that the caller can no longer change.
+        metaData.put("source", "other");
+        assertEquals("vote", first.metaData.get("source"));
+        try {
+            first.metaData.put("source", "other");
+            fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+    }
+
+    @Test
+    public void testDueScriptCanBeCancelledUntilItRan() {
+        ScheduledScript cancelled = scheduler.schedule("a", "a.js", 100, null, null);
+        ScheduledScript cleared = scheduler.schedule("b", "b.js", 100, null, null);
+        ScheduledScript fileCleared = scheduler.schedule("c", "c.js", 100, null, null);
+
+        assertEquals(3, scheduler.pollDue(100).size());
+        assertSame(cancelled, scheduler.cancel(cancelled.id));
+        assertEquals(1, scheduler.clear("b").size());
+        assertEquals(1, scheduler.clearFile("c.js").size());
+        assertTrue(cancelled.cancelled && cleared.cancelled && fileCleared.cancelled);
+        assertFalse(scheduler.finish(cancelled));
+        assertEquals(0, scheduler.size());
+    }
+
+    @Test
+    public void testSnapshotGroupsScriptsByTarget() {
+        scheduler.schedule("a", "a.js", 100, null, null);
+        scheduler.schedule("b", "b.js", 200, null, null);
+        scheduler.schedule("a", "c.js", 50, null, null);
+
+        List<ScheduledScript> snapshot = scheduler.snapshot();
+        assertEquals(3, snapshot.size());
+        assertEquals("a.js", snapshot.get(0).file);
+        assertEquals("c.js", snapshot.get(1).file);
+        assertEquals("b.js", snapshot.get(2).file);
+    }
+
+    @Test
+    public void testSnapshotIsNotChangedByTheScheduler() {
+        ScheduledScript recurring = scheduler.schedule("a", "every.js", 100, null, null, Recurrence.fixedRate(100));
+        List<ScheduledScript> snapshot = scheduler.snapshot();
+        assertTrue(scheduler.advance(scheduler.pollDue(100).get(0), 200));
+        scheduler.cancel(recurring.id);
+
+        assertEquals(100, snapshot.get(0).time);
+        assertFalse(snapshot.get(0).cancelled);
+    }
+
+    @Test
+    public void testRecurringScriptStaysScheduled() {
+        ScheduledScript recurring = scheduler.schedule("a", "every.js", 100, null, null, Recurrence.fixedRate(100));
+        scheduler.schedule("a", "once.js", 150, null, null);
+
+        List<ScheduledScript> due = scheduler.pollDue(150);
+        assertEquals(2, due.size());
+        assertTrue(scheduler.finish(due.get(1)));
+        assertEquals(1, scheduler.size());
+        assertEquals(Long.MAX_VALUE, scheduler.nextDueTime());
+
+        assertTrue(scheduler.advance(recurring, 200));
+        assertEquals(200, scheduler.nextDueTime());
+        assertSame(recurring, scheduler.pollDue(200).get(0));
+
+        // Clearing the target while the script runs stops it from being scheduled again.
+        assertEquals(1, scheduler.clear("a").size());
+        assertFalse(scheduler.advance(recurring, 300));
+        assertEquals(0, scheduler.size());
+        assertEquals(Long.MAX_VALUE, scheduler.nextDueTime());
+    }
+
+    @Test
+    public void testRecurrenceSkipsMissedRuns() {
+        Recurrence rate = Recurrence.fixedRate(100);
+        assertEquals(200, rate.next(100, 150));
+        assertEquals(500, rate.next(100, 420));
+        assertEquals(520, Recurrence.fixedDelay(100).next(100, 420));
+        assertEquals(rate, Recurrence.fromString(rate.toString()));
+        assertEquals(Recurrence.cron("*/5 * * * *"), Recurrence.fromString("cron */5 * * * *"));
+    }
+}
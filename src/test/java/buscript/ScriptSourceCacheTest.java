@@ -0,0 +1,118 @@
+package buscript;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+public class ScriptSourceCacheTest {
+
+    private File folder;
+    private ScriptSourceCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        folder = Files.createTempDirectory("scripts").toFile();
+        // Room for two of the 100 character scripts below but not three.
+        cache = new ScriptSourceCache(2 * (96 + 200) + 100, Logger.getLogger("ScriptSourceCacheTest"));
+    }
+
+    private String write(String name, char c) throws Exception {
+        File file = new File(folder, name);
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            source.append(c);
+        }
+        Files.write(file.toPath(), source.toString().getBytes("UTF-8"));
+        return file.toString();
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws Exception {
+        String a = write("a.js", 'a');
+        String b = write("b.js", 'b');
+        String c = write("c.js", 'c');
+        List<String> evicted = new ArrayList<String>();
+
+        cache.get(a, evicted);
+        cache.get(b, evicted);
+        cache.get(a, evicted);
+        cache.get(c, evicted);
+
+        assertEquals(1, evicted.size());
+        assertEquals(b, evicted.get(0));
+        ScriptCacheStats stats = cache.getStats();
+        assertEquals(2, stats.getSize());
+        assertEquals(1, stats.getHits());
+        assertEquals(3, stats.getMisses());
+        assertEquals(1, stats.getEvictions());
+        assertEquals(3, stats.getLoads());
+        assertTrue(stats.getWeight() <= stats.getMaxWeight());
+    }
+
+    @Test
+    public void testGetIfCached() throws Exception {
+        String a = write("a.js", 'a');
+        String b = write("b.js", 'b');
+        String c = write("c.js", 'c');
+        List<String> evicted = new ArrayList<String>();
+
+        assertNull(cache.getIfCached(a));
+        String source = cache.get(a, evicted);
+        cache.get(b, evicted);
+        assertSame(source, cache.getIfCached(a));
+        cache.get(b, evicted);
+        cache.get(c, evicted);
+
+        // Both a and b were read again, so the oldest of them goes rather than the script just loaded.
+        assertEquals(1, evicted.size());
+        assertEquals(a, evicted.get(0));
+        assertNull(cache.getIfCached(a));
+        assertNotNull(cache.getIfCached(c));
+        assertEquals(3, cache.getStats().getHits());
+    }
+
+    @Test
+    public void testMissingFileIsNotCreated() {
+        File missing = new File(folder, "missing.js");
+
+        assertEquals("", cache.get(missing.toString(), null));
+        assertEquals("", cache.get(missing.toString(), null));
+
+        assertFalse(missing.exists());
+        ScriptCacheStats stats = cache.getStats();
+        assertEquals(1, stats.getMisses());
+        assertEquals(1, stats.getNegativeHits());
+    }
+
+    @Test
+    public void testReloadReplacesOnlyChangedScript() throws Exception {
+        String a = write("a.js", 'a');
+        String b = write("b.js", 'b');
+        String oldB = cache.get(b, null);
+        cache.get(a, null);
+
+        write("a.js", 'x');
+        assertEquals(1, cache.reload(new File(a), null).size());
+
+        assertEquals('x', cache.get(a, null).charAt(0));
+        assertSame(oldB, cache.get(b, null));
+    }
+
+    @Test
+    public void testCreatedFileReplacesNegativeEntry() throws Exception {
+        File file = new File(folder, "later.js");
+        assertEquals("", cache.get(file.toString(), null));
+
+        write("later.js", 'l');
+        cache.reload(file, null);
+
+        assertEquals('l', cache.get(file.toString(), null).charAt(0));
+    }
+}
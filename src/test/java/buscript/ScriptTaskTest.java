@@ -0,0 +1,70 @@
+package buscript;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ScriptTaskTest {
+
+    private TestFixtures.TestServer server;
+    private Buscript buscript;
+    private final List<Object> ran = Collections.synchronizedList(new ArrayList<Object>());
+
+    @Before
+    public void setUp() throws Exception {
+        server = new TestFixtures.TestServer("ScriptTaskTest");
+        server.dataFolder = Files.createTempDirectory("buscript").toFile();
+        buscript = new Buscript(server.plugin);
+        buscript.stopWatchingScripts();
+        buscript.setScriptVariable("ran", ran);
+    }
+
+    private File script(String name) throws Exception {
+        File script = new File(buscript.getScriptFolder(), name + ".js");
+        Files.write(script.toPath(), ("ran.add('" + name + "')").getBytes("UTF-8"));
+        return script;
+    }
+
+    @After
+    public void tearDown() {
+        buscript.runTasks = false;
+        buscript.shutdownAsyncExecutor();
+        buscript.stopWatchdog();
+        buscript.closeData();
+    }
+
+    @Test
+    public void testBackloggedScriptsCanBeCancelled() throws Exception {
+        buscript.setScheduledScriptBudget(1, 1000L);
+        buscript.scheduleDelayedScript(script("a"), "a", 0L);
+        long cancelled = buscript.scheduleDelayedScript(script("b"), "b", 0L);
+        buscript.scheduleDelayedScript(script("c"), "c", 0L);
+        File deleted = script("d");
+        buscript.scheduleDelayedScript(deleted, "d", 0L);
+
+        // The budget runs one script and leaves the others waiting for the following ticks.
+        server.tick();
+        assertEquals(Arrays.<Object>asList("a"), ran);
+        assertEquals(3, buscript.getScheduleStats().getBacklog());
+        assertEquals(3, buscript.getScheduleStats().getScheduled());
+
+        assertTrue(buscript.cancelScheduledScript(cancelled));
+        buscript.clearScheduledScripts("c");
+        buscript.clearScheduledScriptFile(deleted);
+        assertEquals(0, buscript.getScheduleStats().getScheduled());
+
+        server.tick();
+        server.tick();
+        server.tick();
+        assertEquals(Arrays.<Object>asList("a"), ran);
+    }
+}
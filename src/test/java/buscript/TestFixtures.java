@@ -0,0 +1,157 @@
+package buscript;
+
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.scheduler.BukkitScheduler;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * Stand-ins for the Bukkit objects the tests need, built from proxies.
+ */
+final class TestFixtures {
+
+    private TestFixtures() {
+    }
+
+    static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, handler));
+    }
+
+    /**
+     * Creates a proxy that answers each method with the answer stored under the method's name, or null.  Proxies are
+     * only equal to themselves and {@code hasPermission(name)} is true if there is an answer for
+     * {@code "permission:" + name}.
+     */
+    static <T> T proxy(Class<T> type, final Map<String, Object> answers) {
+        return proxy(type, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("equals")) {
+                    return proxy == args[0];
+                }
+                if (method.getName().equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                }
+                if (method.getName().equals("hasPermission")) {
+                    return answers.containsKey("permission:" + args[0]);
+                }
+                return answers.get(method.getName());
+            }
+        });
+    }
+
+    static Player player(String name, UUID id) {
+        Map<String, Object> answers = new HashMap<String, Object>();
+        answers.put("getName", name);
+        answers.put("getUniqueId", id);
+        return proxy(Player.class, answers);
+    }
+
+    static Player playerInWorld(String world, String... permissions) {
+        Map<String, Object> worldAnswers = new HashMap<String, Object>();
+        worldAnswers.put("getName", world);
+        Map<String, Object> answers = new HashMap<String, Object>();
+        answers.put("getWorld", proxy(World.class, worldAnswers));
+        for (String permission : permissions) {
+            answers.put("permission:" + permission, true);
+        }
+        return proxy(Player.class, answers);
+    }
+
+    /**
+     * A server whose scheduler only runs tasks when the test ticks it, and which records the commands it dispatches.
+     * Delayed tasks run on the next tick regardless of their delay.
+     */
+    static final class TestServer {
+
+        final List<String> dispatched = new ArrayList<String>();
+        final Map<Integer, Runnable> tasks = new LinkedHashMap<Integer, Runnable>();
+        boolean primaryThread = true;
+        File dataFolder = null;
+        private int nextTaskId = 1;
+
+        final Server server;
+        final Plugin plugin;
+
+        TestServer(final String name) {
+            final BukkitScheduler scheduler = proxy(BukkitScheduler.class, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if (method.getName().equals("runTask")) {
+                        tasks.put(nextTaskId++, (Runnable) args[1]);
+                    } else if (method.getName().equals("scheduleSyncDelayedTask")) {
+                        tasks.put(nextTaskId, (Runnable) args[1]);
+                        return nextTaskId++;
+                    } else if (method.getName().equals("cancelTask")) {
+                        tasks.remove(args[0]);
+                    }
+                    return null;
+                }
+            });
+            final PluginManager pluginManager = proxy(PluginManager.class, new HashMap<String, Object>());
+            server = proxy(Server.class, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if (method.getName().equals("isPrimaryThread")) {
+                        return primaryThread;
+                    }
+                    if (method.getName().equals("getScheduler")) {
+                        return scheduler;
+                    }
+                    if (method.getName().equals("dispatchCommand")) {
+                        dispatched.add((String) args[1]);
+                        return true;
+                    }
+                    if (method.getName().equals("getPluginManager")) {
+                        return pluginManager;
+                    }
+                    if (method.getName().equals("getOnlinePlayers")) {
+                        return Collections.emptyList();
+                    }
+                    return null;
+                }
+            });
+            plugin = proxy(Plugin.class, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if (method.getName().equals("getServer")) {
+                        return server;
+                    }
+                    if (method.getName().equals("getLogger")) {
+                        return Logger.getLogger(name);
+                    }
+                    if (method.getName().equals("getDataFolder")) {
+                        return dataFolder;
+                    }
+                    return null;
+                }
+            });
+        }
+
+        /**
+         * Runs the tasks scheduled so far, as the next server tick would.
+         */
+        void tick() {
+            List<Runnable> due = new ArrayList<Runnable>(tasks.values());
+            tasks.clear();
+            for (Runnable task : due) {
+                task.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package buscript.util;
+
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.junit.Assert.*;
+
+public class CronExpressionTest {
+
+    private static long time(int year, int month, int day, int hour, int minute) {
+        return LocalDateTime.of(year, month, day, hour, minute).toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    private static CronExpression cron(String expression) {
+        return CronExpression.parse(expression, ZoneId.of("UTC"));
+    }
+
+    @Test
+    public void testNext() {
+        long start = time(2024, 1, 1, 10, 7);
+        assertEquals(time(2024, 1, 1, 10, 8), cron("* * * * *").next(start));
+        assertEquals(time(2024, 1, 1, 10, 15), cron("*/15 * * * *").next(start));
+        assertEquals(time(2024, 1, 1, 12, 0), cron("0 12 * * *").next(start));
+        assertEquals(time(2024, 1, 2, 9, 30), cron("30 9 * * *").next(start));
+        assertEquals(time(2024, 3, 1, 0, 0), cron("0 0 1 MAR *").next(start));
+        assertEquals(time(2024, 2, 29, 0, 0), cron("0 0 29 2 *").next(start));
+        // The first of January 2024 is a Monday.
+        assertEquals(time(2024, 1, 7, 0, 0), cron("0 0 * * SUN").next(start));
+        assertEquals(time(2024, 1, 7, 0, 0), cron("0 0 * * 7").next(start));
+        assertEquals(time(2024, 1, 2, 8, 0), cron("0 8 * * 1-5").next(start));
+    }
+
+    @Test
+    public void testDayOfMonthOrDayOfWeek() {
+        // Either the 15th or a Friday.
+        assertEquals(time(2024, 1, 5, 0, 0), cron("0 0 15 * FRI").next(time(2024, 1, 1, 0, 0)));
+        assertEquals(time(2024, 1, 15, 0, 0), cron("0 0 15 * FRI").next(time(2024, 1, 12, 0, 0)));
+    }
+
+    @Test
+    public void testNeverMatches() {
+        assertEquals(Long.MAX_VALUE, cron("0 0 30 2 *").next(time(2024, 1, 1, 0, 0)));
+    }
+
+    @Test
+    public void testInvalidExpressions() {
+        String[] invalid = {"* * * *", "60 * * * *", "* 24 * * *", "* * 0 * *", "* * * 13 *", "5-1 * * * *",
+                "a * * * *", "*/0 * * * *"};
+        for (String expression : invalid) {
+            try {
+                CronExpression.parse(expression);
+                fail("Parsed " + expression);
+            } catch (IllegalArgumentException expected) {
+                // Expected.
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package buscript.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+public class FileToolsTest {
+
+    private File folder;
+
+    @Before
+    public void setUp() throws Exception {
+        folder = Files.createTempDirectory("files").toFile();
+    }
+
+    private File write(String name, byte[] bytes) throws Exception {
+        File file = new File(folder, name);
+        Files.write(file.toPath(), bytes);
+        return file;
+    }
+
+    @Test
+    public void testReadsUtf8AndSkipsByteOrderMark() throws Exception {
+        byte[] text = "broadcast('é中☃');".getBytes("UTF-8");
+        byte[] bytes = new byte[text.length + 3];
+        bytes[0] = (byte) 0xEF;
+        bytes[1] = (byte) 0xBB;
+        bytes[2] = (byte) 0xBF;
+        System.arraycopy(text, 0, bytes, 3, text.length);
+
+        assertEquals("broadcast('é中☃');", FileTools.readFile(write("bom.js", bytes)));
+    }
+
+    @Test
+    public void testReadsMappedFile() throws Exception {
+        StringBuilder source = new StringBuilder();
+        while (source.length() < 128 * 1024) {
+            source.append("var x = 'é';\n");
+        }
+        File file = write("large.js", source.toString().getBytes("UTF-8"));
+
+        assertEquals(source.toString(), FileTools.readFileAsCharSequence(file, 64 * 1024).toString());
+        assertEquals(source.toString(), FileTools.readFile(file));
+    }
+
+    @Test
+    public void testReaderView() throws Exception {
+        File file = write("reader.js", "abcdefghij".getBytes("UTF-8"));
+        try (Reader reader = FileTools.openReader(file)) {
+            char[] buffer = new char[4];
+            assertEquals(4, reader.read(buffer, 0, 4));
+            assertEquals("abcd", new String(buffer));
+            assertEquals('e', reader.read());
+            assertEquals(5, reader.read(new char[8], 0, 8));
+            assertEquals(-1, reader.read());
+        }
+    }
+
+    @Test
+    public void testMissingFileIsEmptyString() {
+        assertEquals("", FileTools.readFileAsString(new File(folder, "missing.js"), Logger.getLogger("FileToolsTest")));
+    }
+}
@@ -0,0 +1,47 @@
+package buscript.util;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LongObjectMapTest {
+
+    @Test
+    public void testMatchesHashMap() {
+        LongObjectMap<String> map = new LongObjectMap<String>();
+        Map<Long, String> expected = new HashMap<Long, String>();
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            // A small key range so that puts, replacements and removes all collide often.
+            long key = random.nextInt(2000) * 1024L;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                String value = String.valueOf(i);
+                assertEquals(expected.put(key, value), map.put(key, value));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (long key = 0; key < 2000 * 1024L; key += 1024) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+    }
+
+    @Test
+    public void testRemoveAll() {
+        LongObjectMap<Long> map = new LongObjectMap<Long>();
+        for (long key = 0; key < 1000; key++) {
+            map.put(key, key);
+        }
+        for (long key = 0; key < 1000; key++) {
+            assertEquals(Long.valueOf(key), map.remove(key));
+            assertFalse(map.containsKey(key));
+        }
+        assertTrue(map.isEmpty());
+        assertNull(map.remove(0));
+    }
+}